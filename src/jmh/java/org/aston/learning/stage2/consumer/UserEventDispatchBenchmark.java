@@ -0,0 +1,109 @@
+package org.aston.learning.stage2.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.coalesce.UserEventCoalescer;
+import org.aston.learning.stage2.dedup.UserEventDeduplicator;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.handler.NotificationHandler;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import org.aston.learning.stage2.handler.UserCreatedHandler;
+import org.aston.learning.stage2.handler.UserDeletedHandler;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxJournal;
+import org.aston.learning.stage2.service.EmailService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of the consumer's event-type dispatch with the mail layer stubbed out
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserEventDispatchBenchmark {
+
+    private UserEventConsumer consumer;
+    private UserEvent createdEvent;
+    private UserEvent deletedEvent;
+    private UserEvent unknownEvent;
+
+    @Setup
+    public void setUp() {
+        NoOpEmailService emailService = new NoOpEmailService();
+        List<NotificationHandler> handlers = List.of(new UserCreatedHandler(), new UserDeletedHandler());
+        handlers.forEach(handler -> ReflectionTestUtils.setField(handler, "emailService", emailService));
+
+        NotificationHandlerRegistry handlerRegistry = new NotificationHandlerRegistry();
+        ReflectionTestUtils.setField(handlerRegistry, "handlers", handlers);
+        ReflectionTestUtils.setField(handlerRegistry, "emailService", emailService);
+        ReflectionTestUtils.setField(handlerRegistry, "meterRegistry", new SimpleMeterRegistry());
+        NotificationMetrics metrics = new NotificationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(handlerRegistry, "metrics", metrics);
+        ReflectionTestUtils.setField(handlerRegistry, "outbox", new OutboxJournal());
+        handlerRegistry.init();
+
+        consumer = new UserEventConsumer();
+        ReflectionTestUtils.setField(consumer, "handlerRegistry", handlerRegistry);
+
+        // Dedup has its own benchmark; here every invocation must reach the dispatch
+        UserEventDeduplicator deduplicator = new UserEventDeduplicator();
+        ReflectionTestUtils.setField(deduplicator, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(deduplicator, "enabled", false);
+        deduplicator.start();
+        ReflectionTestUtils.setField(consumer, "deduplicator", deduplicator);
+        ReflectionTestUtils.setField(consumer, "coalescer", new UserEventCoalescer());
+
+        createdEvent = new UserEvent("USER_CREATED", "user@example.com", "Test User");
+        deletedEvent = new UserEvent("USER_DELETED", "user@example.com", "Test User");
+        unknownEvent = new UserEvent("PROFILE_VIEWED", "user@example.com", "Test User");
+    }
+
+    @Benchmark
+    public void userCreated() {
+        consumer.consumeUserEvent(createdEvent, "user-events");
+    }
+
+    @Benchmark
+    public void userDeleted() {
+        consumer.consumeUserEvent(deletedEvent, "user-events");
+    }
+
+    @Benchmark
+    public void unknownType() {
+        consumer.consumeUserEvent(unknownEvent, "user-events");
+    }
+
+    static class NoOpEmailService extends EmailService {
+
+        private final SimpleMailMessage message = new SimpleMailMessage();
+
+        @Override
+        public SimpleMailMessage createUserCreatedEmail(String toEmail, String userName) {
+            return message;
+        }
+
+        @Override
+        public SimpleMailMessage createUserDeletedEmail(String toEmail, String userName) {
+            return message;
+        }
+
+        @Override
+        public void sendEmail(SimpleMailMessage message, String type) {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.aston.learning.stage2.controller;
+
+import org.aston.learning.stage2.dto.HealthResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+
+// The three links healthCheck adds, built per request with linkTo(methodOn(...)) versus NotificationLinks.
+// Every invocation binds a fresh request, as HATEOAS caches the base URI per request.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationLinksBenchmark {
+
+    private final NotificationLinks links = new NotificationLinks();
+
+    @Setup(Level.Invocation)
+    public void bindRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/notifications/health");
+        request.setServerName("notification-service");
+        request.setServerPort(8080);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @TearDown(Level.Invocation)
+    public void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public HealthResponse linkToMethodOn() {
+        HealthResponse response = new HealthResponse("Notification Service is running", "OK", 0);
+        response.add(linkTo(methodOn(NotificationController.class).healthCheck()).withSelfRel());
+        response.add(linkTo(methodOn(NotificationController.class).sendCustomEmail(null)).withRel("send-custom-email"));
+        response.add(linkTo(methodOn(NotificationController.class).sendWelcomeEmail(null)).withRel("send-welcome-email"));
+        return response;
+    }
+
+    @Benchmark
+    public HealthResponse cachedLinks() {
+        HealthResponse response = new HealthResponse("Notification Service is running", "OK", 0);
+        response.add(links.healthCheck("self"));
+        response.add(links.sendCustomEmail("send-custom-email"));
+        response.add(links.sendWelcomeEmail("send-welcome-email"));
+        return response;
+    }
+}
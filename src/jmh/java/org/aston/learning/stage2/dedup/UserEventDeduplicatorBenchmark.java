@@ -0,0 +1,59 @@
+package org.aston.learning.stage2.dedup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.event.UserEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Duplicate checks from several consumer threads at once; a hit is what a redelivered event costs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class UserEventDeduplicatorBenchmark {
+
+    private final AtomicLong sequence = new AtomicLong();
+    private UserEventDeduplicator deduplicator;
+    private UserEvent redelivered;
+
+    @Setup
+    public void setUp() {
+        deduplicator = new UserEventDeduplicator();
+        ReflectionTestUtils.setField(deduplicator, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(deduplicator, "enabled", true);
+        ReflectionTestUtils.setField(deduplicator, "windowMs", 3_600_000L);
+        ReflectionTestUtils.setField(deduplicator, "maxEntries", 100_000);
+        deduplicator.start();
+
+        redelivered = new UserEvent("USER_CREATED", "user@example.com", "Test User");
+        deduplicator.markIfFirst(redelivered);
+    }
+
+    @Benchmark
+    public boolean duplicate() {
+        return deduplicator.markIfFirst(redelivered);
+    }
+
+    @Benchmark
+    public boolean firstDelivery() {
+        UserEvent event = new UserEvent("USER_CREATED", "user@example.com", "Test User");
+        event.setEventId(Long.toString(sequence.incrementAndGet()));
+        return deduplicator.markIfFirst(event);
+    }
+}
@@ -0,0 +1,61 @@
+package org.aston.learning.stage2.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.mediatype.MessageResolver;
+import org.springframework.hateoas.mediatype.hal.CurieProvider;
+import org.springframework.hateoas.mediatype.hal.Jackson2HalModule;
+import org.springframework.hateoas.server.core.EvoInflectorLinkRelationProvider;
+
+import java.util.concurrent.TimeUnit;
+
+// HAL serialization of the responses NotificationController returns
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailResponseSerializationBenchmark {
+
+    private ObjectMapper halMapper;
+    private EmailResponse successResponse;
+    private HealthResponse healthResponse;
+
+    @Setup
+    public void setUp() {
+        halMapper = new ObjectMapper();
+        halMapper.registerModule(new Jackson2HalModule());
+        halMapper.setHandlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(
+                new EvoInflectorLinkRelationProvider(), CurieProvider.NONE, MessageResolver.DEFAULTS_ONLY));
+
+        successResponse = new EmailResponse(true, "Email sent successfully to: user@example.com", "user@example.com");
+        successResponse.add(Link.of("http://localhost:8081/api/notifications/health").withRel("health-check"));
+        successResponse.add(Link.of("http://localhost:8081/api/notifications/welcome").withRel("send-welcome-email"));
+
+        healthResponse = new HealthResponse("Notification Service is running", "OK", System.currentTimeMillis());
+        healthResponse.add(Link.of("http://localhost:8081/api/notifications/health").withSelfRel());
+        healthResponse.add(Link.of("http://localhost:8081/api/notifications/email").withRel("send-custom-email"));
+        healthResponse.add(Link.of("http://localhost:8081/api/notifications/welcome").withRel("send-welcome-email"));
+    }
+
+    @Benchmark
+    public byte[] emailResponse() throws Exception {
+        return halMapper.writeValueAsBytes(successResponse);
+    }
+
+    @Benchmark
+    public byte[] healthResponse() throws Exception {
+        return halMapper.writeValueAsBytes(healthResponse);
+    }
+}
@@ -0,0 +1,84 @@
+package org.aston.learning.stage2.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// UserEventDeserializer against the generic JsonDeserializer setup KafkaConsumerConfig used before it,
+// plus the cost of dropping a record whose event type no handler needs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserEventDeserializationBenchmark {
+
+    private static final String TOPIC = "user-events";
+
+    private JsonDeserializer<Object> jsonDeserializer;
+    private UserEventDeserializer userEventDeserializer;
+    private UserEventDeserializer filteringDeserializer;
+    private RecordHeaders headers;
+    private byte[] payload;
+    private byte[] irrelevantPayload;
+
+    @Setup
+    public void setUp() {
+        jsonDeserializer = new JsonDeserializer<>();
+        jsonDeserializer.configure(Map.of(
+                JsonDeserializer.TRUSTED_PACKAGES, "*",
+                JsonDeserializer.TYPE_MAPPINGS, "userEvent:org.aston.learning.stage2.event.UserEvent"), false);
+        userEventDeserializer = new UserEventDeserializer(new SimpleMeterRegistry());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        filteringDeserializer = new UserEventDeserializer(meterRegistry, new EventTypeFilter(
+                List.of("USER_CREATED", "USER_DELETED", "PASSWORD_RESET", "EMAIL_CHANGED"), "eventType", meterRegistry));
+
+        // Produce the payload and type headers the way the user service does
+        headers = new RecordHeaders();
+        try (JsonSerializer<UserEvent> serializer = new JsonSerializer<>()) {
+            payload = serializer.serialize(TOPIC, headers,
+                    new UserEvent("USER_CREATED", "user@example.com", "Test User"));
+            irrelevantPayload = serializer.serialize(TOPIC, new RecordHeaders(),
+                    new UserEvent("PROFILE_VIEWED", "user@example.com", "Test User"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        jsonDeserializer.close();
+    }
+
+    @Benchmark
+    public Object jsonDeserializer() {
+        // The deserializer strips type headers it has read, so every record gets its own copy as on the wire
+        return jsonDeserializer.deserialize(TOPIC, new RecordHeaders(headers.toArray()), payload);
+    }
+
+    @Benchmark
+    public Object userEventDeserializer() {
+        return userEventDeserializer.deserialize(TOPIC, new RecordHeaders(headers.toArray()), payload);
+    }
+
+    @Benchmark
+    public Object filteredIrrelevantRecord() {
+        // What a record for an event type without a handler costs once the payload scan rejects it
+        return filteringDeserializer.deserialize(TOPIC, new RecordHeaders(headers.toArray()), irrelevantPayload);
+    }
+}
@@ -0,0 +1,65 @@
+package org.aston.learning.stage2.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.template.NotificationTemplateEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Full message construction in EmailService: template rendering plus SimpleMailMessage assembly
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailRenderBenchmark {
+
+    private EmailService emailService;
+
+    @Setup
+    public void setUp() throws Exception {
+        NotificationTemplateEngine templateEngine = new NotificationTemplateEngine();
+        templateEngine.loadTemplates();
+
+        // Rendering is timed in production too, so the benchmark keeps the timer on
+        NotificationMetrics metrics = new NotificationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", new SimpleMeterRegistry());
+
+        emailService = new EmailService();
+        ReflectionTestUtils.setField(emailService, "metrics", metrics);
+        ReflectionTestUtils.setField(emailService, "templateEngine", templateEngine);
+        ReflectionTestUtils.setField(emailService, "fromEmail", "no-reply@example.com");
+        ReflectionTestUtils.setField(emailService, "siteUrl", "https://example.com");
+        ReflectionTestUtils.setField(emailService, "locale", Locale.forLanguageTag("ru"));
+    }
+
+    @Benchmark
+    public SimpleMailMessage userCreatedEmail() {
+        return emailService.createUserCreatedEmail("user@example.com", "Test User");
+    }
+
+    @Benchmark
+    public SimpleMailMessage userDeletedEmail() {
+        return emailService.createUserDeletedEmail("user@example.com", "Test User");
+    }
+
+    @Benchmark
+    public SimpleMailMessage customEmail() {
+        return emailService.createCustomEmail("user@example.com", "Order update",
+                "Your order has been shipped and will arrive tomorrow.");
+    }
+}
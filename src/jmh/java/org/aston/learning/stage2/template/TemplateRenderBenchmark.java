@@ -0,0 +1,73 @@
+package org.aston.learning.stage2.template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Precompiled templates versus the String.format bodies EmailService used to build
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateRenderBenchmark {
+
+    private static final String SITE_URL = "https://example.com";
+
+    private NotificationTemplateEngine templateEngine;
+    private String userName;
+    private String message;
+
+    @Setup
+    public void setUp() throws Exception {
+        templateEngine = new NotificationTemplateEngine();
+        templateEngine.loadTemplates();
+        userName = "Test User";
+        message = "Your order has been shipped and will arrive tomorrow.";
+    }
+
+    @Benchmark
+    public String welcomeStringFormat() {
+        return String.format(
+                "Здравствуйте, %s!%n%n" +
+                        "Ваш аккаунт на сайте %s был успешно создан.%n%n" +
+                        "Мы рады приветствовать вас в нашем сообществе!%n%n" +
+                        "С уважением,%nКоманда %s",
+                userName, SITE_URL, SITE_URL
+        );
+    }
+
+    @Benchmark
+    public RenderedNotification welcomeTemplate() {
+        return templateEngine.render("welcome", Locale.ROOT,
+                Map.of("userName", userName, "siteUrl", SITE_URL));
+    }
+
+    @Benchmark
+    public String customStringFormat() {
+        return String.format(
+                "Здравствуйте!%n%n" +
+                        "%s%n%n" +
+                        "С уважением,%nКоманда %s",
+                message, SITE_URL
+        );
+    }
+
+    @Benchmark
+    public RenderedNotification customTemplate() {
+        return templateEngine.render("custom", Locale.ROOT,
+                Map.of("subject", "Order update", "message", message, "siteUrl", SITE_URL));
+    }
+}
@@ -0,0 +1,372 @@
+package org.aston.learning.stage2.coalesce;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.aston.learning.stage2.dedup.UserEventDeduplicator;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.DeliveryQueueFullException;
+import org.aston.learning.stage2.delivery.OverflowPolicy;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.event.UserEventType;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxJournal;
+import org.aston.learning.stage2.service.EmailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Holds events per email address for a short window so that a later event can replace or cancel an
+// earlier one before any SMTP work. Deadlines live in a hashed timer wheel: one slot per tick, and a
+// single thread drains the slot of the current tick, so scheduling and expiry are O(1)
+@Component
+public class UserEventCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserEventCoalescer.class);
+
+    @Autowired
+    private NotificationHandlerRegistry handlerRegistry;
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private NotificationMetrics metrics;
+
+    @Autowired
+    private UserEventDeduplicator deduplicator;
+
+    @Autowired
+    private OutboxJournal outbox;
+
+    @Value("${app.kafka.coalesce.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.kafka.coalesce.window-ms:5000}")
+    private long windowMs;
+
+    @Value("${app.kafka.coalesce.tick-ms:100}")
+    private long tickMs;
+
+    // Upper bound on events held in the wheel, cancelled ones included until their slot is drained
+    @Value("${app.kafka.coalesce.max-pending:10000}")
+    private int maxPending;
+
+    // Guarded by this
+    private final Map<String, List<PendingEvent>> pendingByEmail = new HashMap<>();
+    private ArrayDeque<PendingEvent>[] wheel;
+    private int mask;
+    private int windowTicks;
+    private long currentTick;
+    private int held;
+    private int pending;
+
+    private final Map<UserEventType, Counter> cancelledCounters = new EnumMap<>(UserEventType.class);
+    private final Map<UserEventType, Counter> releaseFailedCounters = new EnumMap<>(UserEventType.class);
+    private Counter overflowCounter;
+    private Thread ticker;
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void start() {
+        init();
+        if (!enabled) {
+            return;
+        }
+
+        running = true;
+        ticker = new Thread(this::runTicker, "event-coalescer");
+        ticker.setDaemon(true);
+        ticker.start();
+        logger.info("Coalescing user events for {} ms in {} ms ticks, at most {} held",
+                windowMs, tickMs, maxPending);
+    }
+
+    @SuppressWarnings("unchecked")
+    void init() {
+        windowTicks = (int) Math.max(1, (windowMs + tickMs - 1) / tickMs);
+        // A power of two larger than the window, so every held event expires within one turn of the wheel
+        int slots = Integer.highestOneBit(windowTicks) << 1;
+        wheel = new ArrayDeque[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        mask = slots - 1;
+
+        for (UserEventType type : UserEventType.values()) {
+            cancelledCounters.put(type, Counter.builder("notification.coalesce.cancelled")
+                    .description("Sends cancelled because a later event for the same email superseded them")
+                    .tag("eventType", type.name())
+                    .register(meterRegistry));
+            releaseFailedCounters.put(type, Counter.builder("notification.coalesce.release.failed")
+                    .description("Held events whose email could not be built, queued or sent once released")
+                    .tag("eventType", type.name())
+                    .register(meterRegistry));
+        }
+        overflowCounter = Counter.builder("notification.coalesce.overflow")
+                .description("Events dispatched without holding because the coalescing buffer was full")
+                .register(meterRegistry);
+        Gauge.builder("notification.coalesce.pending", this, UserEventCoalescer::getPendingCount)
+                .description("Events held in the coalescing window")
+                .register(meterRegistry);
+    }
+
+    // Returns true when the event is held and will be released or cancelled later; false means the
+    // caller dispatches it right away
+    public boolean hold(UserEvent event) {
+        UserEventType type = UserEventType.fromValue(event.getEventType());
+        if (!enabled || type == null || event.getEmail() == null) {
+            return false;
+        }
+
+        // With the outbox enabled the listener commits the offset as soon as this returns, so the email is
+        // journaled before it is held; a crash inside the window then replays it instead of losing it
+        SimpleMailMessage message = null;
+        long outboxId = 0;
+        if (outbox.isEnabled()) {
+            message = handlerRegistry.createMessage(event);
+            if (message == null) {
+                return false;
+            }
+            outboxId = outbox.append(message, type.name());
+        }
+
+        String email = event.getEmail().toLowerCase(Locale.ROOT);
+        List<PendingEvent> cancelled = new ArrayList<>();
+        boolean heldBack = true;
+
+        synchronized (this) {
+            if (held >= maxPending) {
+                overflowCounter.increment();
+                outbox.acknowledge(outboxId);
+                return false;
+            }
+
+            List<PendingEvent> forEmail = pendingByEmail.computeIfAbsent(email, key -> new ArrayList<>(2));
+
+            if (type == UserEventType.USER_DELETED) {
+                // Everything still pending is moot once the account is gone; if the welcome email was not
+                // sent either, the user never heard from us and gets no goodbye
+                for (PendingEvent earlier : forEmail) {
+                    heldBack &= earlier.type != UserEventType.USER_CREATED;
+                    cancelled.add(earlier);
+                }
+                forEmail.clear();
+            } else {
+                for (Iterator<PendingEvent> it = forEmail.iterator(); it.hasNext(); ) {
+                    PendingEvent earlier = it.next();
+                    if (earlier.type == type) {
+                        it.remove();
+                        cancelled.add(earlier);
+                    }
+                }
+            }
+            cancelled.forEach(earlier -> earlier.cancelled = true);
+            pending -= cancelled.size();
+
+            if (heldBack) {
+                PendingEvent entry = new PendingEvent(event, type, email, message, outboxId,
+                        currentTick + windowTicks);
+                forEmail.add(entry);
+                wheel[(int) (entry.deadlineTick & mask)].add(entry);
+                held++;
+                pending++;
+            } else {
+                pendingByEmail.remove(email);
+            }
+        }
+
+        for (PendingEvent earlier : cancelled) {
+            outbox.acknowledge(earlier.outboxId);
+            countCancelled(earlier.type, earlier.event.getEmail(), "superseded by " + type);
+        }
+        if (!heldBack) {
+            outbox.acknowledge(outboxId);
+            countCancelled(type, event.getEmail(), "the welcome email was never sent");
+        }
+        return true;
+    }
+
+    private void countCancelled(UserEventType type, String email, String reason) {
+        cancelledCounters.get(type).increment();
+        metrics.countSkipped(type.name());
+        logger.info("Cancelled {} email to {}: {}", type, email, reason);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    // Moves the wheel one tick forward and releases the events whose window has passed
+    void advance() {
+        List<PendingEvent> due = new ArrayList<>();
+        synchronized (this) {
+            currentTick++;
+            ArrayDeque<PendingEvent> slot = wheel[(int) (currentTick & mask)];
+            for (Iterator<PendingEvent> it = slot.iterator(); it.hasNext(); ) {
+                PendingEvent entry = it.next();
+                if (entry.deadlineTick > currentTick) {
+                    continue;
+                }
+                it.remove();
+                held--;
+                if (!entry.cancelled) {
+                    removePending(entry);
+                    due.add(entry);
+                }
+            }
+        }
+
+        due.forEach(this::release);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        stopped = true;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(tickMs * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Held events were already committed in Kafka, so send them now rather than lose them; journaled ones
+        // the queue no longer takes are replayed on the next start
+        List<PendingEvent> remaining = new ArrayList<>();
+        synchronized (this) {
+            pendingByEmail.values().forEach(remaining::addAll);
+            pendingByEmail.clear();
+            for (ArrayDeque<PendingEvent> slot : wheel) {
+                slot.clear();
+            }
+            held = 0;
+            pending = 0;
+        }
+        remaining.forEach(this::release);
+        logger.info("Event coalescer stopped, released {} held events", remaining.size());
+    }
+
+    private void removePending(PendingEvent entry) {
+        List<PendingEvent> forEmail = pendingByEmail.get(entry.email);
+        if (forEmail != null) {
+            forEmail.remove(entry);
+            if (forEmail.isEmpty()) {
+                pendingByEmail.remove(entry.email);
+            }
+        }
+        pending--;
+    }
+
+    // Goes through the delivery queue and never sends on the ticker thread, so a slow relay cannot stall the
+    // wheel; a full lane holds the event for another tick, and a journaled email stays in the journal meanwhile.
+    // The offset is committed by now, so a failure is counted and the event is dropped from the dedup cache in
+    // case the producer sends it again
+    private void release(PendingEvent entry) {
+        DeliveryHandle handle;
+        try {
+            if (entry.message != null) {
+                handle = emailService.sendJournaledAsync(entry.message, entry.type.name(), entry.outboxId,
+                        OverflowPolicy.REJECT);
+            } else {
+                SimpleMailMessage message = handlerRegistry.createMessage(entry.event);
+                if (message == null) {
+                    return;
+                }
+                handle = emailService.sendEmailAsync(message, entry.type.name(), OverflowPolicy.REJECT);
+            }
+        } catch (RuntimeException e) {
+            releaseFailed(entry, e);
+            return;
+        }
+
+        handle.getCompletion().whenComplete((ignored, error) -> {
+            if (error == null) {
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof DeliveryQueueFullException && !stopped) {
+                holdForNextTick(entry);
+            } else {
+                releaseFailed(entry, cause);
+            }
+        });
+    }
+
+    private synchronized void holdForNextTick(PendingEvent entry) {
+        PendingEvent retry = new PendingEvent(entry.event, entry.type, entry.email, entry.message, entry.outboxId,
+                currentTick + 1);
+        pendingByEmail.computeIfAbsent(entry.email, key -> new ArrayList<>(2)).add(retry);
+        wheel[(int) (retry.deadlineTick & mask)].add(retry);
+        held++;
+        pending++;
+        logger.debug("Delivery queue is full, holding {} event for user: {} for another tick",
+                entry.type, entry.event.getEmail());
+    }
+
+    private void releaseFailed(PendingEvent entry, Throwable cause) {
+        releaseFailedCounters.get(entry.type).increment();
+        deduplicator.forget(entry.event);
+        logger.error("Failed to send held {} event for user: {}", entry.type, entry.event.getEmail(), cause);
+    }
+
+    private void runTicker() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        long next = System.nanoTime() + tickNanos;
+        while (running) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            advance();
+            next += tickNanos;
+        }
+    }
+
+    private static final class PendingEvent {
+        private final UserEvent event;
+        private final UserEventType type;
+        private final String email;
+        // Set when the email was journaled at hold time; null otherwise, and it is built on release
+        private final SimpleMailMessage message;
+        private final long outboxId;
+        private final long deadlineTick;
+        private boolean cancelled;
+
+        private PendingEvent(UserEvent event, UserEventType type, String email, SimpleMailMessage message,
+                             long outboxId, long deadlineTick) {
+            this.event = event;
+            this.type = type;
+            this.email = email;
+            this.message = message;
+            this.outboxId = outboxId;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -1,43 +1,166 @@
 package org.aston.learning.stage2.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.aston.learning.stage2.consumer.ListenerConcurrencyManager;
+import org.aston.learning.stage2.event.EventTypeFilter;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.event.UserEventDeserializer;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
-import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.util.backoff.FixedBackOff;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
 public class KafkaConsumerConfig {
 
+    private static final String DEAD_LETTER_TOPIC = "user-events-dlt";
+
+    private static final String USER_EVENT_TYPE_MAPPING = "userEvent:org.aston.learning.stage2.event.UserEvent";
+
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
+    @Value("${app.kafka.batch.max-poll-records:500}")
+    private int maxPollRecords;
+
+    @Value("${app.kafka.filter.enabled:true}")
+    private boolean filterEnabled;
+
+    @Value("${app.kafka.filter.type-header:eventType}")
+    private String filterTypeHeader;
+
+    @Value("${app.kafka.retry.delays:10000,60000,600000}")
+    private List<Long> retryDelays;
+
+    @Value("${app.kafka.retry.topic-partitions:1}")
+    private int retryTopicPartitions;
+
+    @Value("${app.kafka.retry.topic-replication-factor:1}")
+    private short retryTopicReplicationFactor;
+
+    @Value("${app.kafka.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${app.kafka.batch.retry-interval-ms:1000}")
+    private long batchRetryIntervalMs;
+
+    @Value("${app.kafka.batch.retry-attempts:2}")
+    private long batchRetryAttempts;
+
+    private DefaultKafkaProducerFactory<String, Object> retryProducerFactory;
+
     @Bean
-    public ConsumerFactory<String, Object> consumerFactory() {
+    public ConsumerFactory<String, UserEvent> consumerFactory(MeterRegistry meterRegistry,
+                                                              NotificationHandlerRegistry handlerRegistry) {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ConsumerConfig.GROUP_ID_CONFIG, "notification-group");
         configProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        configProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        configProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
-        configProps.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
-        configProps.put(JsonDeserializer.TYPE_MAPPINGS, "userEvent:org.aston.learning.stage2.event.UserEvent");
+        configProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
 
-        return new DefaultKafkaConsumerFactory<>(configProps);
+        // Event types without a handler are dropped before their JSON is parsed
+        EventTypeFilter filter = filterEnabled
+                ? new EventTypeFilter(handlerRegistry.getHandledTypes().stream().map(Enum::name).toList(),
+                        filterTypeHeader, meterRegistry)
+                : null;
+        // UserEventDeserializer is stateless, so all consumer threads can share one instance
+        UserEventDeserializer valueDeserializer = new UserEventDeserializer(meterRegistry, filter);
+        DefaultKafkaConsumerFactory<String, UserEvent> consumerFactory =
+                new DefaultKafkaConsumerFactory<>(configProps, StringDeserializer::new, () -> valueDeserializer);
+        // Publishes client metrics (records-lag, consumed rate) per consumer thread
+        consumerFactory.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return consumerFactory;
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, Object> factory =
+    public ConcurrentKafkaListenerContainerFactory<String, UserEvent> kafkaListenerContainerFactory(
+            ConsumerFactory<String, UserEvent> consumerFactory, ListenerConcurrencyManager concurrencyManager) {
+        ConcurrentKafkaListenerContainerFactory<String, UserEvent> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(consumerFactory());
+        factory.setConsumerFactory(consumerFactory);
+        factory.setConcurrency(concurrencyManager.resolveConcurrency());
+        // Filtered and malformed records come out of UserEventDeserializer as null;
+        // drop them but still commit their offsets
+        factory.setRecordFilterStrategy(record -> record.value() == null);
+        factory.setAckDiscarded(true);
+        // spring.kafka.listener timers are tagged with the consumer thread's client id
+        factory.getContainerProperties().setMicrometerEnabled(true);
+        if (batchEnabled) {
+            // Retry topics are not available to batch listeners: a failed record is retried in place a few times
+            // and then published to the same dead letter topic the retry tiers end in
+            factory.setCommonErrorHandler(new DefaultErrorHandler(
+                    new DeadLetterPublishingRecoverer(retryKafkaTemplate(),
+                            (record, e) -> new TopicPartition(DEAD_LETTER_TOPIC, -1)),
+                    new FixedBackOff(batchRetryIntervalMs, batchRetryAttempts)));
+        }
         return factory;
     }
-}
\ No newline at end of file
+
+    @Bean
+    @ConditionalOnProperty(name = "app.kafka.batch.enabled", havingValue = "true")
+    public NewTopic userEventDeadLetterTopic() {
+        return TopicBuilder.name(DEAD_LETTER_TOPIC)
+                .partitions(retryTopicPartitions)
+                .replicas(retryTopicReplicationFactor)
+                .build();
+    }
+
+    // Failed records move through user-events-retry-<delay> topics and finally to user-events-dlt,
+    // so a struggling SMTP relay never blocks the partitions of the main topic
+    @Bean
+    @ConditionalOnProperty(name = "app.kafka.batch.enabled", havingValue = "false", matchIfMissing = true)
+    public RetryTopicConfiguration userEventRetryTopicConfiguration() {
+        return RetryTopicConfigurationBuilder.newInstance()
+                .includeTopic("user-events")
+                .maxAttempts(retryDelays.size() + 1)
+                .customBackoff(new TieredBackOffPolicy(retryDelays))
+                .dltSuffix("-dlt")
+                .dltHandlerMethod("userEventConsumer", "handleDeadLetter")
+                .autoCreateTopicsWith(retryTopicPartitions, retryTopicReplicationFactor)
+                .create(retryKafkaTemplate());
+    }
+
+    // Kept out of the context so Spring Boot still provides its own KafkaTemplate
+    private KafkaTemplate<String, Object> retryKafkaTemplate() {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        configProps.put(JsonSerializer.TYPE_MAPPINGS, USER_EVENT_TYPE_MAPPING);
+
+        retryProducerFactory = new DefaultKafkaProducerFactory<>(configProps);
+        return new KafkaTemplate<>(retryProducerFactory);
+    }
+
+    @PreDestroy
+    public void closeRetryProducer() {
+        if (retryProducerFactory != null) {
+            retryProducerFactory.destroy();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.aston.learning.stage2.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aston.learning.stage2.mail.PooledJavaMailSender;
+import org.aston.learning.stage2.mail.RelayRoutingMailSender;
+import org.aston.learning.stage2.ratelimit.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+@Configuration
+@EnableConfigurationProperties(MailProperties.class)
+@ConditionalOnProperty(prefix = "spring.mail", name = "host")
+public class MailSenderConfig {
+
+    @Value("${app.mail.pool.max-connections:8}")
+    private int maxConnections;
+
+    @Value("${app.mail.pool.max-messages-per-connection:100}")
+    private int maxMessagesPerConnection;
+
+    @Value("${app.mail.pool.max-idle-ms:60000}")
+    private long maxIdleMs;
+
+    @Value("${app.mail.pool.max-wait-ms:5000}")
+    private long maxWaitMs;
+
+    @Value("${app.mail.pool.validate-on-borrow:true}")
+    private boolean validateOnBorrow;
+
+    // host[:port] of each SMTP relay; when set it replaces spring.mail.host/port, and the remaining
+    // spring.mail settings (credentials, protocol, properties) apply to every relay. Each relay gets its own pool
+    @Value("${app.mail.relays:}")
+    private List<String> relays;
+
+    @Value("${app.mail.routing.eject-after-failures:3}")
+    private int ejectAfterFailures;
+
+    @Value("${app.mail.routing.ejection-ms:30000}")
+    private long ejectionMs;
+
+    // Keeps each recipient domain on one relay so per-domain reputation and throttling stay on one IP
+    @Value("${app.mail.routing.sticky-domains:false}")
+    private boolean stickyDomains;
+
+    // The same quota SendRateLimiter enforces for all relays together, kept per relay while routing
+    @Value("${app.email.rate-limit.enabled:false}")
+    private boolean rateLimitEnabled;
+
+    @Value("${app.email.rate-limit.relay-per-second:50}")
+    private double relayPerSecond;
+
+    @Value("${app.email.rate-limit.burst:10}")
+    private int burst;
+
+    // Replaces Spring Boot's connect-per-send JavaMailSenderImpl
+    @Bean
+    @ConditionalOnProperty(name = "app.mail.pool.enabled", matchIfMissing = true)
+    public JavaMailSender mailSender(MailProperties properties, MeterRegistry meterRegistry) {
+        if (relays.isEmpty()) {
+            return pooledSender(properties, meterRegistry, properties.getHost(), properties.getPort());
+        }
+
+        List<RelayRoutingMailSender.Relay> routed = new ArrayList<>();
+        for (String relay : relays) {
+            String address = relay.trim();
+            int colon = address.lastIndexOf(':');
+            String host = colon >= 0 ? address.substring(0, colon) : address;
+            Integer port = colon >= 0 ? Integer.valueOf(address.substring(colon + 1)) : properties.getPort();
+            PooledJavaMailSender sender = pooledSender(properties, meterRegistry, host, port);
+            TokenBucket quota = rateLimitEnabled && relayPerSecond > 0 ? new TokenBucket(relayPerSecond, burst) : null;
+            routed.add(new RelayRoutingMailSender.Relay(host + ":" + sender.getPort(), sender, quota));
+        }
+        RelayRoutingMailSender router = new RelayRoutingMailSender(routed, ejectAfterFailures, ejectionMs, stickyDomains);
+        router.bindTo(meterRegistry);
+        return router;
+    }
+
+    private PooledJavaMailSender pooledSender(MailProperties properties, MeterRegistry meterRegistry,
+                                              String host, Integer port) {
+        PooledJavaMailSender sender = new PooledJavaMailSender(
+                maxConnections, maxMessagesPerConnection, maxIdleMs, maxWaitMs, validateOnBorrow);
+        applyProperties(properties, sender);
+        sender.setHost(host);
+        if (port != null) {
+            sender.setPort(port);
+        }
+        sender.getPool().bindTo(meterRegistry, host + ":" + sender.getPort());
+        return sender;
+    }
+
+    private void applyProperties(MailProperties properties, PooledJavaMailSender sender) {
+        sender.setHost(properties.getHost());
+        if (properties.getPort() != null) {
+            sender.setPort(properties.getPort());
+        }
+        sender.setUsername(properties.getUsername());
+        sender.setPassword(properties.getPassword());
+        sender.setProtocol(properties.getProtocol());
+        if (properties.getDefaultEncoding() != null) {
+            sender.setDefaultEncoding(properties.getDefaultEncoding().name());
+        }
+        if (!properties.getProperties().isEmpty()) {
+            Properties javaMailProperties = new Properties();
+            javaMailProperties.putAll(properties.getProperties());
+            sender.setJavaMailProperties(javaMailProperties);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.aston.learning.stage2.config;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SmtpCircuitBreakerConfig {
+
+    // Settings come from resilience4j.circuitbreaker.instances.smtp; the registry also publishes the
+    // breaker's state to actuator (health, circuitbreakers endpoint) and Micrometer
+    @Bean
+    public CircuitBreaker smtpCircuitBreaker(CircuitBreakerRegistry registry) {
+        return registry.circuitBreaker("smtp");
+    }
+}
@@ -0,0 +1,59 @@
+package org.aston.learning.stage2.config;
+
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.backoff.BackOffContext;
+import org.springframework.retry.backoff.BackOffInterruptedException;
+import org.springframework.retry.backoff.Sleeper;
+import org.springframework.retry.backoff.SleepingBackOffPolicy;
+import org.springframework.retry.backoff.ThreadWaitSleeper;
+
+import java.util.List;
+
+// Explicit list of delays, one per retry tier; the last delay is reused if retries outnumber the tiers
+class TieredBackOffPolicy implements SleepingBackOffPolicy<TieredBackOffPolicy> {
+
+    private final List<Long> delays;
+    private final Sleeper sleeper;
+
+    TieredBackOffPolicy(List<Long> delays) {
+        this(delays, new ThreadWaitSleeper());
+    }
+
+    private TieredBackOffPolicy(List<Long> delays, Sleeper sleeper) {
+        if (delays.isEmpty()) {
+            throw new IllegalArgumentException("At least one retry delay is required");
+        }
+        this.delays = List.copyOf(delays);
+        this.sleeper = sleeper;
+    }
+
+    List<Long> getDelays() {
+        return delays;
+    }
+
+    @Override
+    public TieredBackOffPolicy withSleeper(Sleeper sleeper) {
+        return new TieredBackOffPolicy(delays, sleeper);
+    }
+
+    @Override
+    public BackOffContext start(RetryContext context) {
+        return new TierContext();
+    }
+
+    @Override
+    public void backOff(BackOffContext backOffContext) throws BackOffInterruptedException {
+        TierContext context = (TierContext) backOffContext;
+        long delay = delays.get(Math.min(context.tier++, delays.size() - 1));
+        try {
+            sleeper.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BackOffInterruptedException("Thread interrupted while sleeping", e);
+        }
+    }
+
+    private static class TierContext implements BackOffContext {
+        private int tier;
+    }
+}
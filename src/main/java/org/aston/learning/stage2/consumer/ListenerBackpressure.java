@@ -0,0 +1,126 @@
+package org.aston.learning.stage2.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.aston.learning.stage2.delivery.DeliveryLane;
+import org.aston.learning.stage2.delivery.MailDeliveryQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+// Pauses the listener containers while the delivery side is saturated and resumes them once it has drained.
+// A paused consumer keeps polling without getting records, so it stays in the group instead of blocking past
+// max.poll.interval.ms, and nothing more is taken from Kafka than the queue can hold
+@Component
+public class ListenerBackpressure {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListenerBackpressure.class);
+
+    @Autowired
+    private MailDeliveryQueue deliveryQueue;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.kafka.backpressure.enabled:true}")
+    private boolean enabled;
+
+    // Transactional emails waiting in the delivery queue, including those parked for a rate limit permit or an
+    // open circuit. The listeners only feed that lane, so a backlog of bulk emails does not pause them
+    @Value("${app.kafka.backpressure.high-water:800}")
+    private int highWater;
+
+    @Value("${app.kafka.backpressure.low-water:400}")
+    private int lowWater;
+
+    // Emails being handed to SMTP at once; exceeds the worker count only while callers run sends themselves
+    @Value("${app.kafka.backpressure.in-flight-high-water:8}")
+    private int inFlightHighWater;
+
+    @Value("${app.kafka.backpressure.in-flight-low-water:4}")
+    private int inFlightLowWater;
+
+    // Only the scheduler thread changes these
+    private volatile boolean paused;
+    private long pausedAt;
+    private Counter pauseCounter;
+    private Timer pausedTimer;
+
+    @PostConstruct
+    public void init() {
+        pauseCounter = Counter.builder("notification.backpressure.pauses")
+                .description("Times the Kafka listeners were paused because delivery was saturated")
+                .register(meterRegistry);
+        pausedTimer = Timer.builder("notification.backpressure.paused")
+                .description("How long the Kafka listeners stayed paused")
+                .register(meterRegistry);
+        Gauge.builder("notification.backpressure.active", this, backpressure -> backpressure.isPaused() ? 1 : 0)
+                .description("1 while the Kafka listeners are paused by backpressure")
+                .register(meterRegistry);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    @Scheduled(initialDelayString = "${app.kafka.backpressure.check-ms:200}",
+            fixedDelayString = "${app.kafka.backpressure.check-ms:200}")
+    public void check() {
+        if (!enabled) {
+            return;
+        }
+
+        int depth = deliveryQueue.getQueueDepth(DeliveryLane.TRANSACTIONAL)
+                + deliveryQueue.getDeferredCount(DeliveryLane.TRANSACTIONAL);
+        int inFlight = deliveryQueue.getInFlightCount();
+
+        if (!paused) {
+            if (depth >= highWater || inFlight >= inFlightHighWater) {
+                paused = true;
+                pausedAt = System.nanoTime();
+                pauseCounter.increment();
+                logger.warn("Delivery is saturated ({} queued, {} in flight), pausing Kafka listeners", depth, inFlight);
+                pauseContainers();
+            }
+        } else if (depth <= lowWater && inFlight <= inFlightLowWater) {
+            paused = false;
+            long pausedNanos = System.nanoTime() - pausedAt;
+            pausedTimer.record(pausedNanos, TimeUnit.NANOSECONDS);
+            logger.info("Delivery drained to {} queued, {} in flight, resuming Kafka listeners after {} ms",
+                    depth, inFlight, TimeUnit.NANOSECONDS.toMillis(pausedNanos));
+            resumeContainers();
+        } else {
+            // Containers restarted while paused (e.g. resized by ListenerConcurrencyManager) start consuming again
+            pauseContainers();
+        }
+    }
+
+    private void pauseContainers() {
+        for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+            if (container.isRunning() && !container.isPauseRequested()) {
+                container.pause();
+            }
+        }
+    }
+
+    private void resumeContainers() {
+        for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+            if (container.isPauseRequested()) {
+                container.resume();
+            }
+        }
+    }
+}
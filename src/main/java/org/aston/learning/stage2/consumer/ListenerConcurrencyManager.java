@@ -0,0 +1,149 @@
+package org.aston.learning.stage2.consumer;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.DescribeTopicsOptions;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Sizes the user-events listener containers to min(partitions, cores) unless a fixed concurrency is configured
+@Component
+public class ListenerConcurrencyManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListenerConcurrencyManager.class);
+
+    static final String TOPIC = "user-events";
+
+    // Only the main-topic listeners follow its partitions; retry tiers and the DLT keep their startup size
+    private static final Set<String> LISTENER_IDS = Set.of("userEventListener", "userEventBatchListener");
+
+    @Autowired
+    private KafkaAdmin kafkaAdmin;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    // 0 derives the concurrency from the partition count and available cores
+    @Value("${app.kafka.listener.concurrency:0}")
+    private int configuredConcurrency;
+
+    // 0 means Runtime.availableProcessors()
+    @Value("${app.kafka.listener.max-concurrency:0}")
+    private int maxConcurrency;
+
+    // The first lookup runs while the container factory is created, so an unreachable broker must not hold up startup
+    @Value("${app.kafka.listener.partition-lookup-timeout-ms:5000}")
+    private int lookupTimeoutMs;
+
+    Function<Map<String, Object>, Admin> adminFactory = Admin::create;
+
+    public int resolveConcurrency() {
+        if (configuredConcurrency > 0) {
+            return configuredConcurrency;
+        }
+        int partitions = partitionCount();
+        return partitions > 0 ? concurrencyFor(partitions) : 1;
+    }
+
+    int concurrencyFor(int partitions) {
+        int limit = maxConcurrency > 0 ? maxConcurrency : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(partitions, limit));
+    }
+
+    @Scheduled(initialDelayString = "${app.kafka.listener.partition-check-ms:60000}",
+            fixedDelayString = "${app.kafka.listener.partition-check-ms:60000}")
+    public void adjustToPartitions() {
+        if (configuredConcurrency <= 0) {
+            int partitions = partitionCount();
+            if (partitions > 0) {
+                resize(concurrencyFor(partitions), partitions);
+            }
+        }
+        reportThreadStats();
+    }
+
+    private void resize(int desired, int partitions) {
+        for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+            if (!LISTENER_IDS.contains(container.getListenerId())
+                    || !(container instanceof ConcurrentMessageListenerContainer<?, ?> concurrent)
+                    || !container.isRunning() || concurrent.getConcurrency() == desired) {
+                continue;
+            }
+
+            logger.info("Topic {} now has {} partitions, resizing listener {} from {} to {} consumer threads",
+                    TOPIC, partitions, container.getListenerId(), concurrent.getConcurrency(), desired);
+            concurrent.stop();
+            concurrent.setConcurrency(desired);
+            concurrent.start();
+        }
+    }
+
+    private void reportThreadStats() {
+        for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+            if (!container.isRunning()) {
+                continue;
+            }
+            // One Kafka client per consumer thread, so client-level metrics are per-thread figures
+            container.metrics().forEach((clientId, metrics) -> logger.info(
+                    "Listener {} consumer {}: {} records/s, max lag {}",
+                    container.getListenerId(), clientId,
+                    metricValue(metrics, "records-consumed-rate"), metricValue(metrics, "records-lag-max")));
+        }
+    }
+
+    private int partitionCount() {
+        Map<String, Object> config = new HashMap<>(kafkaAdmin.getConfigurationProperties());
+        config.put(AdminClientConfig.DEFAULT_API_TIMEOUT_MS_CONFIG, lookupTimeoutMs);
+        config.put(AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG, lookupTimeoutMs);
+        Admin admin = null;
+        try {
+            admin = adminFactory.apply(config);
+            TopicDescription description = admin
+                    .describeTopics(List.of(TOPIC), new DescribeTopicsOptions().timeoutMs(lookupTimeoutMs))
+                    .allTopicNames()
+                    .get(lookupTimeoutMs, TimeUnit.MILLISECONDS)
+                    .get(TOPIC);
+            return description != null ? description.partitions().size() : 0;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.warn("Could not read partition count of topic {} within {} ms: {}", TOPIC, lookupTimeoutMs,
+                    e.getMessage());
+            return 0;
+        } finally {
+            if (admin != null) {
+                admin.close(Duration.ZERO);
+            }
+        }
+    }
+
+    private static Object metricValue(Map<MetricName, ? extends Metric> metrics, String name) {
+        return metrics.entrySet().stream()
+                .filter(entry -> entry.getKey().name().equals(name)
+                        && entry.getKey().group().equals("consumer-fetch-manager-metrics")
+                        && !entry.getKey().tags().containsKey("topic"))
+                .map(entry -> entry.getValue().metricValue())
+                .findFirst()
+                .orElse("n/a");
+    }
+}
@@ -0,0 +1,87 @@
+package org.aston.learning.stage2.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.aston.learning.stage2.dedup.UserEventDeduplicator;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.service.EmailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Retry topics only work with record listeners, so batch mode is registered instead of them, not alongside.
+// A failed email is reported back to the container's error handler, which commits the offsets before it,
+// retries from there and finally publishes the record to user-events-dlt
+@Component
+@ConditionalOnProperty(name = "app.kafka.batch.enabled", havingValue = "true")
+public class UserEventBatchConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserEventBatchConsumer.class);
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private NotificationHandlerRegistry handlerRegistry;
+
+    @Autowired
+    private UserEventDeduplicator deduplicator;
+
+    @Autowired
+    private NotificationMetrics metrics;
+
+    // Offsets of the whole poll are committed only after this method returns
+    @KafkaListener(id = "userEventBatchListener", topics = "user-events", groupId = "notification-group",
+            batch = "true")
+    public void consumeUserEvents(List<ConsumerRecord<String, UserEvent>> records) {
+        logger.info("Received batch of {} user events", records.size());
+
+        List<SimpleMailMessage> messages = new ArrayList<>(records.size());
+        // By identity: two events can render equal emails, and each must map back to its own record
+        Map<SimpleMailMessage, ConsumerRecord<String, UserEvent>> sources = new IdentityHashMap<>();
+        for (ConsumerRecord<String, UserEvent> record : records) {
+            UserEvent event = record.value();
+            if (!deduplicator.markIfFirst(event)) {
+                logger.info("Skipping duplicate user event {} for user: {}", event.getEventType(), event.getEmail());
+                metrics.countSkipped(event);
+                continue;
+            }
+            SimpleMailMessage message = handlerRegistry.createMessage(event);
+            if (message != null) {
+                messages.add(message);
+                sources.put(message, record);
+            }
+        }
+
+        Map<SimpleMailMessage, Exception> failures = emailService.sendEmails(messages);
+        logger.info("Processed batch of {} user events: {} emails sent, {} failed",
+                records.size(), messages.size() - failures.size(), failures.size());
+        if (failures.isEmpty()) {
+            return;
+        }
+
+        // Every record from the first failure on is delivered again; the ones already sent stay marked and are
+        // skipped as duplicates, the failed ones are forgotten so they can be retried
+        failures.forEach((message, e) -> {
+            logger.error("Failed to send batch email to: {}", String.join(",", message.getTo()), e);
+            deduplicator.forget(sources.get(message).value());
+        });
+        for (SimpleMailMessage message : messages) {
+            Exception failure = failures.get(message);
+            if (failure != null) {
+                throw new BatchListenerFailedException("Failed to send batch email", failure, sources.get(message));
+            }
+        }
+    }
+}
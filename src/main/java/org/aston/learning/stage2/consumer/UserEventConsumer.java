@@ -1,11 +1,17 @@
 package org.aston.learning.stage2.consumer;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aston.learning.stage2.coalesce.UserEventCoalescer;
+import org.aston.learning.stage2.dedup.UserEventDeduplicator;
 import org.aston.learning.stage2.event.UserEvent;
-import org.aston.learning.stage2.service.EmailService;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -13,53 +19,63 @@ public class UserEventConsumer {
 
     private static final Logger logger = LoggerFactory.getLogger(UserEventConsumer.class);
 
+    private static final String USER_EVENTS_TOPIC = "user-events";
+
     @Autowired
-    private EmailService emailService;
+    private NotificationHandlerRegistry handlerRegistry;
 
-    @KafkaListener(topics = "user-events", groupId = "notification-group")
-    public void consumeUserEvent(UserEvent event) {
-        logger.info("Received user event: {} for user: {}", event.getEventType(), event.getEmail());
+    @Autowired
+    private MeterRegistry meterRegistry;
 
-        try {
-            switch (event.getEventType()) {
-                case "USER_CREATED":
-                    handleUserCreated(event);
-                    break;
+    @Autowired
+    private UserEventDeduplicator deduplicator;
 
-                case "USER_DELETED":
-                    handleUserDeleted(event);
-                    break;
+    @Autowired
+    private NotificationMetrics metrics;
 
-                default:
-                    logger.warn("Unknown event type: {} for user: {}", event.getEventType(), event.getEmail());
-                    handleUnknownEvent(event);
-            }
-        } catch (Exception e) {
-            logger.error("Failed to process user event for email: {}", event.getEmail(), e);
+    @Autowired
+    private UserEventCoalescer coalescer;
+
+    // Also subscribed to the user-events-retry-* topics declared in KafkaConsumerConfig;
+    // a thrown exception forwards the record to the next retry tier instead of blocking the partition
+    @KafkaListener(id = "userEventListener", topics = USER_EVENTS_TOPIC, groupId = "notification-group",
+            autoStartup = "#{!${app.kafka.batch.enabled:false}}")
+    public void consumeUserEvent(UserEvent event,
+                                 @Header(name = KafkaHeaders.RECEIVED_TOPIC, required = false) String topic) {
+        logger.info("Received user event: {} for user: {}", event.getEventType(), event.getEmail());
+
+        if (topic != null && !USER_EVENTS_TOPIC.equals(topic)) {
+            logger.info("Retrying user event {} for user: {} from topic: {}",
+                    event.getEventType(), event.getEmail(), topic);
+            meterRegistry.counter("notification.retry.attempts", "topic", topic).increment();
         }
-    }
 
-    private void handleUserCreated(UserEvent event) {
-        try {
-            emailService.sendUserCreatedEmail(event.getEmail(), event.getUserName());
-            logger.info("Successfully sent creation email to: {}", event.getEmail());
-        } catch (Exception e) {
-            logger.error("Failed to send creation email to: {}", event.getEmail(), e);
-            throw e; // Throw exception for retry, for Kafka
+        if (!deduplicator.markIfFirst(event)) {
+            logger.info("Skipping duplicate user event {} for user: {}", event.getEventType(), event.getEmail());
+            metrics.countSkipped(event);
+            return;
         }
-    }
 
-    private void handleUserDeleted(UserEvent event) {
         try {
-            emailService.sendUserDeletedEmail(event.getEmail(), event.getUserName());
-            logger.info("Successfully sent deletion email to: {}", event.getEmail());
+            // Held events are sent from the coalescer once their window passes, unless a later event cancels them
+            if (coalescer.hold(event)) {
+                logger.debug("Holding user event {} for user: {}", event.getEventType(), event.getEmail());
+                return;
+            }
+
+            handlerRegistry.dispatch(event);
         } catch (Exception e) {
-            logger.error("Failed to send deletion email to: {}", event.getEmail(), e);
-            throw e; // Throw exception for retry, for Kafka
+            logger.error("Failed to process user event for email: {}", event.getEmail(), e);
+            deduplicator.forget(event);
+            throw e;
         }
     }
 
-    private void handleUnknownEvent(UserEvent event) {
-        logger.warn("No action taken for unknown event type: {}", event.getEventType());
+    public void handleDeadLetter(UserEvent event,
+                                 @Header(name = KafkaHeaders.EXCEPTION_MESSAGE, required = false) String reason) {
+        logger.error("User event {} for user: {} exhausted all retries and was moved to the DLT: {}",
+                event.getEventType(), event.getEmail(), reason);
+        meterRegistry.counter("notification.dlt.records", "eventType", String.valueOf(event.getEventType()))
+                .increment();
     }
-}
\ No newline at end of file
+}
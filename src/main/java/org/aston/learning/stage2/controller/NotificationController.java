@@ -1,18 +1,33 @@
 package org.aston.learning.stage2.controller;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.NotificationStatusStore;
+import org.aston.learning.stage2.delivery.OverflowPolicy;
 import org.aston.learning.stage2.dto.*;
+import org.aston.learning.stage2.mail.SmtpHealthIndicator;
+import org.aston.learning.stage2.outbox.OutboxException;
+import org.aston.learning.stage2.service.BulkEmailService;
 import org.aston.learning.stage2.service.EmailService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+import java.io.IOException;
+import java.io.InputStream;
 
 @RestController
 @RequestMapping("/api/notifications")
@@ -22,9 +37,24 @@ public class NotificationController {
 
     private static final Logger logger = LoggerFactory.getLogger(NotificationController.class);
 
+    // A 202 must not wait for SMTP, so a full lane answers 503 instead of sending on the servlet thread
+    private static final OverflowPolicy ASYNC_OVERFLOW_POLICY = OverflowPolicy.REJECT;
+
     @Autowired
     private EmailService emailService;
 
+    @Autowired
+    private BulkEmailService bulkEmailService;
+
+    @Autowired
+    private NotificationStatusStore statusStore;
+
+    @Autowired
+    private NotificationLinks links;
+
+    @Autowired
+    private SmtpHealthIndicator smtpHealth;
+
     @PostMapping("/email")
     @Operation(summary = "Send custom email", description = "Send a custom email to the specified recipient")
     public ResponseEntity<EmailResponse> sendCustomEmail(
@@ -50,10 +80,13 @@ public class NotificationController {
 
             // HATEOAS links
             addCommonLinks(response);
-            response.add(linkTo(methodOn(NotificationController.class).sendWelcomeEmail(null)).withRel("send-welcome-email"));
+            response.add(links.sendWelcomeEmail("send-welcome-email"));
 
             return ResponseEntity.ok(response);
 
+        } catch (CallNotPermittedException e) {
+            return relayUnavailable(emailRequest.getToEmail());
+
         } catch (Exception e) {
             logger.error("Failed to send email to: {}", emailRequest.getToEmail(), e);
 
@@ -70,6 +103,40 @@ public class NotificationController {
         }
     }
 
+    @PostMapping(value = "/email", params = "async=true")
+    @Operation(summary = "Queue custom email",
+            description = "Validate and queue a custom email; answers 202 with a status link instead of waiting for SMTP")
+    public ResponseEntity<NotificationStatusResponse> queueCustomEmail(
+            @Valid @RequestBody EmailRequest emailRequest) {
+
+        logger.info("Queueing custom email to: {} with subject: {}",
+                emailRequest.getToEmail(), emailRequest.getSubject());
+
+        DeliveryHandle handle = emailService.sendCustomEmailAsync(
+                emailRequest.getToEmail(),
+                emailRequest.getSubject(),
+                emailRequest.getMessage(),
+                ASYNC_OVERFLOW_POLICY
+        );
+        return accepted(handle);
+    }
+
+    // The body is read inside the streaming callback, item by item, instead of being bound up front
+    @PostMapping(value = "/email/batch",
+            consumes = {"application/x-ndjson", MediaType.APPLICATION_JSON_VALUE},
+            produces = "application/x-ndjson")
+    @Operation(summary = "Send custom emails in bulk",
+            description = "Stream EmailRequests as NDJSON or a JSON array; one NDJSON result line is returned per item as it completes")
+    public ResponseEntity<StreamingResponseBody> sendCustomEmails(HttpServletRequest request) throws IOException {
+        InputStream body = request.getInputStream();
+        logger.info("Receiving bulk email request");
+
+        StreamingResponseBody results = output -> bulkEmailService.process(body, output);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(results);
+    }
+
     @PostMapping("/welcome")
     @Operation(summary = "Send welcome email", description = "Send a welcome email to a new user")
     public ResponseEntity<EmailResponse> sendWelcomeEmail(
@@ -93,10 +160,13 @@ public class NotificationController {
 
             // HATEOAS links
             addCommonLinks(response);
-            response.add(linkTo(methodOn(NotificationController.class).sendCustomEmail(null)).withRel("send-custom-email"));
+            response.add(links.sendCustomEmail("send-custom-email"));
 
             return ResponseEntity.ok(response);
 
+        } catch (CallNotPermittedException e) {
+            return relayUnavailable(welcomeRequest.getToEmail());
+
         } catch (Exception e) {
             logger.error("Failed to send welcome email to: {}", welcomeRequest.getToEmail(), e);
 
@@ -113,25 +183,103 @@ public class NotificationController {
         }
     }
 
+    @PostMapping(value = "/welcome", params = "async=true")
+    @Operation(summary = "Queue welcome email",
+            description = "Validate and queue a welcome email; answers 202 with a status link instead of waiting for SMTP")
+    public ResponseEntity<NotificationStatusResponse> queueWelcomeEmail(
+            @Valid @RequestBody WelcomeEmailRequest welcomeRequest) {
+
+        logger.info("Queueing welcome email to: {}", welcomeRequest.getToEmail());
+
+        DeliveryHandle handle = emailService.sendUserCreatedEmailAsync(
+                welcomeRequest.getToEmail(),
+                welcomeRequest.getUserName(),
+                ASYNC_OVERFLOW_POLICY
+        );
+        return accepted(handle);
+    }
+
+    @GetMapping("/{id}")
+    @Operation(summary = "Notification status", description = "Delivery status of a notification accepted with async=true")
+    public ResponseEntity<NotificationStatusResponse> getNotificationStatus(@PathVariable String id) {
+        DeliveryHandle handle = statusStore.find(id);
+        if (handle == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        NotificationStatusResponse response = toStatusResponse(handle);
+
+        // HATEOAS links
+        response.add(links.notificationStatus(id, IanaLinkRelations.SELF_VALUE));
+        response.add(links.healthCheck("health-check"));
+
+        return ResponseEntity.ok(response);
+    }
+
     @GetMapping("/health")
     @Operation(summary = "Health check", description = "Check the health status of the notification service")
     public ResponseEntity<HealthResponse> healthCheck() {
+        // Served from the background probe's cached result, never from a live SMTP round trip
+        Status smtp = smtpHealth.getStatus();
+        boolean smtpDown = Status.DOWN.equals(smtp) || Status.OUT_OF_SERVICE.equals(smtp);
+
         HealthResponse response = new HealthResponse(
-                "Notification Service is running",
-                "OK",
+                smtpDown ? "Notification Service cannot reach the SMTP relay" : "Notification Service is running",
+                smtpDown ? "DOWN" : "OK",
                 System.currentTimeMillis()
         );
+        response.setSmtp(smtp.getCode());
 
         // HATEOAS links
-        response.add(linkTo(methodOn(NotificationController.class).healthCheck()).withSelfRel());
-        response.add(linkTo(methodOn(NotificationController.class).sendCustomEmail(null)).withRel("send-custom-email"));
-        response.add(linkTo(methodOn(NotificationController.class).sendWelcomeEmail(null)).withRel("send-welcome-email"));
+        response.add(links.healthCheck(IanaLinkRelations.SELF_VALUE));
+        response.add(links.sendCustomEmail("send-custom-email"));
+        response.add(links.sendWelcomeEmail("send-welcome-email"));
 
-        return ResponseEntity.ok(response);
+        return smtpDown
+                ? ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response)
+                : ResponseEntity.ok(response);
+    }
+
+    private ResponseEntity<NotificationStatusResponse> accepted(DeliveryHandle handle) {
+        statusStore.register(handle);
+        NotificationStatusResponse response = toStatusResponse(handle);
+
+        // HATEOAS links
+        Link statusLink = links.notificationStatus(handle.getId(), "status");
+        response.add(statusLink);
+        response.add(links.healthCheck("health-check"));
+
+        // The queue refused the message outright (full or shutting down), so there is nothing to poll for.
+        // A send that was tried and failed is still reported as accepted; the status lookup shows the failure
+        if (handle.isRejected()) {
+            logger.warn("Could not queue email to: {}: {}", handle.getRecipient(), handle.getFailureReason());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+        }
+
+        return ResponseEntity.accepted().location(statusLink.toUri()).body(response);
+    }
+
+    private NotificationStatusResponse toStatusResponse(DeliveryHandle handle) {
+        return new NotificationStatusResponse(
+                handle.getId(),
+                handle.getStatus().name(),
+                handle.getRecipient(),
+                handle.getFailureReason()
+        );
+    }
+
+    // The SMTP circuit breaker is open and nothing was sent; unlike a refused message, the same request can
+    // succeed once the relay recovers
+    private ResponseEntity<EmailResponse> relayUnavailable(String email) {
+        logger.warn("SMTP circuit breaker is open, rejected email to: {}", email);
+
+        EmailResponse response = new EmailResponse(false, "SMTP relay is unavailable, try again later", email);
+        addCommonLinks(response);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
     }
 
     private void addCommonLinks(EmailResponse response) {
-        response.add(linkTo(methodOn(NotificationController.class).healthCheck()).withRel("health-check"));
+        response.add(links.healthCheck("health-check"));
     }
 
     @ExceptionHandler(org.springframework.web.bind.MethodArgumentNotValidException.class)
@@ -148,4 +296,14 @@ public class NotificationController {
         EmailResponse response = new EmailResponse(false, errorMessage, null);
         return ResponseEntity.badRequest().body(response);
     }
-}
\ No newline at end of file
+
+    // The notification could not be made durable, so it was not accepted; the client may retry
+    @ExceptionHandler(OutboxException.class)
+    public ResponseEntity<EmailResponse> handleOutboxException(OutboxException ex) {
+        logger.error("Failed to journal notification", ex);
+
+        EmailResponse response = new EmailResponse(false, "Notification could not be accepted: " + ex.getMessage(), null);
+        addCommonLinks(response);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+}
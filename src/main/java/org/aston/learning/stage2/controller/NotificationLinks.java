@@ -0,0 +1,85 @@
+package org.aston.learning.stage2.controller;
+
+import org.springframework.hateoas.Link;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+
+// linkTo(methodOn(...)) builds a CGLIB proxy and re-resolves the mapping on every call. The hrefs only depend on
+// the request's base URI (scheme, host, port and context path, after ForwardedHeaderFilter if enabled), so they
+// are resolved once per base URI with the same linkTo calls and reused.
+@Component
+public class NotificationLinks {
+
+    // Base URIs come from the Host header, so only a bounded number of them is cached
+    static final int MAX_CACHED_BASE_URIS = 64;
+
+    private static final String ID_PLACEHOLDER = "00000000-id-placeholder";
+
+    private final ConcurrentMap<String, Hrefs> cache = new ConcurrentHashMap<>();
+
+    public Link healthCheck(String rel) {
+        return Link.of(current().healthCheck(), rel);
+    }
+
+    public Link sendCustomEmail(String rel) {
+        return Link.of(current().sendCustomEmail(), rel);
+    }
+
+    public Link sendWelcomeEmail(String rel) {
+        return Link.of(current().sendWelcomeEmail(), rel);
+    }
+
+    public Link notificationStatus(String id, String rel) {
+        return Link.of(current().statusHref(id), rel);
+    }
+
+    int cachedBaseUris() {
+        return cache.size();
+    }
+
+    private Hrefs current() {
+        String baseUri = RequestContextHolder.getRequestAttributes() != null
+                ? ServletUriComponentsBuilder.fromCurrentServletMapping().toUriString()
+                : "";
+
+        Hrefs hrefs = cache.get(baseUri);
+        if (hrefs != null) {
+            return hrefs;
+        }
+        hrefs = resolve();
+        if (cache.size() < MAX_CACHED_BASE_URIS) {
+            cache.putIfAbsent(baseUri, hrefs);
+        }
+        return hrefs;
+    }
+
+    private static Hrefs resolve() {
+        String status = linkTo(methodOn(NotificationController.class).getNotificationStatus(ID_PLACEHOLDER)).toUri()
+                .toString();
+        int idAt = status.lastIndexOf(ID_PLACEHOLDER);
+
+        return new Hrefs(
+                linkTo(methodOn(NotificationController.class).healthCheck()).withSelfRel().getHref(),
+                linkTo(methodOn(NotificationController.class).sendCustomEmail(null)).withSelfRel().getHref(),
+                linkTo(methodOn(NotificationController.class).sendWelcomeEmail(null)).withSelfRel().getHref(),
+                status.substring(0, idAt),
+                status.substring(idAt + ID_PLACEHOLDER.length())
+        );
+    }
+
+    private record Hrefs(String healthCheck, String sendCustomEmail, String sendWelcomeEmail,
+                         String statusPrefix, String statusSuffix) {
+
+        String statusHref(String id) {
+            return statusPrefix + UriUtils.encodePathSegment(id, StandardCharsets.UTF_8) + statusSuffix;
+        }
+    }
+}
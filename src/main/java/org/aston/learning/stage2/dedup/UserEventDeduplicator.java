@@ -0,0 +1,137 @@
+package org.aston.learning.stage2.dedup;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.aston.learning.stage2.event.UserEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Remembers recently delivered events in two rotating generations of ConcurrentHashMap:
+// lookups never take a lock, and dropping the old generation evicts a whole window at once
+@Component
+public class UserEventDeduplicator {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.kafka.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.kafka.dedup.window-ms:3600000}")
+    private long windowMs;
+
+    @Value("${app.kafka.dedup.max-entries:100000}")
+    private int maxEntries;
+
+    private final AtomicReference<Generations> generations = new AtomicReference<>();
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Counter evictionCounter;
+
+    @PostConstruct
+    public void start() {
+        generations.set(new Generations(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), System.nanoTime()));
+
+        Gauge.builder("notification.dedup.size", this, UserEventDeduplicator::size)
+                .description("Event keys currently remembered for duplicate detection")
+                .register(meterRegistry);
+        hitCounter = Counter.builder("notification.dedup.hits")
+                .description("Redelivered events skipped as duplicates")
+                .register(meterRegistry);
+        missCounter = Counter.builder("notification.dedup.misses")
+                .description("Events seen for the first time within the window")
+                .register(meterRegistry);
+        evictionCounter = Counter.builder("notification.dedup.evictions")
+                .description("Event keys dropped from the cache")
+                .register(meterRegistry);
+    }
+
+    // Returns true when the event has to be processed, false when it was already delivered recently
+    public boolean markIfFirst(UserEvent event) {
+        String key = keyOf(event);
+        if (!enabled || key == null) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        Generations current = rotateIfNeeded(now);
+
+        Long previousSeen = current.active.putIfAbsent(key, now);
+        if (previousSeen == null) {
+            Long olderSeen = current.retired.get(key);
+            if (olderSeen == null || isExpired(olderSeen, now)) {
+                missCounter.increment();
+                return true;
+            }
+        } else if (isExpired(previousSeen, now) && current.active.replace(key, previousSeen, now)) {
+            missCounter.increment();
+            return true;
+        }
+
+        hitCounter.increment();
+        return false;
+    }
+
+    // Called when delivery failed so that a redelivery of the same event is not treated as a duplicate
+    public void forget(UserEvent event) {
+        String key = event != null ? keyOf(event) : null;
+        if (!enabled || key == null) {
+            return;
+        }
+        Generations current = generations.get();
+        current.active.remove(key);
+        current.retired.remove(key);
+    }
+
+    public int size() {
+        Generations current = generations.get();
+        return current.active.size() + current.retired.size();
+    }
+
+    static String keyOf(UserEvent event) {
+        if (event.getEventId() != null && !event.getEventId().isBlank()) {
+            return event.getEventId();
+        }
+        // Without an id or a timestamp two legitimate events for the same user are indistinguishable
+        if (event.getTimestamp() == null) {
+            return null;
+        }
+        return event.getEventType() + '|' + event.getEmail() + '|' + event.getTimestamp();
+    }
+
+    private Generations rotateIfNeeded(long now) {
+        Generations current = generations.get();
+        boolean windowElapsed = now - current.startedAt >= windowNanos();
+        boolean full = current.active.size() >= Math.max(1, maxEntries / 2);
+        if (!windowElapsed && !full) {
+            return current;
+        }
+
+        Generations rotated = new Generations(new ConcurrentHashMap<>(), current.active, now);
+        if (generations.compareAndSet(current, rotated)) {
+            evictionCounter.increment(current.retired.size());
+            return rotated;
+        }
+        // Another thread rotated first
+        return generations.get();
+    }
+
+    private boolean isExpired(long seenAt, long now) {
+        return now - seenAt >= windowNanos();
+    }
+
+    private long windowNanos() {
+        return windowMs * 1_000_000L;
+    }
+
+    private record Generations(ConcurrentHashMap<String, Long> active,
+                               ConcurrentHashMap<String, Long> retired,
+                               long startedAt) {
+    }
+}
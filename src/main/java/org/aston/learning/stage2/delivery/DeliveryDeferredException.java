@@ -0,0 +1,19 @@
+package org.aston.learning.stage2.delivery;
+
+import java.util.concurrent.TimeUnit;
+
+// Thrown by a delivery callback that cannot send right now; the queue parks the message and
+// hands it to a worker again once the delay has passed
+public class DeliveryDeferredException extends RuntimeException {
+
+    private final long delayNanos;
+
+    public DeliveryDeferredException(String message, long delay, TimeUnit unit) {
+        super(message);
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+}
@@ -0,0 +1,97 @@
+package org.aston.learning.stage2.delivery;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+public class DeliveryHandle {
+
+    private final String id;
+    private final String recipient;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private volatile DeliveryStatus status = DeliveryStatus.QUEUED;
+    private volatile String failureReason;
+    // Set when the queue refused the message, as opposed to a send that was tried and failed
+    private volatile boolean rejected;
+
+    public DeliveryHandle(String recipient) {
+        this.id = UUID.randomUUID().toString();
+        this.recipient = recipient;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public DeliveryStatus getStatus() {
+        return status;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    // Withdraws a message no worker has started to send, parked ones included; false once the send is under
+    // way or over
+    public synchronized boolean cancel() {
+        if (status != DeliveryStatus.QUEUED || completion.isDone()) {
+            return false;
+        }
+        markFailed(new CancellationException("Delivery was cancelled before it was sent"));
+        return true;
+    }
+
+    void markQueued() {
+        status = DeliveryStatus.QUEUED;
+    }
+
+    // False when the message was cancelled before the worker got to it
+    synchronized boolean markSending() {
+        if (completion.isDone()) {
+            return false;
+        }
+        status = DeliveryStatus.SENDING;
+        return true;
+    }
+
+    void markSent() {
+        status = DeliveryStatus.SENT;
+        completion.complete(null);
+    }
+
+    void markRejected(Throwable cause) {
+        rejected = true;
+        markFailed(cause);
+    }
+
+    void markFailed(Throwable cause) {
+        failureReason = cause.getMessage();
+        status = DeliveryStatus.FAILED;
+        completion.completeExceptionally(cause);
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryHandle{" +
+                "id='" + id + '\'' +
+                ", recipient='" + recipient + '\'' +
+                ", status=" + status +
+                '}';
+    }
+}
@@ -0,0 +1,7 @@
+package org.aston.learning.stage2.delivery;
+
+// Account emails go through TRANSACTIONAL so that bulk traffic cannot hold them up
+public enum DeliveryLane {
+    TRANSACTIONAL,
+    BULK
+}
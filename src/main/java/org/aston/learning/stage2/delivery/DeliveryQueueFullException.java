@@ -0,0 +1,8 @@
+package org.aston.learning.stage2.delivery;
+
+public class DeliveryQueueFullException extends RuntimeException {
+
+    public DeliveryQueueFullException(String message) {
+        super(message);
+    }
+}
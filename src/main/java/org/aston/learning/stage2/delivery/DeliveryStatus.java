@@ -0,0 +1,8 @@
+package org.aston.learning.stage2.delivery;
+
+public enum DeliveryStatus {
+    QUEUED,
+    SENDING,
+    SENT,
+    FAILED
+}
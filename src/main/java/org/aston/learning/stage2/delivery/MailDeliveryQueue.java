@@ -0,0 +1,441 @@
+package org.aston.learning.stage2.delivery;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.aston.learning.stage2.ratelimit.SendRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Each DeliveryLane has its own bounded queue; workers pick the next lane by smooth weighted round robin,
+// so with the default weights transactional mail gets four of every five free workers while both lanes
+// have work, and all of them when bulk is idle
+@Component
+public class MailDeliveryQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailDeliveryQueue.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SendRateLimiter rateLimiter;
+
+    // Per lane
+    @Value("${app.email.queue.capacity:1000}")
+    private int capacity;
+
+    @Value("${app.email.queue.transactional-weight:4}")
+    private int transactionalWeight;
+
+    @Value("${app.email.queue.bulk-weight:1}")
+    private int bulkWeight;
+
+    // Buckets of the per-lane delivery latency histogram, from submit until SMTP accepted or refused
+    @Value("${app.email.queue.latency-slo:1s,5s,30s}")
+    private List<Duration> latencySlo;
+
+    @Value("${app.email.queue.workers:4}")
+    private int workers;
+
+    @Value("${app.email.queue.overflow-policy:CALLER_RUNS}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${app.email.queue.block-timeout-ms:5000}")
+    private long blockTimeoutMs;
+
+    @Value("${app.email.queue.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMs;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Guarded by lock
+    private final Map<DeliveryLane, Lane> lanes = new EnumMap<>(DeliveryLane.class);
+    private int queued;
+    // Messages the rate limiter deferred or the delivery callback parked; workers take them back once the wait has passed
+    private final DelayQueue<DeferredTask> deferred = new DelayQueue<>();
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        for (DeliveryLane lane : DeliveryLane.values()) {
+            int weight = lane == DeliveryLane.TRANSACTIONAL ? transactionalWeight : bulkWeight;
+            Lane created = new Lane(Math.max(1, weight),
+                    Timer.builder("notification.delivery.latency")
+                            .description("Time from submitting an email until SMTP accepted or refused it")
+                            .tag("lane", lane.name())
+                            .publishPercentileHistogram()
+                            .serviceLevelObjectives(latencySlo.toArray(new Duration[0]))
+                            .register(meterRegistry),
+                    Counter.builder("notification.queue.rejected")
+                            .description("Emails rejected because the delivery queue was full")
+                            .tag("lane", lane.name())
+                            .register(meterRegistry));
+            lanes.put(lane, created);
+            Gauge.builder("notification.queue.depth", this, queue -> queue.getQueueDepth(lane))
+                    .description("Emails waiting for a delivery worker")
+                    .tag("lane", lane.name())
+                    .register(meterRegistry);
+        }
+        running = true;
+
+        Gauge.builder("notification.queue.deferred", deferred, DelayQueue::size)
+                .description("Emails waiting for a rate limit permit or parked by their delivery callback")
+                .register(meterRegistry);
+        Gauge.builder("notification.queue.in-flight", this, MailDeliveryQueue::getInFlightCount)
+                .description("Emails currently being handed to SMTP")
+                .register(meterRegistry);
+
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::runWorker, "mail-delivery-" + i);
+            workerThreads.add(worker);
+            worker.start();
+        }
+
+        logger.info("Mail delivery queue started: capacity={} per lane, workers={}, overflowPolicy={}, "
+                + "weights transactional={} bulk={}", capacity, workers, overflowPolicy,
+                transactionalWeight, bulkWeight);
+    }
+
+    public DeliveryHandle submit(SimpleMailMessage message, Consumer<SimpleMailMessage> delivery) {
+        return submit(message, DeliveryLane.BULK, delivery);
+    }
+
+    public DeliveryHandle submit(SimpleMailMessage message, DeliveryLane lane, Consumer<SimpleMailMessage> delivery) {
+        return submit(message, lane, delivery, overflowPolicy);
+    }
+
+    // For callers that must not run the send themselves when the lane is full, whatever the configured policy
+    public DeliveryHandle submit(SimpleMailMessage message, DeliveryLane lane, Consumer<SimpleMailMessage> delivery,
+                                 OverflowPolicy policy) {
+        DeliveryHandle handle = new DeliveryHandle(String.join(",", message.getTo()));
+        DeliveryTask task = new DeliveryTask(message, delivery, handle, lane, System.nanoTime());
+
+        if (!running) {
+            handle.markRejected(new IllegalStateException("Mail delivery queue is shut down"));
+            return handle;
+        }
+
+        if (offer(task, 0)) {
+            return handle;
+        }
+
+        switch (policy) {
+            case CALLER_RUNS:
+                logger.debug("Delivery queue is full, sending to {} on the caller thread", handle.getRecipient());
+                deliver(task, 0);
+                break;
+
+            case BLOCK:
+                if (!offer(task, TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs))) {
+                    reject(task);
+                }
+                break;
+
+            default:
+                reject(task);
+        }
+
+        return handle;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth(DeliveryLane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDeferredCount() {
+        return deferred.size();
+    }
+
+    // Walks the deferred set, which never holds much more than the capacity; meant for periodic checks
+    public int getDeferredCount(DeliveryLane lane) {
+        int count = 0;
+        for (DeferredTask deferredTask : deferred) {
+            if (deferredTask.task().lane() == lane) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+
+        for (Thread worker : workerThreads) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Past the deadline the tasks left are taken out under the lock first, so no worker picks one up while it
+        // is failed; then the workers still busy are interrupted, so these non-daemon threads cannot keep the JVM alive
+        List<DeliveryTask> remaining = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Lane lane : lanes.values()) {
+                remaining.addAll(lane.tasks);
+                lane.tasks.clear();
+            }
+            queued = 0;
+        } finally {
+            lock.unlock();
+        }
+        List<DeferredTask> remainingDeferred = new ArrayList<>();
+        deferred.drainTo(remainingDeferred);
+        remainingDeferred.forEach(deferredTask -> remaining.add(deferredTask.task()));
+
+        int stuck = 0;
+        for (Thread worker : workerThreads) {
+            if (worker.isAlive()) {
+                worker.interrupt();
+                stuck++;
+            }
+        }
+
+        for (DeliveryTask task : remaining) {
+            task.handle().markFailed(new IllegalStateException("Mail delivery queue shut down before sending"));
+        }
+
+        if (stuck > 0 || !remaining.isEmpty()) {
+            logger.warn("Mail delivery queue stopped after {} ms: interrupted {} busy workers, {} emails not sent",
+                    shutdownTimeoutMs, stuck, remaining.size());
+        } else {
+            logger.info("Mail delivery queue stopped");
+        }
+    }
+
+    private boolean offer(DeliveryTask task, long timeoutNanos) {
+        long remaining = timeoutNanos;
+        lock.lock();
+        try {
+            Lane lane = lanes.get(task.lane());
+            while (lane.tasks.size() >= capacity) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+            lane.tasks.addLast(task);
+            queued++;
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private DeliveryTask poll(long timeoutNanos) throws InterruptedException {
+        long remaining = timeoutNanos;
+        lock.lock();
+        try {
+            while (queued == 0) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+
+            // Smooth weighted round robin over the lanes that have work: every candidate earns its weight,
+            // the richest one is served and pays back the total, which interleaves lanes instead of bursting
+            Lane selected = null;
+            int totalWeight = 0;
+            for (Lane lane : lanes.values()) {
+                if (lane.tasks.isEmpty()) {
+                    continue;
+                }
+                lane.credit += lane.weight;
+                totalWeight += lane.weight;
+                if (selected == null || lane.credit > selected.credit) {
+                    selected = lane;
+                }
+            }
+            selected.credit -= totalWeight;
+
+            queued--;
+            notFull.signalAll();
+            return selected.tasks.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reject(DeliveryTask task) {
+        lanes.get(task.lane()).rejected.increment();
+        logger.warn("{} delivery lane is full ({} messages), rejecting email to {}",
+                task.lane(), capacity, task.handle().getRecipient());
+        task.handle().markRejected(new DeliveryQueueFullException("Delivery queue is full"));
+    }
+
+    private void runWorker() {
+        while (running || getQueueDepth() > 0 || !deferred.isEmpty()) {
+            try {
+                DeferredTask due = deferred.poll();
+                if (due != null) {
+                    deliver(due.task(), due.throttledSince());
+                    continue;
+                }
+
+                // Once as many messages wait for permits as the queue holds, stop taking new ones so the
+                // overflow policy pushes back on producers instead of the deferred set growing unbounded
+                if (deferred.size() >= capacity) {
+                    due = deferred.poll(100, TimeUnit.MILLISECONDS);
+                    if (due != null) {
+                        deliver(due.task(), due.throttledSince());
+                    }
+                    continue;
+                }
+
+                DeliveryTask task = poll(pollTimeoutNanos());
+                if (task != null) {
+                    deliver(task, 0);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private long pollTimeoutNanos() {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(100);
+        DeferredTask next = deferred.peek();
+        return next != null ? Math.max(0, Math.min(timeout, next.getDelay(TimeUnit.NANOSECONDS))) : timeout;
+    }
+
+    // throttledSince is when the limiter first deferred the task, 0 if it has not been deferred yet
+    private void deliver(DeliveryTask task, long throttledSince) {
+        // Cancelled while it waited; it still held its place in the lane until now
+        if (task.handle().isDone()) {
+            return;
+        }
+        long wait = rateLimiter.tryAcquire(task.handle().getRecipient());
+        if (wait > 0) {
+            long now = System.nanoTime();
+            deferred.put(new DeferredTask(task, now + wait, throttledSince != 0 ? throttledSince : now));
+            return;
+        }
+        if (throttledSince != 0) {
+            rateLimiter.recordWait(System.nanoTime() - throttledSince);
+        }
+
+        if (!task.handle().markSending()) {
+            return;
+        }
+        inFlight.incrementAndGet();
+        // Latency is recorded before the handle completes, so whoever waits on it sees the sample
+        try {
+            task.delivery().accept(task.message());
+            recordLatency(task);
+            task.handle().markSent();
+        } catch (DeliveryDeferredException e) {
+            park(task, e);
+        } catch (Exception e) {
+            recordLatency(task);
+            task.handle().markFailed(e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void recordLatency(DeliveryTask task) {
+        lanes.get(task.lane()).latency.record(System.nanoTime() - task.submittedAt(), TimeUnit.NANOSECONDS);
+    }
+
+    // The callback asked to try again later (e.g. the SMTP circuit is open). Parked tasks share the deferred
+    // set with throttled ones, so a long outage stops workers taking new tasks and the overflow policy pushes back
+    private void park(DeliveryTask task, DeliveryDeferredException e) {
+        if (!running) {
+            task.handle().markFailed(e);
+            return;
+        }
+        task.handle().markQueued();
+        deferred.put(new DeferredTask(task, System.nanoTime() + e.getDelayNanos(), 0));
+        logger.debug("Parked email to {} for {} ms: {}", task.handle().getRecipient(),
+                TimeUnit.NANOSECONDS.toMillis(e.getDelayNanos()), e.getMessage());
+    }
+
+    private record DeliveryTask(SimpleMailMessage message, Consumer<SimpleMailMessage> delivery,
+                                DeliveryHandle handle, DeliveryLane lane, long submittedAt) {
+    }
+
+    private static final class Lane {
+        private final ArrayDeque<DeliveryTask> tasks = new ArrayDeque<>();
+        private final int weight;
+        private final Timer latency;
+        private final Counter rejected;
+        private int credit;
+
+        private Lane(int weight, Timer latency, Counter rejected) {
+            this.weight = weight;
+            this.latency = latency;
+            this.rejected = rejected;
+        }
+    }
+
+    private record DeferredTask(DeliveryTask task, long readyAt, long throttledSince) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(readyAt, ((DeferredTask) other).readyAt);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package org.aston.learning.stage2.delivery;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Collects messages of the digest types per recipient and sends them as one email when the recipient's
+// window closes or enough messages piled up. Every digest is opened with the same window, so open
+// digests are already in deadline order and a plain FIFO serves as the timer
+@Component
+public class MailDigestBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailDigestBuffer.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MailDeliveryQueue deliveryQueue;
+
+    // Notification types (UserEventType names or CUSTOM) that are merged; empty disables digests
+    @Value("${app.email.digest.types:}")
+    private List<String> types;
+
+    @Value("${app.email.digest.window-ms:60000}")
+    private long windowMs;
+
+    @Value("${app.email.digest.max-messages:20}")
+    private int maxMessages;
+
+    @Value("${app.email.digest.max-recipients:10000}")
+    private int maxRecipients;
+
+    private final Set<String> digestTypes = new HashSet<>();
+    // Guarded by this
+    private final Map<String, Digest> openDigests = new HashMap<>();
+    private final ArrayDeque<Digest> byDeadline = new ArrayDeque<>();
+
+    private Function<List<SimpleMailMessage>, SimpleMailMessage> composer;
+    private Consumer<SimpleMailMessage> delivery;
+    private Counter mergedCounter;
+    private Counter bypassedCounter;
+    private Thread flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        types.stream()
+                .map(String::trim)
+                .filter(type -> !type.isEmpty())
+                .map(type -> type.toUpperCase(Locale.ROOT))
+                .forEach(digestTypes::add);
+
+        mergedCounter = Counter.builder("notification.digest.merged")
+                .description("Messages sent as part of a digest")
+                .register(meterRegistry);
+        bypassedCounter = Counter.builder("notification.digest.bypassed")
+                .description("Digest-type messages sent on their own because the digest buffer was full")
+                .register(meterRegistry);
+        Gauge.builder("notification.digest.open", this, MailDigestBuffer::getOpenCount)
+                .description("Recipients with a digest waiting to be sent")
+                .register(meterRegistry);
+
+        if (digestTypes.isEmpty()) {
+            return;
+        }
+
+        running = true;
+        flusher = new Thread(this::runFlusher, "mail-digest");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("Digesting {} notifications per recipient for {} ms, at most {} messages per digest",
+                digestTypes, windowMs, maxMessages);
+    }
+
+    // Called once by EmailService, which knows how to render and send the merged email
+    public void register(Function<List<SimpleMailMessage>, SimpleMailMessage> composer,
+                         Consumer<SimpleMailMessage> delivery) {
+        this.composer = composer;
+        this.delivery = delivery;
+    }
+
+    public boolean isDigested(String type) {
+        return running && digestTypes.contains(type);
+    }
+
+    // Returns null when the buffer is full and the caller has to send the message itself.
+    // onCompleted runs once after the digest was handed to SMTP or could not be queued
+    public DeliveryHandle add(SimpleMailMessage message, DeliveryLane lane, Runnable onCompleted) {
+        String recipient = message.getTo()[0].toLowerCase(Locale.ROOT);
+        DeliveryHandle handle = new DeliveryHandle(message.getTo()[0]);
+        Digest full = null;
+
+        synchronized (this) {
+            Digest digest = openDigests.get(recipient);
+            if (digest == null) {
+                // Digests closed early by count stay in the FIFO until their deadline, so bound that instead
+                if (byDeadline.size() >= maxRecipients) {
+                    bypassedCounter.increment();
+                    return null;
+                }
+                digest = new Digest(recipient, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs));
+                openDigests.put(recipient, digest);
+                byDeadline.addLast(digest);
+                if (byDeadline.size() == 1) {
+                    notifyAll();
+                }
+            }
+
+            digest.entries.add(new DigestEntry(message, lane, handle, onCompleted));
+            if (digest.entries.size() >= maxMessages) {
+                openDigests.remove(recipient);
+                digest.closed = true;
+                full = digest;
+            }
+        }
+
+        if (full != null) {
+            send(full);
+        }
+        return handle;
+    }
+
+    public synchronized int getOpenCount() {
+        return openDigests.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            flusher.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The delivery queue is destroyed after this bean, so open digests can still be sent
+        List<Digest> remaining = new ArrayList<>();
+        synchronized (this) {
+            for (Digest digest : byDeadline) {
+                if (!digest.closed) {
+                    digest.closed = true;
+                    remaining.add(digest);
+                }
+            }
+            byDeadline.clear();
+            openDigests.clear();
+        }
+        remaining.forEach(this::send);
+        logger.info("Mail digest buffer stopped, sent {} open digests", remaining.size());
+    }
+
+    // Sends every digest whose window has closed by now; the flusher thread calls it as deadlines pass
+    void flushDue(long now) {
+        List<Digest> due = new ArrayList<>();
+        synchronized (this) {
+            Digest head;
+            while ((head = byDeadline.peekFirst()) != null && (head.closed || head.deadline - now <= 0)) {
+                byDeadline.removeFirst();
+                if (!head.closed) {
+                    head.closed = true;
+                    openDigests.remove(head.recipient);
+                    due.add(head);
+                }
+            }
+        }
+        due.forEach(this::send);
+    }
+
+    private void send(Digest digest) {
+        List<DigestEntry> entries = digest.entries;
+        List<SimpleMailMessage> messages = new ArrayList<>(entries.size());
+        entries.forEach(entry -> messages.add(entry.message()));
+        // A transactional message keeps its lane when it is merged with bulk ones
+        DeliveryLane lane = entries.stream().anyMatch(entry -> entry.lane() == DeliveryLane.TRANSACTIONAL)
+                ? DeliveryLane.TRANSACTIONAL
+                : DeliveryLane.BULK;
+
+        AtomicBoolean completed = new AtomicBoolean();
+        Runnable complete = () -> {
+            if (completed.compareAndSet(false, true)) {
+                entries.forEach(entry -> entry.onCompleted().run());
+            }
+        };
+
+        // Never sends on the thread that closed the digest, which may be a request thread or the flusher; a full
+        // lane parks the digest for another window instead. Once stopped there is no next flush, so it waits for
+        // room for a bounded time
+        OverflowPolicy policy = running ? OverflowPolicy.REJECT : OverflowPolicy.BLOCK;
+        DeliveryHandle sent;
+        try {
+            SimpleMailMessage merged = messages.size() == 1 ? messages.get(0) : composer.apply(messages);
+            // complete acknowledges the entries' journal records, so it only runs once SMTP was really tried;
+            // a parked digest keeps them pending until the queue hands it out again
+            sent = deliveryQueue.submit(merged, lane, queued -> {
+                entries.forEach(entry -> entry.handle().markSending());
+                try {
+                    delivery.accept(queued);
+                } catch (DeliveryDeferredException e) {
+                    entries.forEach(entry -> entry.handle().markQueued());
+                    throw e;
+                } catch (RuntimeException e) {
+                    complete.run();
+                    throw e;
+                }
+                complete.run();
+            }, policy);
+        } catch (RuntimeException e) {
+            logger.error("Failed to build the digest for {}", digest.recipient, e);
+            entries.forEach(entry -> entry.handle().markFailed(e));
+            complete.run();
+            return;
+        }
+
+        if (sent.isRejected() && running) {
+            repark(digest);
+            return;
+        }
+        if (sent.getStatus() == DeliveryStatus.FAILED) {
+            complete.run();
+        }
+        if (messages.size() > 1) {
+            mergedCounter.increment(messages.size());
+        }
+        sent.getCompletion().whenComplete((ignored, error) -> entries.forEach(entry -> {
+            if (error == null) {
+                entry.handle().markSent();
+            } else {
+                entry.handle().markFailed(error);
+            }
+        }));
+        logger.debug("Sent digest of {} messages to {}", messages.size(), digest.recipient);
+    }
+
+    // Puts the entries of a digest the queue refused back in front of the recipient's open digest, opening one
+    // if needed; they were accepted already, so the max-recipients bound does not apply
+    private void repark(Digest digest) {
+        synchronized (this) {
+            Digest open = openDigests.get(digest.recipient);
+            if (open == null) {
+                open = new Digest(digest.recipient, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs));
+                openDigests.put(digest.recipient, open);
+                byDeadline.addLast(open);
+                if (byDeadline.size() == 1) {
+                    notifyAll();
+                }
+            }
+            open.entries.addAll(0, digest.entries);
+        }
+        logger.warn("Delivery queue is full, holding digest of {} messages to {} until the next flush",
+                digest.entries.size(), digest.recipient);
+    }
+
+    private void runFlusher() {
+        while (running) {
+            long now = System.nanoTime();
+            flushDue(now);
+
+            synchronized (this) {
+                Digest head = byDeadline.peekFirst();
+                long waitNanos = head != null ? head.deadline - System.nanoTime() : TimeUnit.SECONDS.toNanos(1);
+                if (running && waitNanos > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Digest {
+        private final String recipient;
+        private final long deadline;
+        private final List<DigestEntry> entries = new ArrayList<>(4);
+        private boolean closed;
+
+        private Digest(String recipient, long deadline) {
+            this.recipient = recipient;
+            this.deadline = deadline;
+        }
+    }
+
+    private record DigestEntry(SimpleMailMessage message, DeliveryLane lane, DeliveryHandle handle,
+                               Runnable onCompleted) {
+    }
+}
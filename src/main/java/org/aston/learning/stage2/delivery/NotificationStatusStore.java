@@ -0,0 +1,51 @@
+package org.aston.learning.stage2.delivery;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Delivery handles of notifications accepted with 202, kept so callers can poll their status.
+// Bounded by insertion order: once full, the oldest entry is dropped and its id answers 404.
+@Component
+public class NotificationStatusStore {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.email.status.max-entries:10000}")
+    private int maxEntries;
+
+    private Map<String, DeliveryHandle> handles;
+
+    @PostConstruct
+    public void init() {
+        handles = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DeliveryHandle> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        Gauge.builder("notification.status.entries", this, NotificationStatusStore::size)
+                .description("Accepted notifications whose status can still be looked up")
+                .register(meterRegistry);
+    }
+
+    public synchronized void register(DeliveryHandle handle) {
+        handles.put(handle.getId(), handle);
+    }
+
+    public synchronized DeliveryHandle find(String id) {
+        return handles.get(id);
+    }
+
+    public synchronized int size() {
+        return handles.size();
+    }
+}
@@ -0,0 +1,8 @@
+package org.aston.learning.stage2.delivery;
+
+// What MailDeliveryQueue does when its buffer is full
+public enum OverflowPolicy {
+    REJECT,       // fail the delivery immediately
+    BLOCK,        // wait for free space up to the configured timeout, then fail
+    CALLER_RUNS   // deliver synchronously on the submitting thread
+}
@@ -0,0 +1,72 @@
+package org.aston.learning.stage2.dto;
+
+// One line of the bulk endpoint's NDJSON response; index is the item's position in the request body
+public class BulkEmailResult {
+    private long index;
+    private boolean success;
+    private String email;
+    private String message;
+    private String deliveryId;
+
+    public BulkEmailResult() {}
+
+    public BulkEmailResult(long index, boolean success, String email, String message, String deliveryId) {
+        this.index = index;
+        this.success = success;
+        this.email = email;
+        this.message = message;
+        this.deliveryId = deliveryId;
+    }
+
+    // Getters and setters
+    public long getIndex() {
+        return index;
+    }
+
+    public void setIndex(long index) {
+        this.index = index;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getDeliveryId() {
+        return deliveryId;
+    }
+
+    public void setDeliveryId(String deliveryId) {
+        this.deliveryId = deliveryId;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkEmailResult{" +
+                "index=" + index +
+                ", success=" + success +
+                ", email='" + email + '\'' +
+                ", message='" + message + '\'' +
+                ", deliveryId='" + deliveryId + '\'' +
+                '}';
+    }
+}
@@ -6,6 +6,8 @@ public class HealthResponse extends RepresentationModel<HealthResponse> {
     private String status;
     private String service;
     private long timestamp;
+    // Cached result of the SMTP relay probe: UP, DOWN or UNKNOWN
+    private String smtp;
 
     public HealthResponse() {}
 
@@ -40,12 +42,21 @@ public class HealthResponse extends RepresentationModel<HealthResponse> {
         this.timestamp = timestamp;
     }
 
+    public String getSmtp() {
+        return smtp;
+    }
+
+    public void setSmtp(String smtp) {
+        this.smtp = smtp;
+    }
+
     @Override
     public String toString() {
         return "HealthResponse{" +
                 "status='" + status + '\'' +
                 ", service='" + service + '\'' +
                 ", timestamp=" + timestamp +
+                ", smtp='" + smtp + '\'' +
                 '}';
     }
 }
\ No newline at end of file
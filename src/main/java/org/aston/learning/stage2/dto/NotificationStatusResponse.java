@@ -0,0 +1,62 @@
+package org.aston.learning.stage2.dto;
+
+import org.springframework.hateoas.RepresentationModel;
+
+public class NotificationStatusResponse extends RepresentationModel<NotificationStatusResponse> {
+    private String id;
+    private String status;
+    private String email;
+    private String message;
+
+    public NotificationStatusResponse() {}
+
+    public NotificationStatusResponse(String id, String status, String email, String message) {
+        this.id = id;
+        this.status = status;
+        this.email = email;
+        this.message = message;
+    }
+
+    // Getters and setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationStatusResponse{" +
+                "id='" + id + '\'' +
+                ", status='" + status + '\'' +
+                ", email='" + email + '\'' +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
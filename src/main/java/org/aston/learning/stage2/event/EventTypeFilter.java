@@ -0,0 +1,122 @@
+package org.aston.learning.stage2.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+// Decides from the eventType header, or failing that from a single pass over the raw JSON bytes,
+// whether a record is worth deserializing. Anything it cannot decide on is let through
+public class EventTypeFilter {
+
+    private static final byte[] EVENT_TYPE_FIELD = "\"eventType\"".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[][] acceptedTypes;
+    private final String typeHeader;
+    private final Counter headerFilteredCounter;
+    private final Counter payloadFilteredCounter;
+
+    public EventTypeFilter(Collection<String> acceptedTypes, String typeHeader, MeterRegistry meterRegistry) {
+        this.acceptedTypes = acceptedTypes.stream()
+                .map(type -> type.getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+        this.typeHeader = typeHeader;
+        this.headerFilteredCounter = Counter.builder("notification.events.filtered")
+                .description("Records skipped before deserialization because no handler needs their event type")
+                .tag("source", "header")
+                .register(meterRegistry);
+        this.payloadFilteredCounter = Counter.builder("notification.events.filtered")
+                .description("Records skipped before deserialization because no handler needs their event type")
+                .tag("source", "payload")
+                .register(meterRegistry);
+    }
+
+    public boolean accepts(Headers headers, byte[] data) {
+        Header header = headers != null ? headers.lastHeader(typeHeader) : null;
+        if (header != null && header.value() != null) {
+            byte[] type = header.value();
+            if (isAccepted(type, 0, type.length)) {
+                return true;
+            }
+            headerFilteredCounter.increment();
+            return false;
+        }
+
+        if (data == null || scanPayload(data)) {
+            return true;
+        }
+        payloadFilteredCounter.increment();
+        return false;
+    }
+
+    // Walks the top-level object looking for the "eventType" key, skipping over strings and nested values
+    private boolean scanPayload(byte[] data) {
+        int depth = 0;
+        for (int i = 0; i < data.length; i++) {
+            byte b = data[i];
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            } else if (b == '"') {
+                if (depth == 1 && Arrays.equals(data, i, Math.min(i + EVENT_TYPE_FIELD.length, data.length),
+                        EVENT_TYPE_FIELD, 0, EVENT_TYPE_FIELD.length)) {
+                    int colon = skipWhitespace(data, i + EVENT_TYPE_FIELD.length);
+                    if (colon < data.length && data[colon] == ':') {
+                        return acceptsValue(data, skipWhitespace(data, colon + 1));
+                    }
+                }
+                i = endOfString(data, i);
+            }
+        }
+        return true;
+    }
+
+    private boolean acceptsValue(byte[] data, int start) {
+        if (start >= data.length || data[start] != '"') {
+            // null or a non-string type: leave it to the deserializer and the handler registry
+            return true;
+        }
+        for (int end = start + 1; end < data.length; end++) {
+            if (data[end] == '\\') {
+                return true;
+            }
+            if (data[end] == '"') {
+                return isAccepted(data, start + 1, end);
+            }
+        }
+        return true;
+    }
+
+    private boolean isAccepted(byte[] data, int from, int to) {
+        for (byte[] accepted : acceptedTypes) {
+            if (Arrays.equals(data, from, to, accepted, 0, accepted.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int skipWhitespace(byte[] data, int position) {
+        while (position < data.length
+                && (data[position] == ' ' || data[position] == '\t' || data[position] == '\n' || data[position] == '\r')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int endOfString(byte[] data, int start) {
+        for (int i = start + 1; i < data.length; i++) {
+            if (data[i] == '\\') {
+                i++;
+            } else if (data[i] == '"') {
+                return i;
+            }
+        }
+        return data.length;
+    }
+}
@@ -1,9 +1,11 @@
 package org.aston.learning.stage2.event;
 
 import java.time.LocalDateTime;
+import java.util.UUID;
 
 public class UserEvent {
-    private String eventType; // USER_CREATED, USER_DELETED
+    private String eventId; // Optional, producers that set it get exact duplicate detection
+    private String eventType; // One of UserEventType, kept as a String so unknown types still deserialize
     private String email;
     private String userName;
     private LocalDateTime timestamp;
@@ -12,6 +14,7 @@ public class UserEvent {
     public UserEvent() {}
 
     public UserEvent(String eventType, String email, String userName) {
+        this.eventId = UUID.randomUUID().toString();
         this.eventType = eventType;
         this.email = email;
         this.userName = userName;
@@ -19,6 +22,14 @@ public class UserEvent {
     }
 
     // Getters and setters
+    public String getEventId() {
+        return eventId;
+    }
+
+    public void setEventId(String eventId) {
+        this.eventId = eventId;
+    }
+
     public String getEventType() {
         return eventType;
     }
@@ -54,7 +65,8 @@ public class UserEvent {
     @Override
     public String toString() {
         return "UserEvent{" +
-                "eventType='" + eventType + '\'' +
+                "eventId='" + eventId + '\'' +
+                ", eventType='" + eventType + '\'' +
                 ", email='" + email + '\'' +
                 ", userName='" + userName + '\'' +
                 ", timestamp=" + timestamp +
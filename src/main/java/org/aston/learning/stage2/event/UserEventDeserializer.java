@@ -0,0 +1,220 @@
+package org.aston.learning.stage2.event;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+// Reads UserEvent JSON straight from the record bytes with the streaming parser: no type headers,
+// no reflective binding. Malformed records are logged and returned as null so the container skips them
+public class UserEventDeserializer implements Deserializer<UserEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserEventDeserializer.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Counter malformedCounter;
+    private final Timer parsedTimer;
+    private final Timer malformedTimer;
+    private final Timer filteredTimer;
+    private final EventTypeFilter filter;
+
+    public UserEventDeserializer(MeterRegistry meterRegistry) {
+        this(meterRegistry, null);
+    }
+
+    // Records rejected by the filter are returned as null without being parsed
+    public UserEventDeserializer(MeterRegistry meterRegistry, EventTypeFilter filter) {
+        this.malformedCounter = Counter.builder("notification.events.malformed")
+                .description("User event records that could not be parsed and were skipped")
+                .register(meterRegistry);
+        this.parsedTimer = deserializeTimer(meterRegistry, "parsed");
+        this.malformedTimer = deserializeTimer(meterRegistry, "malformed");
+        this.filteredTimer = deserializeTimer(meterRegistry, "filtered");
+        this.filter = filter;
+    }
+
+    private static Timer deserializeTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("notification.deserialize")
+                .description("Time to turn a record value into a UserEvent")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100))
+                .maximumExpectedValue(Duration.ofMillis(10))
+                .register(meterRegistry);
+    }
+
+    @Override
+    public UserEvent deserialize(String topic, Headers headers, byte[] data) {
+        if (filter != null) {
+            long start = System.nanoTime();
+            if (!filter.accepts(headers, data)) {
+                filteredTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return null;
+            }
+        }
+        return deserialize(topic, data);
+    }
+
+    @Override
+    public UserEvent deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            UserEvent event = readEvent(parser);
+            parsedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return event;
+        } catch (IOException | RuntimeException e) {
+            malformedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            malformedCounter.increment();
+            logger.warn("Skipping malformed user event on topic {} ({} bytes): {}", topic, data.length, e.getMessage());
+            return null;
+        }
+    }
+
+    private UserEvent readEvent(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object");
+        }
+
+        UserEvent event = new UserEvent();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "eventId" -> event.setEventId(readText(parser, value));
+                case "eventType" -> event.setEventType(readText(parser, value));
+                case "email" -> event.setEmail(readText(parser, value));
+                case "userName" -> event.setUserName(readText(parser, value));
+                case "timestamp" -> event.setTimestamp(readTimestamp(parser, value));
+                default -> parser.skipChildren();
+            }
+        }
+
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Unterminated JSON object");
+        }
+        return event;
+    }
+
+    private String readText(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a string for " + parser.currentName());
+        }
+        return parser.getText();
+    }
+
+    // Jackson writes LocalDateTime either as [y,M,d,H,m,s,nanos] or as an ISO-8601 string
+    private LocalDateTime readTimestamp(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            return parseIsoTimestamp(parser.getText());
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected an array or a string for timestamp");
+        }
+
+        int[] parts = new int[7];
+        int count = 0;
+        while (parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+            if (count == parts.length) {
+                throw new JsonParseException(parser, "Too many timestamp components");
+            }
+            parts[count++] = parser.getIntValue();
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY || count < 5) {
+            throw new JsonParseException(parser, "Invalid timestamp array");
+        }
+        return LocalDateTime.of(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5], parts[6]);
+    }
+
+    // Hand-rolled for the yyyy-MM-ddTHH:mm[:ss[.fffffffff]] shape; anything else goes through java.time
+    static LocalDateTime parseIsoTimestamp(String text) {
+        int length = text.length();
+        if (length < 16 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':') {
+            return parseWithJavaTime(text);
+        }
+
+        try {
+            int year = digits(text, 0, 4);
+            int month = digits(text, 5, 7);
+            int day = digits(text, 8, 10);
+            int hour = digits(text, 11, 13);
+            int minute = digits(text, 14, 16);
+            int second = 0;
+            int nanos = 0;
+
+            int position = 16;
+            if (position < length) {
+                if (text.charAt(position) != ':' || length < position + 3) {
+                    return parseWithJavaTime(text);
+                }
+                second = digits(text, position + 1, position + 3);
+                position += 3;
+            }
+            if (position < length) {
+                int fractionDigits = length - position - 1;
+                if (text.charAt(position) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+                    return parseWithJavaTime(text);
+                }
+                nanos = digits(text, position + 1, length);
+                for (int i = fractionDigits; i < 9; i++) {
+                    nanos *= 10;
+                }
+            }
+            return LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+        } catch (NumberFormatException e) {
+            // e.g. a fraction followed by Z or an offset
+            return parseWithJavaTime(text);
+        }
+    }
+
+    // Timestamps with a zone offset or Z are converted to UTC, as Jackson does for LocalDateTime
+    private static LocalDateTime parseWithJavaTime(String text) {
+        try {
+            return LocalDateTime.parse(text);
+        } catch (DateTimeParseException e) {
+            try {
+                return OffsetDateTime.parse(text).withOffsetSameInstant(ZoneOffset.UTC).toLocalDateTime();
+            } catch (DateTimeParseException ignored) {
+                throw e;
+            }
+        }
+    }
+
+    private static int digits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a digit at " + i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,24 @@
+package org.aston.learning.stage2.event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public enum UserEventType {
+    USER_CREATED,
+    USER_DELETED,
+    PASSWORD_RESET,
+    EMAIL_CHANGED;
+
+    private static final Map<String, UserEventType> BY_NAME = new HashMap<>();
+
+    static {
+        for (UserEventType type : values()) {
+            BY_NAME.put(type.name(), type);
+        }
+    }
+
+    // Unlike valueOf, returns null for unknown types instead of throwing
+    public static UserEventType fromValue(String value) {
+        return value != null ? BY_NAME.get(value) : null;
+    }
+}
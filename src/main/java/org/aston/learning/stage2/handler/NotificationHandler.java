@@ -0,0 +1,13 @@
+package org.aston.learning.stage2.handler;
+
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.event.UserEventType;
+import org.springframework.mail.SimpleMailMessage;
+
+// One bean per event type; NotificationHandlerRegistry picks them all up at startup
+public interface NotificationHandler {
+
+    UserEventType getEventType();
+
+    SimpleMailMessage createMessage(UserEvent event);
+}
@@ -0,0 +1,151 @@
+package org.aston.learning.stage2.handler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.DeliveryStatus;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.event.UserEventType;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxJournal;
+import org.aston.learning.stage2.service.EmailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Dispatch table built once from all NotificationHandler beans; lookups are an EnumMap array index
+@Component
+public class NotificationHandlerRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationHandlerRegistry.class);
+
+    @Autowired
+    private List<NotificationHandler> handlers;
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private NotificationMetrics metrics;
+
+    @Autowired
+    private OutboxJournal outbox;
+
+    private final EnumMap<UserEventType, RegisteredHandler> dispatchTable = new EnumMap<>(UserEventType.class);
+    private Counter unknownCounter;
+
+    @PostConstruct
+    public void init() {
+        for (NotificationHandler handler : handlers) {
+            UserEventType type = handler.getEventType();
+            Timer timer = Timer.builder("notification.handler.duration")
+                    .description("Time to build and send the email for an event")
+                    .tag("eventType", type.name())
+                    .register(meterRegistry);
+            Counter errors = Counter.builder("notification.handler.errors")
+                    .description("Events whose email could not be built or sent")
+                    .tag("eventType", type.name())
+                    .register(meterRegistry);
+
+            RegisteredHandler previous = dispatchTable.put(type, new RegisteredHandler(handler, timer, errors));
+            if (previous != null) {
+                throw new IllegalStateException("Several notification handlers registered for event type " + type
+                        + ": " + previous.handler().getClass().getName() + ", " + handler.getClass().getName());
+            }
+        }
+
+        unknownCounter = Counter.builder("notification.events.unknown")
+                .description("Events without a registered notification handler")
+                .register(meterRegistry);
+
+        EnumSet<UserEventType> unhandled = EnumSet.allOf(UserEventType.class);
+        unhandled.removeAll(dispatchTable.keySet());
+        logger.info("Notification handlers registered for: {}", dispatchTable.keySet());
+        if (!unhandled.isEmpty()) {
+            logger.warn("No notification handler registered for: {}", unhandled);
+        }
+    }
+
+    public Set<UserEventType> getHandledTypes() {
+        return Collections.unmodifiableSet(dispatchTable.keySet());
+    }
+
+    // Returns false when there is no handler for the event type; rethrows delivery failures for retry
+    public boolean dispatch(UserEvent event) {
+        RegisteredHandler registered = resolve(event);
+        if (registered == null) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            NotificationHandler handler = registered.handler();
+            SimpleMailMessage message = handler.createMessage(event);
+            if (outbox.isEnabled()) {
+                // The listener returns, and the offset is committed, as soon as the email is in the journal
+                DeliveryHandle handle = emailService.sendEmailAsync(message, handler.getEventType().name());
+                if (handle.getStatus() == DeliveryStatus.FAILED) {
+                    throw new IllegalStateException("Failed to queue email: " + handle.getFailureReason());
+                }
+                logger.info("Queued {} email to: {}", event.getEventType(), event.getEmail());
+                return true;
+            }
+
+            emailService.sendEmail(message, handler.getEventType().name());
+            logger.info("Successfully sent {} email to: {}", event.getEventType(), event.getEmail());
+            return true;
+        } catch (RuntimeException e) {
+            registered.errors().increment();
+            logger.error("Failed to send {} email to: {}", event.getEventType(), event.getEmail(), e);
+            throw e;
+        } finally {
+            registered.timer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Builds the email without sending it, for callers that deliver a whole batch at once
+    public SimpleMailMessage createMessage(UserEvent event) {
+        RegisteredHandler registered = resolve(event);
+        if (registered == null) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return registered.handler().createMessage(event);
+        } catch (RuntimeException e) {
+            registered.errors().increment();
+            throw e;
+        } finally {
+            registered.timer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private RegisteredHandler resolve(UserEvent event) {
+        UserEventType type = UserEventType.fromValue(event.getEventType());
+        RegisteredHandler registered = type != null ? dispatchTable.get(type) : null;
+        if (registered == null) {
+            unknownCounter.increment();
+            metrics.countSkipped(NotificationMetrics.TYPE_UNKNOWN);
+            logger.warn("No action taken for unknown event type: {} for user: {}", event.getEventType(), event.getEmail());
+        }
+        return registered;
+    }
+
+    private record RegisteredHandler(NotificationHandler handler, Timer timer, Counter errors) {
+    }
+}
@@ -0,0 +1,25 @@
+package org.aston.learning.stage2.handler;
+
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.event.UserEventType;
+import org.aston.learning.stage2.service.EmailService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PasswordResetHandler implements NotificationHandler {
+
+    @Autowired
+    private EmailService emailService;
+
+    @Override
+    public UserEventType getEventType() {
+        return UserEventType.PASSWORD_RESET;
+    }
+
+    @Override
+    public SimpleMailMessage createMessage(UserEvent event) {
+        return emailService.createPasswordResetEmail(event.getEmail(), event.getUserName());
+    }
+}
@@ -0,0 +1,96 @@
+package org.aston.learning.stage2.mail;
+
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// JavaMailSenderImpl that reuses pooled SMTP connections instead of connecting for every send call
+public class PooledJavaMailSender extends JavaMailSenderImpl implements DisposableBean {
+
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+    private final SmtpConnectionPool pool;
+
+    public PooledJavaMailSender(int maxConnections, int maxMessagesPerConnection, long maxIdleMs, long maxWaitMs,
+                                boolean validateOnBorrow) {
+        this.pool = new SmtpConnectionPool(this::connectTransport, maxConnections, maxMessagesPerConnection,
+                maxIdleMs, maxWaitMs, validateOnBorrow);
+    }
+
+    public SmtpConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        PooledTransport pooled = null;
+
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                if (pooled == null) {
+                    try {
+                        pooled = pool.borrow();
+                    } catch (AuthenticationFailedException e) {
+                        throw new MailAuthenticationException(e);
+                    } catch (Exception e) {
+                        for (int j = i; j < mimeMessages.length; j++) {
+                            failedMessages.put(originalMessages != null ? originalMessages[j] : mimeMessages[j], e);
+                        }
+                        throw new MailSendException("Mail server connection failed", e, failedMessages);
+                    }
+                }
+
+                MimeMessage mimeMessage = mimeMessages[i];
+                long start = System.nanoTime();
+                try {
+                    send(pooled, mimeMessage);
+                    pool.recordSend(System.nanoTime() - start, true);
+                } catch (Exception e) {
+                    pool.recordSend(System.nanoTime() - start, false);
+                    failedMessages.put(originalMessages != null ? originalMessages[i] : mimeMessage, e);
+                    // The connection state is unknown after a failure, so don't hand it out again
+                    pool.release(pooled, true);
+                    pooled = null;
+                }
+            }
+        } finally {
+            if (pooled != null) {
+                pool.release(pooled, false);
+            }
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.close();
+    }
+
+    private void send(PooledTransport pooled, MimeMessage mimeMessage) throws MessagingException {
+        if (mimeMessage.getSentDate() == null) {
+            mimeMessage.setSentDate(new Date());
+        }
+        String messageId = mimeMessage.getMessageID();
+        mimeMessage.saveChanges();
+        if (messageId != null) {
+            mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+        }
+        Address[] addresses = mimeMessage.getAllRecipients();
+        pooled.getTransport().sendMessage(mimeMessage, addresses != null ? addresses : new Address[0]);
+        pooled.messageSent();
+    }
+}
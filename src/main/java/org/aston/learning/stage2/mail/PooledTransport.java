@@ -0,0 +1,41 @@
+package org.aston.learning.stage2.mail;
+
+import jakarta.mail.Transport;
+
+class PooledTransport {
+
+    private final Transport transport;
+    private final long createdAt;
+    private long lastUsedAt;
+    private int messagesSent;
+
+    PooledTransport(Transport transport, long now) {
+        this.transport = transport;
+        this.createdAt = now;
+        this.lastUsedAt = now;
+    }
+
+    Transport getTransport() {
+        return transport;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    int getMessagesSent() {
+        return messagesSent;
+    }
+
+    void messageSent() {
+        messagesSent++;
+    }
+
+    void touch(long now) {
+        lastUsedAt = now;
+    }
+}
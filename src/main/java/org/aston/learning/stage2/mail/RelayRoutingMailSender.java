@@ -0,0 +1,435 @@
+package org.aston.learning.stage2.mail;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.aston.learning.stage2.ratelimit.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Spreads sends over several SMTP relays. A relay is picked with a probability proportional to its success
+// rate divided by its latency, both exponentially weighted, so a slow or failing relay loses traffic without
+// a manual weight. A relay that fails several sends in a row is ejected for a while (twice as long on every
+// repeat, up to 8x) and taken back when the ejection has passed or a health probe reaches it again.
+// A relay with a send quota is skipped while its quota is used up, as long as another relay has room
+public class RelayRoutingMailSender implements JavaMailSender, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RelayRoutingMailSender.class);
+
+    private static final double SMOOTHING = 0.2;
+    // Keeps a struggling relay in the draw so its success rate can recover
+    private static final double MIN_SUCCESS_RATE = 0.05;
+    private static final int MAX_EJECTION_MULTIPLIER = 8;
+
+    private final List<Relay> relays;
+    private final int ejectAfterFailures;
+    private final long ejectionNanos;
+    private final boolean stickyDomains;
+
+    public RelayRoutingMailSender(List<Relay> relays, int ejectAfterFailures, long ejectionMs, boolean stickyDomains) {
+        if (relays.isEmpty()) {
+            throw new IllegalArgumentException("At least one SMTP relay is required");
+        }
+        this.relays = List.copyOf(relays);
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMs);
+        this.stickyDomains = stickyDomains;
+    }
+
+    public List<Relay> getRelays() {
+        return relays;
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        for (Relay relay : relays) {
+            Gauge.builder("smtp.relay.latency", relay, Relay::getLatencyMs)
+                    .description("Exponentially weighted SMTP send latency used for routing")
+                    .baseUnit("milliseconds")
+                    .tag("relay", relay.getName()).register(registry);
+            Gauge.builder("smtp.relay.success.rate", relay, Relay::getSuccessRate)
+                    .description("Exponentially weighted share of successful sends used for routing")
+                    .tag("relay", relay.getName()).register(registry);
+            Gauge.builder("smtp.relay.ejected", relay, r -> r.isEjected(System.nanoTime()) ? 1 : 0)
+                    .description("1 while the relay is taken out of rotation")
+                    .tag("relay", relay.getName()).register(registry);
+            relay.ejections = Counter.builder("smtp.relay.ejections")
+                    .description("Times the relay was taken out of rotation")
+                    .tag("relay", relay.getName()).register(registry);
+        }
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return relays.get(0).getSender().createMimeMessage();
+    }
+
+    @Override
+    public MimeMessage createMimeMessage(InputStream contentStream) throws MailException {
+        return relays.get(0).getSender().createMimeMessage(contentStream);
+    }
+
+    @Override
+    public void send(SimpleMailMessage... simpleMessages) throws MailException {
+        dispatch(Arrays.asList(simpleMessages), message -> firstRecipient(message.getTo()),
+                (sender, batch) -> sender.send(batch.toArray(new SimpleMailMessage[0])));
+    }
+
+    @Override
+    public void send(MimeMessage... mimeMessages) throws MailException {
+        dispatch(Arrays.asList(mimeMessages), this::firstRecipient,
+                (sender, batch) -> sender.send(batch.toArray(new MimeMessage[0])));
+    }
+
+    // Checks every relay; reachable ones go back into rotation, unreachable ones are ejected.
+    // Fails only when no relay answered. A pooled relay is probed without waiting for a free connection,
+    // so only a failed connect or NOOP ejects it, never a relay that is merely busy
+    public void probe() throws MessagingException {
+        MessagingException lastFailure = null;
+        boolean reachable = false;
+        for (Relay relay : relays) {
+            try {
+                JavaMailSenderImpl sender = relay.getSender();
+                if (sender instanceof PooledJavaMailSender pooled) {
+                    pooled.getPool().probe();
+                } else {
+                    sender.testConnection();
+                }
+                relay.reinstate();
+                reachable = true;
+            } catch (MessagingException e) {
+                eject(relay, System.nanoTime(), e.getMessage());
+                lastFailure = e;
+            }
+        }
+        if (!reachable) {
+            throw lastFailure;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (Relay relay : relays) {
+            if (relay.getSender() instanceof DisposableBean disposable) {
+                try {
+                    disposable.destroy();
+                } catch (Exception e) {
+                    logger.warn("Failed to close SMTP relay {}", relay.getName(), e);
+                }
+            }
+        }
+    }
+
+    Relay route(String recipient) {
+        long now = System.nanoTime();
+        List<Relay> available = new ArrayList<>(relays.size());
+        for (Relay relay : relays) {
+            if (!relay.isEjected(now)) {
+                available.add(relay);
+            }
+        }
+        if (available.isEmpty()) {
+            // Every relay is ejected; trying the one due back first beats failing without a connection attempt
+            Relay soonest = relays.get(0);
+            for (Relay relay : relays) {
+                if (relay.ejectedUntil - soonest.ejectedUntil < 0) {
+                    soonest = relay;
+                }
+            }
+            return soonest;
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+
+        String domain = domainOf(recipient);
+        if (stickyDomains && domain != null) {
+            // The domain stays on its relay even over quota; SendRateLimiter still caps the total rate
+            Relay sticky = rendezvous(available, domain);
+            sticky.tryAcquire(now);
+            return sticky;
+        }
+
+        List<Relay> candidates = new ArrayList<>(available);
+        while (!candidates.isEmpty()) {
+            Relay relay = weighted(candidates);
+            if (relay.tryAcquire(now)) {
+                return relay;
+            }
+            candidates.remove(relay);
+        }
+        // Every relay is at its quota; SendRateLimiter defers sends before this happens for long
+        return weighted(available);
+    }
+
+    // A batch shares one relay, and so one SMTP session, until that relay's quota runs out or sticky routing
+    // sends its domains apart; every message takes its own permit
+    private <T> void dispatch(List<T> messages, Function<T, String> recipient, BiConsumer<JavaMailSender, List<T>> send) {
+        Map<Relay, List<T>> byRelay = new LinkedHashMap<>();
+        if (stickyDomains) {
+            for (T message : messages) {
+                byRelay.computeIfAbsent(route(recipient.apply(message)), relay -> new ArrayList<>()).add(message);
+            }
+        } else {
+            int from = 0;
+            while (from < messages.size()) {
+                Relay relay = route(recipient.apply(messages.get(from)));
+                int to = from + 1;
+                long now = System.nanoTime();
+                while (to < messages.size() && relay.tryAcquire(now)) {
+                    to++;
+                }
+                byRelay.computeIfAbsent(relay, r -> new ArrayList<>()).addAll(messages.subList(from, to));
+                from = to;
+            }
+        }
+
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        MailException lastFailure = null;
+        for (Map.Entry<Relay, List<T>> entry : byRelay.entrySet()) {
+            Relay relay = entry.getKey();
+            List<T> batch = entry.getValue();
+            long start = System.nanoTime();
+            try {
+                send.accept(relay.getSender(), batch);
+                record(relay, System.nanoTime() - start, true);
+            } catch (MailSendException e) {
+                // Refused recipients are not the relay's fault; only count it when nothing got through
+                boolean relayFailed = e.getFailedMessages().isEmpty() || e.getFailedMessages().size() >= batch.size();
+                record(relay, System.nanoTime() - start, !relayFailed);
+                if (e.getFailedMessages().isEmpty()) {
+                    batch.forEach(message -> failedMessages.put(message, e));
+                } else {
+                    failedMessages.putAll(e.getFailedMessages());
+                }
+                lastFailure = e;
+            } catch (MailAuthenticationException e) {
+                record(relay, System.nanoTime() - start, false);
+                batch.forEach(message -> failedMessages.put(message, e));
+                lastFailure = e;
+            } catch (MailException e) {
+                // The message could not be prepared; says nothing about the relay
+                batch.forEach(message -> failedMessages.put(message, e));
+                lastFailure = e;
+            }
+        }
+
+        if (lastFailure != null) {
+            // One relay: keep the sender's own exception so callers see the same failure as without routing
+            throw byRelay.size() == 1 ? lastFailure : new MailSendException(failedMessages);
+        }
+    }
+
+    private void record(Relay relay, long nanos, boolean success) {
+        long now = System.nanoTime();
+        int consecutiveFailures;
+        synchronized (relay) {
+            double latency = nanos;
+            relay.latencyNanos = Double.isNaN(relay.latencyNanos)
+                    ? latency
+                    : relay.latencyNanos + SMOOTHING * (latency - relay.latencyNanos);
+            relay.successRate += SMOOTHING * ((success ? 1.0 : 0.0) - relay.successRate);
+            if (success) {
+                relay.consecutiveFailures = 0;
+                relay.ejectionCount = 0;
+                return;
+            }
+            consecutiveFailures = ++relay.consecutiveFailures;
+        }
+        if (consecutiveFailures >= ejectAfterFailures) {
+            eject(relay, now, consecutiveFailures + " failed sends in a row");
+        }
+    }
+
+    private void eject(Relay relay, long now, String reason) {
+        long until;
+        synchronized (relay) {
+            if (relay.isEjected(now)) {
+                return;
+            }
+            relay.ejectionCount++;
+            long multiplier = Math.min(1L << Math.min(relay.ejectionCount - 1, 30), MAX_EJECTION_MULTIPLIER);
+            until = now + ejectionNanos * multiplier;
+            // 0 marks a relay in rotation
+            relay.ejectedUntil = until == 0 ? 1 : until;
+            relay.consecutiveFailures = 0;
+        }
+        if (relay.ejections != null) {
+            relay.ejections.increment();
+        }
+        logger.warn("Ejected SMTP relay {} for {} ms: {}", relay.getName(),
+                TimeUnit.NANOSECONDS.toMillis(until - now), reason);
+    }
+
+    private Relay weighted(List<Relay> available) {
+        // Relays without a measurement yet are assumed as fast as the fastest one, so they get tried
+        double fastest = Double.NaN;
+        for (Relay relay : available) {
+            double latency = relay.latencyNanos;
+            if (!Double.isNaN(latency) && (Double.isNaN(fastest) || latency < fastest)) {
+                fastest = latency;
+            }
+        }
+
+        double[] weights = new double[available.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            Relay relay = available.get(i);
+            double latency = Double.isNaN(relay.latencyNanos) ? fastest : relay.latencyNanos;
+            double nanos = Double.isNaN(latency) ? 1 : Math.max(1, latency);
+            weights[i] = Math.max(MIN_SUCCESS_RATE, relay.successRate) / nanos;
+            total += weights[i];
+        }
+
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return available.get(i);
+            }
+        }
+        return available.get(available.size() - 1);
+    }
+
+    // Highest random weight hashing: a domain stays on its relay while that relay is in rotation, and only
+    // the domains of an ejected relay move
+    private static Relay rendezvous(List<Relay> available, String domain) {
+        Relay selected = null;
+        long best = Long.MIN_VALUE;
+        for (Relay relay : available) {
+            long score = mix(relay.getName().hashCode() * 31L + domain.hashCode());
+            if (selected == null || score > best) {
+                selected = relay;
+                best = score;
+            }
+        }
+        return selected;
+    }
+
+    // SplitMix64 finalizer, spreads the combined hash codes over the whole long range
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private String firstRecipient(String[] to) {
+        return to != null && to.length > 0 ? to[0] : null;
+    }
+
+    private String firstRecipient(MimeMessage message) {
+        try {
+            Address[] recipients = message.getAllRecipients();
+            if (recipients != null && recipients.length > 0 && recipients[0] instanceof InternetAddress address) {
+                return address.getAddress();
+            }
+        } catch (MessagingException e) {
+            logger.debug("Could not read recipients for routing", e);
+        }
+        return null;
+    }
+
+    private static String domainOf(String recipient) {
+        if (recipient == null) {
+            return null;
+        }
+        int at = recipient.lastIndexOf('@');
+        return at >= 0 ? recipient.substring(at + 1).toLowerCase(Locale.ROOT) : null;
+    }
+
+    public static final class Relay {
+        private final String name;
+        private final JavaMailSenderImpl sender;
+        private final TokenBucket quota;
+        // Guarded by this
+        private double latencyNanos = Double.NaN;
+        private double successRate = 1.0;
+        private int consecutiveFailures;
+        private int ejectionCount;
+        private volatile long ejectedUntil;
+        private Counter ejections;
+
+        public Relay(String name, JavaMailSenderImpl sender) {
+            this(name, sender, null);
+        }
+
+        // quota may be null for a relay without a send rate limit
+        public Relay(String name, JavaMailSenderImpl sender, TokenBucket quota) {
+            this.name = name;
+            this.sender = sender;
+            this.quota = quota;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public JavaMailSenderImpl getSender() {
+            return sender;
+        }
+
+        public synchronized double getLatencyMs() {
+            return Double.isNaN(latencyNanos) ? 0 : latencyNanos / 1_000_000.0;
+        }
+
+        public synchronized double getSuccessRate() {
+            return successRate;
+        }
+
+        boolean tryAcquire(long now) {
+            return quota == null || quota.tryAcquire(now) == 0;
+        }
+
+        // Puts the relay back into rotation once its ejection has passed, with a clean record: the
+        // numbers that got it ejected are stale by then
+        public boolean isEjected(long now) {
+            long until = ejectedUntil;
+            if (until == 0) {
+                return false;
+            }
+            if (now - until < 0) {
+                return true;
+            }
+            reinstate();
+            return false;
+        }
+
+        private synchronized void reinstate() {
+            if (ejectedUntil == 0) {
+                return;
+            }
+            ejectedUntil = 0;
+            latencyNanos = Double.NaN;
+            successRate = 1.0;
+            consecutiveFailures = 0;
+            logger.info("SMTP relay {} is back in rotation", name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package org.aston.learning.stage2.mail;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps authenticated SMTP transports open between sends and hands them out one caller at a time
+public class SmtpConnectionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmtpConnectionPool.class);
+
+    @FunctionalInterface
+    public interface TransportFactory {
+        Transport connect() throws MessagingException;
+    }
+
+    private final TransportFactory transportFactory;
+    private final int maxConnections;
+    private final int maxMessagesPerConnection;
+    private final long maxIdleMs;
+    private final long maxWaitMs;
+    private final boolean validateOnBorrow;
+
+    private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    private volatile boolean closed;
+
+    // Set by bindTo; SMTP stages stay untimed for pools without a registry
+    private volatile Timer connectSuccessTimer;
+    private volatile Timer connectFailureTimer;
+    private volatile Timer sendSuccessTimer;
+    private volatile Timer sendFailureTimer;
+
+    public SmtpConnectionPool(TransportFactory transportFactory, int maxConnections, int maxMessagesPerConnection,
+                              long maxIdleMs, long maxWaitMs, boolean validateOnBorrow) {
+        this.transportFactory = transportFactory;
+        this.maxConnections = maxConnections;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.maxIdleMs = maxIdleMs;
+        this.maxWaitMs = maxWaitMs;
+        this.validateOnBorrow = validateOnBorrow;
+        this.permits = new Semaphore(maxConnections, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriod = Math.max(1000, maxIdleMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    public void bindTo(MeterRegistry registry, String relay) {
+        Gauge.builder("smtp.pool.connections.active", this, SmtpConnectionPool::getActiveCount)
+                .tag("relay", relay).register(registry);
+        Gauge.builder("smtp.pool.connections.idle", this, SmtpConnectionPool::getIdleCount)
+                .tag("relay", relay).register(registry);
+        FunctionCounter.builder("smtp.pool.connections.created", this, SmtpConnectionPool::getCreatedCount)
+                .tag("relay", relay).register(registry);
+        FunctionCounter.builder("smtp.pool.connections.destroyed", this, SmtpConnectionPool::getDestroyedCount)
+                .tag("relay", relay).register(registry);
+        FunctionCounter.builder("smtp.pool.borrows", this, SmtpConnectionPool::getBorrowedCount)
+                .tag("relay", relay).register(registry);
+        FunctionCounter.builder("smtp.pool.validation.failures", this, SmtpConnectionPool::getValidationFailureCount)
+                .tag("relay", relay).register(registry);
+
+        connectSuccessTimer = smtpTimer(registry, "smtp.connect", relay, "success");
+        connectFailureTimer = smtpTimer(registry, "smtp.connect", relay, "failure");
+        sendSuccessTimer = smtpTimer(registry, "smtp.send", relay, "success");
+        sendFailureTimer = smtpTimer(registry, "smtp.send", relay, "failure");
+    }
+
+    private static Timer smtpTimer(MeterRegistry registry, String name, String relay, String outcome) {
+        return Timer.builder(name)
+                .tags("relay", relay, "outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    // Time spent in the SMTP DATA exchange for one message
+    void recordSend(long durationNanos, boolean success) {
+        Timer timer = success ? sendSuccessTimer : sendFailureTimer;
+        if (timer != null) {
+            timer.record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    PooledTransport borrow() throws MessagingException {
+        if (closed) {
+            throw new MessagingException("SMTP connection pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("Timed out after " + maxWaitMs + " ms waiting for an SMTP connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+        return takeIdleOrConnect();
+    }
+
+    // The caller holds a permit, which is given back if no connection can be handed out
+    private PooledTransport takeIdleOrConnect() throws MessagingException {
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isReusable(pooled, System.currentTimeMillis())) {
+                    borrowed.incrementAndGet();
+                    return pooled;
+                }
+                destroy(pooled);
+            }
+
+            pooled = new PooledTransport(connect(), System.currentTimeMillis());
+            created.incrementAndGet();
+            borrowed.incrementAndGet();
+            logger.debug("Opened new SMTP connection ({} active)", getActiveCount());
+            return pooled;
+
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Transport connect() throws MessagingException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Transport transport = transportFactory.connect();
+            success = true;
+            return transport;
+        } finally {
+            Timer timer = success ? connectSuccessTimer : connectFailureTimer;
+            if (timer != null) {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    void release(PooledTransport pooled, boolean broken) {
+        try {
+            long now = System.currentTimeMillis();
+            if (broken || closed || pooled.getMessagesSent() >= maxMessagesPerConnection) {
+                destroy(pooled);
+            } else {
+                pooled.touch(now);
+                // LIFO keeps the most recently used connections warm and lets the rest age out
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Health probe: a NOOP on a pooled connection, or a fresh connect when none is idle (that one stays pooled).
+    // When every connection is busy the probe does not queue behind the sends, which would make a relay under
+    // load look unreachable; it opens a short-lived connection of its own instead
+    public void probe() throws MessagingException {
+        if (closed) {
+            throw new MessagingException("SMTP connection pool is closed");
+        }
+        if (!permits.tryAcquire()) {
+            Transport transport = connect();
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                logger.debug("Failed to close SMTP probe connection cleanly", e);
+            }
+            return;
+        }
+
+        PooledTransport pooled = takeIdleOrConnect();
+        boolean broken = true;
+        try {
+            // A validating pool already sent the NOOP in borrow()
+            if (!validateOnBorrow && !pooled.getTransport().isConnected()) {
+                throw new MessagingException("SMTP server did not answer NOOP");
+            }
+            broken = false;
+        } finally {
+            release(pooled, broken);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    public int getActiveCount() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyed.get();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        int size = idle.size();
+        for (int i = 0; i < size; i++) {
+            PooledTransport pooled = idle.pollLast();
+            if (pooled == null) {
+                return;
+            }
+            if (now - pooled.getLastUsedAt() >= maxIdleMs) {
+                destroy(pooled);
+            } else {
+                idle.offerLast(pooled);
+            }
+        }
+    }
+
+    private boolean isReusable(PooledTransport pooled, long now) {
+        if (now - pooled.getLastUsedAt() >= maxIdleMs || pooled.getMessagesSent() >= maxMessagesPerConnection) {
+            return false;
+        }
+        // For SMTP, isConnected() issues a NOOP and verifies the server still answers
+        if (validateOnBorrow && !pooled.getTransport().isConnected()) {
+            validationFailures.incrementAndGet();
+            logger.debug("Discarding stale SMTP connection");
+            return false;
+        }
+        return true;
+    }
+
+    private void destroy(PooledTransport pooled) {
+        destroyed.incrementAndGet();
+        try {
+            pooled.getTransport().close();
+        } catch (MessagingException e) {
+            logger.debug("Failed to close SMTP connection cleanly", e);
+        }
+    }
+}
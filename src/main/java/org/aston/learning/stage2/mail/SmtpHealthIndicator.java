@@ -0,0 +1,120 @@
+package org.aston.learning.stage2.mail;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Probes the SMTP relay on its own thread and serves the last result, so health checks never wait on SMTP.
+// A result older than the TTL (e.g. the probe is stuck on an unanswered connect) is reported as DOWN.
+// With several relays it is UP while any of them answers, and each probe ejects or reinstates relays.
+@Component
+public class SmtpHealthIndicator implements HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmtpHealthIndicator.class);
+
+    @Autowired
+    private JavaMailSender mailSender;
+
+    @Value("${app.mail.health.interval-ms:30000}")
+    private long intervalMs;
+
+    @Value("${app.mail.health.ttl-ms:90000}")
+    private long ttlMs;
+
+    private volatile ProbeResult lastResult;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::probe, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public Health health() {
+        ProbeResult result = lastResult;
+        if (result == null) {
+            return Health.unknown().withDetail("reason", "SMTP probe has not completed yet").build();
+        }
+
+        long age = System.currentTimeMillis() - result.checkedAt();
+        Health.Builder builder = age > ttlMs
+                ? Health.down().withDetail("reason", "Last SMTP probe finished " + age + " ms ago")
+                : Health.status(result.status());
+        builder.withDetail("relay", relay())
+                .withDetail("checkedAt", Instant.ofEpochMilli(result.checkedAt()).toString())
+                .withDetail("latencyMs", result.latencyMs());
+        if (result.error() != null) {
+            builder.withDetail("error", result.error());
+        }
+        return builder.build();
+    }
+
+    public Status getStatus() {
+        return health().getStatus();
+    }
+
+    void probe() {
+        long start = System.nanoTime();
+        Status status;
+        String error = null;
+        try {
+            if (mailSender instanceof RelayRoutingMailSender router) {
+                router.probe();
+            } else if (mailSender instanceof PooledJavaMailSender pooled) {
+                pooled.getPool().probe();
+            } else if (mailSender instanceof JavaMailSenderImpl sender) {
+                sender.testConnection();
+            }
+            status = Status.UP;
+        } catch (Exception e) {
+            status = Status.DOWN;
+            error = e.getMessage();
+        }
+
+        ProbeResult previous = lastResult;
+        lastResult = new ProbeResult(status, error, System.currentTimeMillis(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (previous == null || !previous.status().equals(status)) {
+            if (Status.UP.equals(status)) {
+                logger.info("SMTP relay {} is reachable", relay());
+            } else {
+                logger.warn("SMTP relay {} is unreachable: {}", relay(), error);
+            }
+        }
+    }
+
+    private String relay() {
+        if (mailSender instanceof RelayRoutingMailSender router) {
+            return router.getRelays().toString();
+        }
+        return mailSender instanceof JavaMailSenderImpl sender ? sender.getHost() + ":" + sender.getPort() : "unknown";
+    }
+
+    private record ProbeResult(Status status, String error, long checkedAt, long latencyMs) {
+    }
+}
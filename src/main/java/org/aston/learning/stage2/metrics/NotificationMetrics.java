@@ -0,0 +1,86 @@
+package org.aston.learning.stage2.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.event.UserEventType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// Pipeline stages that know the notification type. Meters are cached per tag combination so the hot path
+// only does a map lookup; SMTP connect/send and deserialization are timed where they happen
+@Component
+public class NotificationMetrics {
+
+    public static final String OUTCOME_SENT = "sent";
+    public static final String OUTCOME_FAILED = "failed";
+    public static final String OUTCOME_SKIPPED = "skipped";
+    public static final String TYPE_UNKNOWN = "UNKNOWN";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, Timer> renderTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> deliveryTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> messageCounters = new ConcurrentHashMap<>();
+
+    public void recordRender(String type, long durationNanos) {
+        renderTimers.computeIfAbsent(type, key -> Timer.builder("notification.render")
+                        .description("Time to render a notification template")
+                        .tag("type", key)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(1_000))
+                        .maximumExpectedValue(Duration.ofMillis(100))
+                        .register(meterRegistry))
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Time from handing a message to the mail sender until SMTP accepted or rejected it
+    public void recordDelivery(String type, boolean success, long durationNanos, int messages) {
+        String outcome = success ? OUTCOME_SENT : OUTCOME_FAILED;
+        deliveryTimers.computeIfAbsent(type + '|' + outcome, key -> Timer.builder("notification.delivery")
+                        .description("Time to deliver a notification to the SMTP relay")
+                        .tags("type", type, "outcome", outcome)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(1))
+                        .maximumExpectedValue(Duration.ofSeconds(30))
+                        .register(meterRegistry))
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        count(type, outcome, messages);
+    }
+
+    public void countSent(String type, int messages) {
+        count(type, OUTCOME_SENT, messages);
+    }
+
+    public void countFailed(String type, int messages) {
+        count(type, OUTCOME_FAILED, messages);
+    }
+
+    public void countSkipped(String type) {
+        count(type, OUTCOME_SKIPPED, 1);
+    }
+
+    // Raw event types come from producers, so anything outside UserEventType is folded into one tag value
+    public void countSkipped(UserEvent event) {
+        UserEventType type = UserEventType.fromValue(event.getEventType());
+        countSkipped(type != null ? type.name() : TYPE_UNKNOWN);
+    }
+
+    private void count(String type, String outcome, int messages) {
+        if (messages <= 0) {
+            return;
+        }
+        messageCounters.computeIfAbsent(type + '|' + outcome, key -> Counter.builder("notification.messages")
+                        .description("Notifications by type and outcome")
+                        .tags("type", type, "outcome", outcome)
+                        .register(meterRegistry))
+                .increment(messages);
+    }
+}
@@ -0,0 +1,7 @@
+package org.aston.learning.stage2.outbox;
+
+import org.springframework.mail.SimpleMailMessage;
+
+// An accepted notification read back from the journal; type tags the delivery metrics like in EmailService
+public record OutboxEntry(long id, String type, SimpleMailMessage message) {
+}
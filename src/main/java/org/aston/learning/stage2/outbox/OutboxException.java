@@ -0,0 +1,12 @@
+package org.aston.learning.stage2.outbox;
+
+public class OutboxException extends RuntimeException {
+
+    public OutboxException(String message) {
+        super(message);
+    }
+
+    public OutboxException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
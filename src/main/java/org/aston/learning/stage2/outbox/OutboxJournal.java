@@ -0,0 +1,459 @@
+package org.aston.learning.stage2.outbox;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Append-only journal of accepted notifications. Appends land in a memory-mapped segment and wait for
+// the flusher thread, which forces everything written since its last pass with a single msync, so
+// concurrent appends share one fsync. Acknowledgements are journaled without waiting; a lost one only
+// means the email is sent again after a crash
+@Component
+public class OutboxJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxJournal.class);
+
+    static final byte APPEND = 1;
+    static final byte ACK = 2;
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.outbox.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.outbox.directory:outbox}")
+    private String directory;
+
+    @Value("${app.outbox.segment-bytes:16777216}")
+    private int segmentBytes;
+
+    @Value("${app.outbox.commit-timeout-ms:5000}")
+    private long commitTimeoutMs;
+
+    // How long acknowledgements may sit in the page cache when no append triggers a flush
+    @Value("${app.outbox.ack-flush-interval-ms:1000}")
+    private long ackFlushIntervalMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushRequested = lock.newCondition();
+    // Everything below is guarded by lock
+    private final ArrayDeque<OutboxSegment> segments = new ArrayDeque<>();
+    private final Map<Long, OutboxSegment> unacknowledged = new HashMap<>();
+    private List<CompletableFuture<Void>> awaitingFlush = new ArrayList<>();
+    private List<OutboxEntry> recovered = new ArrayList<>();
+    private OutboxSegment active;
+    private int flushedPosition;
+    private long nextId = 1;
+    private boolean open;
+
+    private Thread flusher;
+    private Timer appendTimer;
+    private Timer flushTimer;
+    private DistributionSummary flushBatch;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        recover(dir);
+
+        appendTimer = Timer.builder("notification.outbox.append")
+                .description("Time from appending a notification until it is durable")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("notification.outbox.flush")
+                .description("Time spent forcing journal pages to disk")
+                .register(meterRegistry);
+        flushBatch = DistributionSummary.builder("notification.outbox.flush.batch")
+                .description("Appends made durable by a single flush")
+                .register(meterRegistry);
+        Gauge.builder("notification.outbox.pending", this, OutboxJournal::getPendingCount)
+                .description("Journaled notifications not yet acknowledged")
+                .register(meterRegistry);
+        Gauge.builder("notification.outbox.segments", this, OutboxJournal::getSegmentCount)
+                .description("Journal segment files on disk")
+                .register(meterRegistry);
+
+        open = true;
+        flusher = new Thread(this::runFlusher, "outbox-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        logger.info("Outbox journal opened in {}: {} segments, {} unsent notifications to replay",
+                dir.toAbsolutePath(), segments.size(), recovered.size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Blocks until the entry is on disk and returns its id; returns 0 when the journal is disabled
+    public long append(SimpleMailMessage message, String type) {
+        if (!enabled) {
+            return 0;
+        }
+
+        byte[] payload = encode(message, type);
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        long start = System.nanoTime();
+        long id;
+
+        lock.lock();
+        try {
+            if (!open) {
+                throw new OutboxException("Outbox journal is closed");
+            }
+            id = nextId++;
+            write(APPEND, id, payload);
+            unacknowledged.put(id, active);
+            active.addLive(1);
+            awaitingFlush.add(durable);
+            flushRequested.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        // The caller reports a failure and its sender retries, so a late flush must not replay the entry as well
+        try {
+            durable.get(commitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acknowledge(id);
+            throw new OutboxException("Interrupted while waiting for the outbox journal", e);
+        } catch (ExecutionException e) {
+            acknowledge(id);
+            throw new OutboxException("Failed to flush the outbox journal", e.getCause());
+        } catch (TimeoutException e) {
+            acknowledge(id);
+            throw new OutboxException("Outbox journal flush timed out after " + commitTimeoutMs + " ms", e);
+        }
+
+        appendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return id;
+    }
+
+    // Marks an entry as handled, delivered or not; repeated and unknown ids are ignored
+    public void acknowledge(long id) {
+        if (id <= 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+            OutboxSegment owner = unacknowledged.remove(id);
+            if (owner == null) {
+                return;
+            }
+            write(ACK, id, NO_PAYLOAD);
+            owner.addLive(-1);
+            compact();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Entries found unacknowledged at startup; handed out once for the replay
+    public List<OutboxEntry> takeRecovered() {
+        lock.lock();
+        try {
+            List<OutboxEntry> entries = recovered;
+            recovered = new ArrayList<>();
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return unacknowledged.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+            open = false;
+            flushRequested.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            flusher.join(commitTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            active.force(flushedPosition, active.getPosition());
+            for (OutboxSegment segment : segments) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close outbox journal segments", e);
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Outbox journal closed with {} unacknowledged notifications", unacknowledged.size());
+    }
+
+    private void recover(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(path -> segmentIndex(path) >= 0)
+                    .sorted((a, b) -> Long.compare(segmentIndex(a), segmentIndex(b)))
+                    .toList();
+        }
+
+        Map<Long, OutboxEntry> pending = new LinkedHashMap<>();
+        for (Path file : files) {
+            OutboxSegment segment = OutboxSegment.open(file, segmentIndex(file), segmentBytes);
+            segments.addLast(segment);
+            segment.recover((kind, id, payload) -> {
+                nextId = Math.max(nextId, id + 1);
+                if (kind == APPEND) {
+                    pending.put(id, decode(id, payload));
+                    unacknowledged.put(id, segment);
+                    segment.addLive(1);
+                } else if (kind == ACK && pending.remove(id) != null) {
+                    unacknowledged.remove(id).addLive(-1);
+                }
+            });
+        }
+
+        if (segments.isEmpty()) {
+            segments.addLast(OutboxSegment.open(segmentPath(dir, 0), 0, segmentBytes));
+        }
+        active = segments.peekLast();
+        flushedPosition = active.getPosition();
+        recovered = new ArrayList<>(pending.values());
+        compact();
+    }
+
+    private void write(byte kind, long id, byte[] payload) {
+        if (!active.hasRoom(payload.length)) {
+            if (OutboxSegment.RECORD_OVERHEAD + payload.length > segmentBytes) {
+                throw new OutboxException("Notification of " + payload.length
+                        + " bytes does not fit into an outbox segment of " + segmentBytes + " bytes");
+            }
+            roll();
+        }
+        active.write(kind, id, payload);
+    }
+
+    // Rolling is rare, so the old segment is forced right here; appends waiting on it are then
+    // completed by the flusher's next pass over the new segment
+    private void roll() {
+        active.force(flushedPosition, active.getPosition());
+        long index = active.getIndex() + 1;
+        try {
+            active = OutboxSegment.open(segmentPath(active.getPath().getParent(), index), index, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create outbox segment " + index, e);
+        }
+        segments.addLast(active);
+        flushedPosition = 0;
+    }
+
+    // Only whole segments from the head are removed, so an acknowledgement is never dropped
+    // while the entry it refers to is still on disk
+    private void compact() {
+        while (segments.size() > 1 && segments.peekFirst().getLive() == 0) {
+            OutboxSegment segment = segments.removeFirst();
+            try {
+                segment.delete();
+                logger.debug("Deleted acknowledged outbox segment {}", segment.getPath());
+            } catch (IOException e) {
+                logger.warn("Failed to delete outbox segment {}", segment.getPath(), e);
+            }
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            List<CompletableFuture<Void>> batch;
+            OutboxSegment segment;
+            int from;
+            int to;
+
+            lock.lock();
+            try {
+                if (open && awaitingFlush.isEmpty()) {
+                    flushRequested.await(ackFlushIntervalMs, TimeUnit.MILLISECONDS);
+                }
+                if (!open && awaitingFlush.isEmpty()) {
+                    return;
+                }
+                batch = awaitingFlush;
+                awaitingFlush = new ArrayList<>();
+                segment = active;
+                from = flushedPosition;
+                to = active.getPosition();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            if (batch.isEmpty() && to == from) {
+                continue;
+            }
+
+            // Appends made while this runs go into the next batch; the buffer before "to" is not written again
+            try {
+                long start = System.nanoTime();
+                segment.force(from, to);
+                flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } catch (RuntimeException e) {
+                logger.error("Failed to flush outbox journal segment {}", segment.getPath(), e);
+                batch.forEach(future -> future.completeExceptionally(e));
+                continue;
+            }
+
+            lock.lock();
+            try {
+                if (segment == active) {
+                    flushedPosition = Math.max(flushedPosition, to);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (!batch.isEmpty()) {
+                flushBatch.record(batch.size());
+                batch.forEach(future -> future.complete(null));
+            }
+        }
+    }
+
+    static byte[] encode(SimpleMailMessage message, String type) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, type);
+            writeString(out, message.getFrom());
+            writeString(out, message.getSubject());
+            writeString(out, message.getText());
+            String[] to = message.getTo() != null ? message.getTo() : new String[0];
+            out.writeInt(to.length);
+            for (String recipient : to) {
+                writeString(out, recipient);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static OutboxEntry decode(long id, ByteBuffer payload) {
+        String type = readString(payload);
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(readString(payload));
+        message.setSubject(readString(payload));
+        message.setText(readString(payload));
+        String[] to = new String[payload.getInt()];
+        for (int i = 0; i < to.length; i++) {
+            to[i] = readString(payload);
+        }
+        message.setTo(to);
+        return new OutboxEntry(id, type, message);
+    }
+
+    // Length-prefixed UTF-8; -1 stands for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Path segmentPath(Path dir, long index) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentIndex(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
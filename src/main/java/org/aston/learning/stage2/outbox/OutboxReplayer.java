@@ -0,0 +1,37 @@
+package org.aston.learning.stage2.outbox;
+
+import org.aston.learning.stage2.service.EmailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Hands notifications accepted before a crash or restart back to the delivery queue
+@Component
+public class OutboxReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxReplayer.class);
+
+    @Autowired
+    private OutboxJournal outbox;
+
+    @Autowired
+    private EmailService emailService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        List<OutboxEntry> entries = outbox.takeRecovered();
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        logger.info("Replaying {} unsent notifications from the outbox journal", entries.size());
+        for (OutboxEntry entry : entries) {
+            emailService.redeliver(entry);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.aston.learning.stage2.outbox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// One memory-mapped journal file. Records are [length][crc32c][kind][id][payload]; a zero length
+// or a checksum mismatch marks the end of the written part, so a torn last record is simply dropped
+class OutboxSegment {
+
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_OVERHEAD = HEADER_BYTES + 1 + Long.BYTES;
+
+    private final long index;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int position;
+    // Appended entries in this segment that have not been acknowledged yet
+    private int live;
+
+    private OutboxSegment(long index, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.index = index;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static OutboxSegment open(Path path, long index, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int mapped = (int) Math.max(size, channel.size());
+            return new OutboxSegment(index, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, mapped));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Walks the valid records, then clears whatever a crash may have left behind the last one
+    void recover(RecordVisitor visitor) {
+        int pos = 0;
+        int capacity = buffer.capacity();
+        while (pos + RECORD_OVERHEAD <= capacity) {
+            int length = buffer.getInt(pos);
+            if (length < RECORD_OVERHEAD - HEADER_BYTES || pos + HEADER_BYTES + length > capacity) {
+                break;
+            }
+            ByteBuffer body = buffer.slice(pos + HEADER_BYTES, length);
+            CRC32C crc = new CRC32C();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(pos + Integer.BYTES)) {
+                break;
+            }
+            visitor.visit(body.get(0), body.getLong(1), body.position(1 + Long.BYTES).slice());
+            pos += HEADER_BYTES + length;
+        }
+
+        position = pos;
+        for (int i = pos; i < capacity && buffer.get(i) != 0; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    boolean hasRoom(int payloadBytes) {
+        return position + RECORD_OVERHEAD + payloadBytes <= buffer.capacity();
+    }
+
+    // The length goes in last so a reader never sees a complete header in front of a partial body
+    void write(byte kind, long id, byte[] payload) {
+        int bodyLength = 1 + Long.BYTES + payload.length;
+        int start = position;
+        buffer.put(start + HEADER_BYTES, kind);
+        buffer.putLong(start + HEADER_BYTES + 1, id);
+        buffer.put(start + HEADER_BYTES + 1 + Long.BYTES, payload);
+
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(start + HEADER_BYTES, bodyLength));
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+        buffer.putInt(start, bodyLength);
+        position = start + HEADER_BYTES + bodyLength;
+    }
+
+    void force(int from, int to) {
+        if (to > from) {
+            buffer.force(from, to - from);
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    long getIndex() {
+        return index;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    int getLive() {
+        return live;
+    }
+
+    void addLive(int delta) {
+        live += delta;
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(byte kind, long id, ByteBuffer payload);
+    }
+}
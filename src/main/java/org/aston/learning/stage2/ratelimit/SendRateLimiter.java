@@ -0,0 +1,177 @@
+package org.aston.learning.stage2.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Keeps sends under the SMTP relay quota and the per-domain limits of large mailbox providers.
+// The relay quota applies to each relay, so the bucket here admits the quota of all relays together and
+// RelayRoutingMailSender keeps every single relay within its own share.
+// Domains with an explicit rate get their own bucket; every other domain is hashed onto a fixed set of
+// striped buckets, so memory stays bounded no matter how many recipient domains show up.
+@Component
+public class SendRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendRateLimiter.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Off until the provider's quotas are configured, so existing deployments keep their throughput
+    @Value("${app.email.rate-limit.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.email.rate-limit.relay-per-second:50}")
+    private double relayPerSecond;
+
+    @Value("${app.mail.relays:}")
+    private List<String> relays;
+
+    @Value("${app.email.rate-limit.domain-per-second:10}")
+    private double domainPerSecond;
+
+    @Value("${app.email.rate-limit.burst:10}")
+    private int burst;
+
+    @Value("${app.email.rate-limit.stripes:256}")
+    private int stripes;
+
+    // Per-domain overrides as domain=permitsPerSecond, e.g. gmail.com=20,yahoo.com=5
+    @Value("${app.email.rate-limit.domains:}")
+    private List<String> domainRates;
+
+    private TokenBucket relayBucket;
+    private TokenBucket[] domainStripes;
+    private Map<String, TokenBucket> domainBuckets;
+    private Timer waitTimer;
+    private Counter relayThrottled;
+    private Counter domainThrottled;
+
+    @PostConstruct
+    public void init() {
+        int relayCount = (int) Math.max(1, relays.stream().filter(relay -> !relay.isBlank()).count());
+        relayBucket = relayPerSecond > 0 ? new TokenBucket(relayPerSecond * relayCount, burst * relayCount) : null;
+
+        domainStripes = new TokenBucket[domainPerSecond > 0 ? Integer.highestOneBit(Math.max(1, stripes)) : 0];
+        for (int i = 0; i < domainStripes.length; i++) {
+            domainStripes[i] = new TokenBucket(domainPerSecond, burst);
+        }
+
+        domainBuckets = new HashMap<>();
+        for (String entry : domainRates) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalStateException("Invalid app.email.rate-limit.domains entry: " + entry);
+            }
+            String domain = entry.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+            double rate = Double.parseDouble(entry.substring(separator + 1).trim());
+            domainBuckets.put(domain, new TokenBucket(rate, burst));
+        }
+
+        waitTimer = Timer.builder("notification.ratelimit.wait")
+                .description("Time a message spent waiting for a send permit")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(meterRegistry);
+        relayThrottled = Counter.builder("notification.ratelimit.throttled")
+                .description("Send attempts deferred by the rate limiter")
+                .tag("limit", "relay")
+                .register(meterRegistry);
+        domainThrottled = Counter.builder("notification.ratelimit.throttled")
+                .description("Send attempts deferred by the rate limiter")
+                .tag("limit", "domain")
+                .register(meterRegistry);
+
+        logger.info("Send rate limiter: enabled={}, relay={}/s x {}, domain={}/s, burst={}, overrides={}",
+                enabled, relayPerSecond, relayCount, domainPerSecond, burst, domainBuckets.keySet());
+    }
+
+    public long tryAcquire(String recipient) {
+        return tryAcquire(recipient, System.nanoTime());
+    }
+
+    // Returns 0 when the message may be sent now, otherwise the nanos to wait before asking again
+    long tryAcquire(String recipient, long nowNanos) {
+        if (!enabled) {
+            return 0;
+        }
+
+        TokenBucket domainBucket = domainBucket(recipient);
+        if (domainBucket != null) {
+            long wait = domainBucket.tryAcquire(nowNanos);
+            if (wait > 0) {
+                domainThrottled.increment();
+                return wait;
+            }
+        }
+
+        if (relayBucket != null) {
+            long wait = relayBucket.tryAcquire(nowNanos);
+            if (wait > 0) {
+                // The message is not going out yet, so it must not use up the domain's quota
+                if (domainBucket != null) {
+                    domainBucket.release();
+                }
+                relayThrottled.increment();
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    // For callers that have to send before returning, e.g. the Kafka listener thread
+    public void acquire(String recipient) {
+        long wait = tryAcquire(recipient);
+        if (wait == 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        while (wait > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(wait);
+            wait = tryAcquire(recipient);
+        }
+        recordWait(System.nanoTime() - start);
+    }
+
+    public void recordWait(long waitNanos) {
+        waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private TokenBucket domainBucket(String recipient) {
+        String domain = domainOf(recipient);
+        TokenBucket bucket = domainBuckets.get(domain);
+        if (bucket != null || domainStripes.length == 0) {
+            return bucket;
+        }
+        int hash = domain.hashCode();
+        return domainStripes[(hash ^ (hash >>> 16)) & (domainStripes.length - 1)];
+    }
+
+    static String domainOf(String recipient) {
+        if (recipient == null) {
+            return "";
+        }
+        int at = recipient.lastIndexOf('@');
+        String domain = at >= 0 ? recipient.substring(at + 1) : "";
+        return domain.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,139 @@
+package org.aston.learning.stage2.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.dto.BulkEmailResult;
+import org.aston.learning.stage2.dto.EmailRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Streams EmailRequests (NDJSON or a JSON array) from the request body into the delivery queue one item at a
+// time and writes one NDJSON result line per item as soon as it is rejected, sent or failed
+@Service
+public class BulkEmailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkEmailService.class);
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    public void process(InputStream input, OutputStream output) throws IOException {
+        // Delivery callbacks run on queue workers, so they only hand results over; this thread does all writing
+        BlockingQueue<BulkEmailResult> completed = new LinkedBlockingQueue<>();
+        long pending = 0;
+        long rejected = 0;
+        long index = 0;
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+
+            // A reader-owned parser unwraps a top-level array, so NDJSON and [...] bodies are read the same way
+            try (MappingIterator<EmailRequest> requests = objectMapper.readerFor(EmailRequest.class).readValues(input)) {
+                while (requests.hasNextValue()) {
+                    EmailRequest request = null;
+                    BulkEmailResult invalid;
+                    try {
+                        request = requests.nextValue();
+                        invalid = validate(index, request);
+                    } catch (JsonMappingException e) {
+                        // Well-formed JSON that does not bind to EmailRequest (e.g. an object where a string
+                        // belongs); the iterator skips past the item on the next read, so only this one fails
+                        invalid = new BulkEmailResult(index, false, null,
+                                "Invalid request item: " + e.getOriginalMessage(), null);
+                    }
+                    if (invalid != null) {
+                        write(generator, invalid);
+                        rejected++;
+                    } else {
+                        submit(index, request, completed);
+                        pending++;
+                    }
+                    index++;
+
+                    BulkEmailResult result;
+                    while ((result = completed.poll()) != null) {
+                        write(generator, result);
+                        pending--;
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                // The stream position is lost after a token-level syntax error, so report it and stop reading
+                logger.warn("Malformed bulk email request at item {}: {}", index, e.getOriginalMessage());
+                write(generator, new BulkEmailResult(index, false, null,
+                        "Malformed JSON: " + e.getOriginalMessage(), null));
+                rejected++;
+            }
+
+            for (; pending > 0; pending--) {
+                write(generator, completed.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for bulk email deliveries", e);
+        }
+
+        logger.info("Bulk email request processed: {} items, {} rejected before sending", index, rejected);
+    }
+
+    private BulkEmailResult validate(long index, EmailRequest request) {
+        if (request == null) {
+            return new BulkEmailResult(index, false, null, "Request item is empty", null);
+        }
+        Set<ConstraintViolation<EmailRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        ConstraintViolation<EmailRequest> violation = violations.iterator().next();
+        return new BulkEmailResult(index, false, request.getToEmail(),
+                violation.getPropertyPath() + ": " + violation.getMessage(), null);
+    }
+
+    private void submit(long index, EmailRequest request, BlockingQueue<BulkEmailResult> completed) {
+        String toEmail = request.getToEmail();
+        DeliveryHandle handle;
+        try {
+            handle = emailService.sendCustomEmailAsync(toEmail, request.getSubject(), request.getMessage());
+        } catch (Exception e) {
+            completed.add(new BulkEmailResult(index, false, toEmail, "Failed to send email: " + e.getMessage(), null));
+            return;
+        }
+
+        handle.getCompletion().whenComplete((ignored, error) -> completed.add(error == null
+                ? new BulkEmailResult(index, true, toEmail, "Email sent successfully to: " + toEmail, handle.getId())
+                : new BulkEmailResult(index, false, toEmail,
+                        "Failed to send email: " + unwrap(error).getMessage(), handle.getId())));
+    }
+
+    private void write(JsonGenerator generator, BulkEmailResult result) throws IOException {
+        objectMapper.writeValue(generator, result);
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
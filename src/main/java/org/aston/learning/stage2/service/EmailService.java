@@ -1,103 +1,385 @@
 package org.aston.learning.stage2.service;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.aston.learning.stage2.delivery.DeliveryDeferredException;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.DeliveryLane;
+import org.aston.learning.stage2.delivery.DeliveryStatus;
+import org.aston.learning.stage2.delivery.MailDeliveryQueue;
+import org.aston.learning.stage2.delivery.MailDigestBuffer;
+import org.aston.learning.stage2.delivery.OverflowPolicy;
+import org.aston.learning.stage2.event.UserEventType;
+import org.aston.learning.stage2.mail.SmtpHealthIndicator;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxEntry;
+import org.aston.learning.stage2.outbox.OutboxJournal;
+import org.aston.learning.stage2.ratelimit.SendRateLimiter;
+import org.aston.learning.stage2.template.NotificationTemplateEngine;
+import org.aston.learning.stage2.template.RenderedNotification;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
 @Service
 public class EmailService {
 
     private static final Logger logger = LoggerFactory.getLogger(EmailService.class);
 
+    // Values of the "type" tag on notification metrics besides the UserEventType names
+    public static final String TYPE_CUSTOM = "CUSTOM";
+    public static final String TYPE_BATCH = "BATCH";
+    public static final String TYPE_DIGEST = "DIGEST";
+
     @Autowired
     private JavaMailSender mailSender;
 
+    @Autowired
+    private MailDeliveryQueue deliveryQueue;
+
+    @Autowired
+    private NotificationTemplateEngine templateEngine;
+
+    @Autowired
+    private NotificationMetrics metrics;
+
+    @Autowired
+    private SendRateLimiter rateLimiter;
+
+    @Autowired
+    private SmtpHealthIndicator smtpHealth;
+
+    @Autowired
+    private OutboxJournal outbox;
+
+    @Autowired
+    private MailDigestBuffer digestBuffer;
+
+    @Autowired
+    private CircuitBreaker smtpCircuitBreaker;
+
+    // How long a queued email waits before it tries the SMTP circuit again while it is open
+    @Value("${app.email.circuit-breaker.park-ms:1000}")
+    private long parkMs;
+
+    // How long a synchronous send waits for its turn in the lane and the SMTP call together
+    @Value("${app.email.send-timeout-ms:30000}")
+    private long sendTimeoutMs;
+
     @Value("${app.email.from:no-reply@example.com}")
     private String fromEmail;
 
     @Value("${app.email.site-url:https://example.com}")
     private String siteUrl;
 
-    public void sendUserCreatedEmail(String toEmail, String userName) {
-        String subject = "Добро пожаловать на наш сайт!";
-        String text = String.format(
-                "Здравствуйте, %s!%n%n" +
-                        "Ваш аккаунт на сайте %s был успешно создан.%n%n" +
-                        "Мы рады приветствовать вас в нашем сообществе!%n%n" +
-                        "С уважением,%nКоманда %s",
-                userName, siteUrl, siteUrl
-        );
+    @Value("${app.email.locale:ru}")
+    private Locale locale;
 
-        sendEmail(toEmail, subject, text);
+    @PostConstruct
+    public void registerDigest() {
+        digestBuffer.register(this::createDigestEmail, digest -> deliverOrPark(digest, TYPE_DIGEST));
     }
 
-    public void sendUserDeletedEmail(String toEmail, String userName) {
-        String subject = "Ваш аккаунт был удален";
-        String text = String.format(
-                "Здравствуйте, %s!%n%n" +
-                        "Ваш аккаунт на сайте %s был удалён.%n%n" +
-                        "Если это произошло по ошибке или у вас есть вопросы, " +
-                        "пожалуйста, свяжитесь с нашей службой поддержки.%n%n" +
-                        "С уважением,%nКоманда %s",
-                userName, siteUrl, siteUrl
-        );
+    public void sendUserCreatedEmail(String toEmail, String userName) {
+        sendEmail(createUserCreatedEmail(toEmail, userName), UserEventType.USER_CREATED.name());
+    }
 
-        sendEmail(toEmail, subject, text);
+    public void sendUserDeletedEmail(String toEmail, String userName) {
+        sendEmail(createUserDeletedEmail(toEmail, userName), UserEventType.USER_DELETED.name());
     }
 
     public void sendCustomEmail(String toEmail, String subject, String message) {
-        String text = String.format(
-                "Здравствуйте!%n%n" +
-                        "%s%n%n" +
-                        "С уважением,%nКоманда %s",
-                message, siteUrl
-        );
+        sendEmail(createCustomEmail(toEmail, subject, message), TYPE_CUSTOM);
+    }
+
+    public DeliveryHandle sendUserCreatedEmailAsync(String toEmail, String userName) {
+        return sendEmailAsync(createUserCreatedEmail(toEmail, userName), UserEventType.USER_CREATED.name());
+    }
+
+    public DeliveryHandle sendUserCreatedEmailAsync(String toEmail, String userName, OverflowPolicy overflowPolicy) {
+        return sendEmailAsync(createUserCreatedEmail(toEmail, userName), UserEventType.USER_CREATED.name(),
+                overflowPolicy);
+    }
+
+    public DeliveryHandle sendUserDeletedEmailAsync(String toEmail, String userName) {
+        return sendEmailAsync(createUserDeletedEmail(toEmail, userName), UserEventType.USER_DELETED.name());
+    }
+
+    public DeliveryHandle sendCustomEmailAsync(String toEmail, String subject, String message) {
+        return sendEmailAsync(createCustomEmail(toEmail, subject, message), TYPE_CUSTOM);
+    }
+
+    public DeliveryHandle sendCustomEmailAsync(String toEmail, String subject, String message,
+                                               OverflowPolicy overflowPolicy) {
+        return sendEmailAsync(createCustomEmail(toEmail, subject, message), TYPE_CUSTOM, overflowPolicy);
+    }
+
+    public SimpleMailMessage createUserCreatedEmail(String toEmail, String userName) {
+        RenderedNotification email = render(UserEventType.USER_CREATED.name(), "welcome",
+                Map.of("userName", Objects.toString(userName, ""), "siteUrl", siteUrl));
+
+        return buildMessage(toEmail, email.getSubject(), email.getBody());
+    }
+
+    public SimpleMailMessage createUserDeletedEmail(String toEmail, String userName) {
+        RenderedNotification email = render(UserEventType.USER_DELETED.name(), "deletion",
+                Map.of("userName", Objects.toString(userName, ""), "siteUrl", siteUrl));
+
+        return buildMessage(toEmail, email.getSubject(), email.getBody());
+    }
+
+    public SimpleMailMessage createPasswordResetEmail(String toEmail, String userName) {
+        RenderedNotification email = render(UserEventType.PASSWORD_RESET.name(), "password-reset",
+                Map.of("userName", Objects.toString(userName, ""), "siteUrl", siteUrl));
+
+        return buildMessage(toEmail, email.getSubject(), email.getBody());
+    }
+
+    public SimpleMailMessage createEmailChangedEmail(String toEmail, String userName) {
+        RenderedNotification email = render(UserEventType.EMAIL_CHANGED.name(), "email-changed",
+                Map.of("userName", Objects.toString(userName, ""), "siteUrl", siteUrl, "email", toEmail));
+
+        return buildMessage(toEmail, email.getSubject(), email.getBody());
+    }
+
+    public SimpleMailMessage createCustomEmail(String toEmail, String subject, String message) {
+        RenderedNotification email = render(TYPE_CUSTOM, "custom",
+                Map.of("subject", Objects.toString(subject, ""), "message", Objects.toString(message, ""),
+                        "siteUrl", siteUrl));
 
-        sendEmail(toEmail, subject, text);
+        return buildMessage(toEmail, email.getSubject(), email.getBody());
     }
 
-    private void sendEmail(String toEmail, String subject, String text) {
+    // Merges several messages for one recipient, in arrival order, into a single email
+    public SimpleMailMessage createDigestEmail(List<SimpleMailMessage> messages) {
+        StringBuilder items = new StringBuilder();
+        for (SimpleMailMessage message : messages) {
+            if (items.length() > 0) {
+                items.append(System.lineSeparator()).append("----------").append(System.lineSeparator())
+                        .append(System.lineSeparator());
+            }
+            items.append(Objects.toString(message.getSubject(), "")).append(System.lineSeparator())
+                    .append(System.lineSeparator())
+                    .append(Objects.toString(message.getText(), "")).append(System.lineSeparator());
+        }
+
+        RenderedNotification email = render(TYPE_DIGEST, "digest",
+                Map.of("count", String.valueOf(messages.size()), "items", items.toString().stripTrailing(),
+                        "siteUrl", siteUrl));
+
+        return buildMessage(messages.get(0).getTo()[0], email.getSubject(), email.getBody());
+    }
+
+    // Sends all messages over a single SMTP session; returns the messages that could not be delivered, keyed by
+    // identity so that equal messages in one batch are reported separately
+    public Map<SimpleMailMessage, Exception> sendEmails(List<SimpleMailMessage> messages) {
+        if (messages.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        for (SimpleMailMessage message : messages) {
+            rateLimiter.acquire(message.getTo()[0]);
+        }
+
+        long start = System.nanoTime();
         try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom(fromEmail);
-            message.setTo(toEmail);
-            message.setSubject(subject);
-            message.setText(text);
+            smtpCircuitBreaker.executeRunnable(() -> mailSender.send(messages.toArray(new SimpleMailMessage[0])));
+
+            metrics.recordDelivery(TYPE_BATCH, true, System.nanoTime() - start, messages.size());
+            logger.info("Batch of {} emails successfully sent", messages.size());
+            return Collections.emptyMap();
+
+        } catch (MailException e) {
+            Map<SimpleMailMessage, Exception> failures = new IdentityHashMap<>();
+            if (e instanceof MailSendException sendException && !sendException.getFailedMessages().isEmpty()) {
+                sendException.getFailedMessages()
+                        .forEach((message, cause) -> failures.put((SimpleMailMessage) message, cause));
+            } else {
+                messages.forEach(message -> failures.put(message, e));
+            }
+
+            metrics.recordDelivery(TYPE_BATCH, false, System.nanoTime() - start, 0);
+            metrics.countSent(TYPE_BATCH, messages.size() - failures.size());
+            metrics.countFailed(TYPE_BATCH, failures.size());
+            logger.error("Failed to send {} of {} emails in batch", failures.size(), messages.size(), e);
+            return failures;
 
-            mailSender.send(message);
+        } catch (CallNotPermittedException e) {
+            Map<SimpleMailMessage, Exception> failures = new IdentityHashMap<>();
+            messages.forEach(message -> failures.put(message, e));
+            metrics.countFailed(TYPE_BATCH, messages.size());
+            logger.warn("SMTP circuit breaker is open, not sending batch of {} emails", messages.size());
+            return failures;
+        }
+    }
+
+    private SimpleMailMessage buildMessage(String toEmail, String subject, String text) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(fromEmail);
+        message.setTo(toEmail);
+        message.setSubject(subject);
+        message.setText(text);
+        return message;
+    }
+
+    private RenderedNotification render(String type, String template, Map<String, String> variables) {
+        long start = System.nanoTime();
+        try {
+            return templateEngine.render(template, locale, variables);
+        } finally {
+            metrics.recordRender(type, System.nanoTime() - start);
+        }
+    }
+
+    // Returns once the message is durable in the outbox journal (when enabled) and handed to the delivery queue
+    public DeliveryHandle sendEmailAsync(SimpleMailMessage message, String type) {
+        return submit(message, type, outbox.append(message, type), null, true);
+    }
+
+    // Same, but a full lane is handled with overflowPolicy instead of the queue's configured policy
+    public DeliveryHandle sendEmailAsync(SimpleMailMessage message, String type, OverflowPolicy overflowPolicy) {
+        return submit(message, type, outbox.append(message, type), overflowPolicy, true);
+    }
 
+    // For a message the caller journaled itself. When the queue refuses it the entry stays in the journal, so
+    // the caller can submit it again later or the replay sends it after a restart
+    public DeliveryHandle sendJournaledAsync(SimpleMailMessage message, String type, long outboxId,
+                                             OverflowPolicy overflowPolicy) {
+        return submit(message, type, outboxId, overflowPolicy, false);
+    }
+
+    // Sends a journaled message again after a restart without appending it a second time
+    public DeliveryHandle redeliver(OutboxEntry entry) {
+        return submit(entry.message(), entry.type(), entry.id(), null, true);
+    }
+
+    // A null overflowPolicy leaves it to the queue's configured one
+    private DeliveryHandle submit(SimpleMailMessage message, String type, long outboxId, OverflowPolicy overflowPolicy,
+                                  boolean acknowledgeRejected) {
+        if (digestBuffer.isDigested(type)) {
+            DeliveryHandle handle = digestBuffer.add(message, laneOf(type), () -> outbox.acknowledge(outboxId));
+            if (handle != null) {
+                return handle;
+            }
+        }
+
+        // The delivery queue takes the rate limit permit itself and parks throttled messages in its delay queue;
+        // while the SMTP circuit is open messages are parked there too. The journal entry is acknowledged once a
+        // worker has tried SMTP; messages still queued at shutdown stay in the journal and are replayed on the next start
+        Consumer<SimpleMailMessage> delivery = queued -> {
+            try {
+                deliverOrPark(queued, type);
+            } catch (DeliveryDeferredException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                outbox.acknowledge(outboxId);
+                throw e;
+            }
+            outbox.acknowledge(outboxId);
+        };
+        DeliveryHandle handle = overflowPolicy != null
+                ? deliveryQueue.submit(message, laneOf(type), delivery, overflowPolicy)
+                : deliveryQueue.submit(message, laneOf(type), delivery);
+        if (handle.getStatus() == DeliveryStatus.FAILED && (acknowledgeRejected || !handle.isRejected())) {
+            outbox.acknowledge(outboxId);
+        }
+        return handle;
+    }
+
+    // type tags the delivery metrics: a UserEventType name or TYPE_CUSTOM. Synchronous sends wait in their
+    // lane like queued ones, so a burst of custom emails cannot delay account emails. While the SMTP circuit
+    // is open they fail right away with CallNotPermittedException instead of holding the caller's thread
+    public void sendEmail(SimpleMailMessage message, String type) {
+        if (smtpCircuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+            logger.warn("SMTP circuit breaker is open, not sending {} email to: {}", type, message.getTo()[0]);
+            throw CallNotPermittedException.createCallNotPermittedException(smtpCircuitBreaker);
+        }
+
+        DeliveryHandle handle = deliveryQueue.submit(message, laneOf(type), queued -> deliver(queued, type));
+        try {
+            handle.getCompletion().get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("Failed to send email: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            // Withdrawn from the queue, so the caller can send it again without the user getting it twice
+            if (handle.cancel()) {
+                logger.warn("{} email to: {} not sent within {} ms, withdrawn from the queue",
+                        type, message.getTo()[0], sendTimeoutMs);
+                throw new RuntimeException("Email was not sent within " + sendTimeoutMs + " ms", e);
+            }
+            if (handle.getStatus() == DeliveryStatus.FAILED) {
+                throw new RuntimeException("Failed to send email: " + handle.getFailureReason(), e);
+            }
+            // A worker is already handing it to SMTP, and failing here would have the caller send it again;
+            // the worker logs and counts the outcome
+            logger.warn("{} email to: {} still being sent after {} ms, no longer waiting for it",
+                    type, message.getTo()[0], sendTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sending email", e);
+        }
+    }
+
+    // Emails about the user's account are transactional; custom and digest emails are bulk
+    static DeliveryLane laneOf(String type) {
+        return UserEventType.fromValue(type) != null ? DeliveryLane.TRANSACTIONAL : DeliveryLane.BULK;
+    }
+
+    // For queued sends: while the SMTP circuit is open the queue parks the message instead of failing it
+    private void deliverOrPark(SimpleMailMessage message, String type) {
+        try {
+            deliver(message, type);
+        } catch (CallNotPermittedException e) {
+            throw new DeliveryDeferredException("SMTP circuit breaker is open", parkMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void deliver(SimpleMailMessage message, String type) {
+        String toEmail = message.getTo()[0];
+        long start = System.nanoTime();
+        try {
+            smtpCircuitBreaker.executeRunnable(() -> mailSender.send(message));
+
+            metrics.recordDelivery(type, true, System.nanoTime() - start, 1);
             logger.info("Email successfully sent to: {}", toEmail);
-            logger.debug("Email details - Subject: {}, From: {}, To: {}", subject, fromEmail, toEmail);
+            logger.debug("Email details - Subject: {}, From: {}, To: {}", message.getSubject(), fromEmail, toEmail);
 
         } catch (MailException e) {
+            metrics.recordDelivery(type, false, System.nanoTime() - start, 1);
             logger.error("Failed to send email to: {}", toEmail, e);
             throw new RuntimeException("Failed to send email: " + e.getMessage(), e);
         }
     }
 
+    // Reports the last background SMTP probe; does not open a connection itself
     public boolean testEmailConnection() {
-        try {
-            // Test connection
-            SimpleMailMessage testMessage = new SimpleMailMessage();
-            testMessage.setFrom(fromEmail);
-            testMessage.setTo("test@example.com");
-            testMessage.setSubject("Test Connection");
-            testMessage.setText("This is a test message to check email configuration.");
-
-            // Don't send, just check configuration
-            logger.info("Email service is configured correctly. From: {}, Host: {}", fromEmail,
-                    mailSender instanceof org.springframework.mail.javamail.JavaMailSenderImpl ?
-                            ((org.springframework.mail.javamail.JavaMailSenderImpl) mailSender).getHost() : "unknown");
-
-            return true;
-        } catch (Exception e) {
-            logger.error("Email service configuration error", e);
+        Status status = smtpHealth.getStatus();
+        if (!Status.UP.equals(status)) {
+            logger.warn("SMTP relay is not available, last probe status: {}", status);
             return false;
         }
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,91 @@
+package org.aston.learning.stage2.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// A template parsed once into literal and variable segments: literals[0] var[0] literals[1] ... literals[n]
+public class NotificationTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private final String name;
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalLength;
+
+    private NotificationTemplate(String name, String[] literals, String[] variables) {
+        this.name = name;
+        this.literals = literals;
+        this.variables = variables;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    public static NotificationTemplate compile(String name, String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+
+        int position = 0;
+        while (true) {
+            int open = source.indexOf(OPEN, position);
+            if (open < 0) {
+                break;
+            }
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in template '" + name + "' at " + open);
+            }
+            literals.add(source.substring(position, open));
+            variables.add(source.substring(open + OPEN.length(), close).trim());
+            position = close + CLOSE.length();
+        }
+        literals.add(source.substring(position));
+
+        return new NotificationTemplate(name, literals.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isConstant() {
+        return variables.length == 0;
+    }
+
+    public String getConstantText() {
+        if (!isConstant()) {
+            throw new IllegalStateException("Template '" + name + "' has variables");
+        }
+        return literals[0];
+    }
+
+    public int estimateLength() {
+        return literalLength + variables.length * 16;
+    }
+
+    public void renderTo(StringBuilder out, Map<String, String> values) {
+        out.append(literals[0]);
+        for (int i = 0; i < variables.length; i++) {
+            String value = values.get(variables[i]);
+            if (value == null && !values.containsKey(variables[i])) {
+                throw new IllegalArgumentException(
+                        "Missing value for variable '" + variables[i] + "' in template '" + name + "'");
+            }
+            out.append(value);
+            out.append(literals[i + 1]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationTemplate{" +
+                "name='" + name + '\'' +
+                ", segments=" + (literals.length + variables.length) +
+                '}';
+    }
+}
@@ -0,0 +1,112 @@
+package org.aston.learning.stage2.template;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+@Component
+public class NotificationTemplateEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationTemplateEngine.class);
+
+    private static final String TEMPLATE_LOCATION = "classpath*:templates/notifications/*.txt";
+    private static final String SUBJECT_HEADER = "Subject:";
+
+    // Rendering happens on request, listener and delivery threads; each keeps its own buffer
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    // Keyed by template name plus optional locale suffix, e.g. "welcome" or "welcome_en"
+    private final Map<String, CompiledTemplate> templates = new HashMap<>();
+
+    @PostConstruct
+    public void loadTemplates() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(TEMPLATE_LOCATION);
+        for (Resource resource : resources) {
+            String filename = resource.getFilename();
+            if (filename == null) {
+                continue;
+            }
+            String key = filename.substring(0, filename.length() - ".txt".length());
+            try (InputStream in = resource.getInputStream()) {
+                register(key, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        logger.info("Loaded {} notification templates", templates.size());
+    }
+
+    public void register(String key, String source) {
+        String normalized = source.replace("\r\n", "\n");
+        if (!normalized.startsWith(SUBJECT_HEADER)) {
+            throw new IllegalArgumentException("Template '" + key + "' must start with a '" + SUBJECT_HEADER + "' line");
+        }
+
+        int headerEnd = normalized.indexOf('\n');
+        String subject = normalized.substring(SUBJECT_HEADER.length(), headerEnd < 0 ? normalized.length() : headerEnd).trim();
+        String body = headerEnd < 0 ? "" : normalized.substring(headerEnd + 1);
+        if (body.startsWith("\n")) {
+            body = body.substring(1);
+        }
+        if (body.endsWith("\n")) {
+            body = body.substring(0, body.length() - 1);
+        }
+
+        // Match the %n line separators produced by the former String.format bodies
+        body = body.replace("\n", System.lineSeparator());
+
+        templates.put(key, new CompiledTemplate(
+                NotificationTemplate.compile(key + ":subject", subject),
+                NotificationTemplate.compile(key, body)));
+    }
+
+    public boolean hasTemplate(String name) {
+        return templates.containsKey(name);
+    }
+
+    public RenderedNotification render(String name, Locale locale, Map<String, String> values) {
+        CompiledTemplate template = resolve(name, locale);
+        return new RenderedNotification(render(template.subject(), values), render(template.body(), values));
+    }
+
+    private String render(NotificationTemplate template, Map<String, String> values) {
+        if (template.isConstant()) {
+            return template.getConstantText();
+        }
+
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        buffer.ensureCapacity(template.estimateLength());
+        template.renderTo(buffer, values);
+        return buffer.toString();
+    }
+
+    private CompiledTemplate resolve(String name, Locale locale) {
+        if (locale != null) {
+            CompiledTemplate template = templates.get(name + "_" + locale);
+            if (template == null && !locale.getCountry().isEmpty()) {
+                template = templates.get(name + "_" + locale.getLanguage());
+            }
+            if (template != null) {
+                return template;
+            }
+        }
+
+        CompiledTemplate template = templates.get(name);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown notification template: " + name);
+        }
+        return template;
+    }
+
+    private record CompiledTemplate(NotificationTemplate subject, NotificationTemplate body) {
+    }
+}
@@ -0,0 +1,27 @@
+package org.aston.learning.stage2.template;
+
+public class RenderedNotification {
+    private final String subject;
+    private final String body;
+
+    public RenderedNotification(String subject, String body) {
+        this.subject = subject;
+        this.body = body;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderedNotification{" +
+                "subject='" + subject + '\'' +
+                ", body='" + body + '\'' +
+                '}';
+    }
+}
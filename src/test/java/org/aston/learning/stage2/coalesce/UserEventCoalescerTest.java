@@ -0,0 +1,285 @@
+package org.aston.learning.stage2.coalesce;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.dedup.UserEventDeduplicator;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.DeliveryQueueFullException;
+import org.aston.learning.stage2.delivery.OverflowPolicy;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxJournal;
+import org.aston.learning.stage2.service.EmailService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserEventCoalescerTest {
+
+    @Mock
+    private NotificationHandlerRegistry handlerRegistry;
+
+    @Mock
+    private EmailService emailService;
+
+    @Mock
+    private UserEventDeduplicator deduplicator;
+
+    @Mock
+    private OutboxJournal outbox;
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserEventCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = createCoalescer(true, 10);
+        lenient().when(emailService.sendEmailAsync(any(), any(), any()))
+                .thenAnswer(invocation -> new DeliveryHandle("test@example.com"));
+    }
+
+    private DeliveryHandle failedHandle(RuntimeException cause) {
+        DeliveryHandle handle = mock(DeliveryHandle.class);
+        when(handle.getCompletion()).thenReturn(CompletableFuture.failedFuture(cause));
+        return handle;
+    }
+
+    // The ticker thread is not started; tests move the wheel with advance()
+    private UserEventCoalescer createCoalescer(boolean enabled, int maxPending) {
+        NotificationMetrics metrics = new NotificationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", meterRegistry);
+
+        UserEventCoalescer created = new UserEventCoalescer();
+        ReflectionTestUtils.setField(created, "handlerRegistry", handlerRegistry);
+        ReflectionTestUtils.setField(created, "emailService", emailService);
+        ReflectionTestUtils.setField(created, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(created, "metrics", metrics);
+        ReflectionTestUtils.setField(created, "deduplicator", deduplicator);
+        ReflectionTestUtils.setField(created, "outbox", outbox);
+        ReflectionTestUtils.setField(created, "enabled", enabled);
+        ReflectionTestUtils.setField(created, "windowMs", 300L);
+        ReflectionTestUtils.setField(created, "tickMs", 100L);
+        ReflectionTestUtils.setField(created, "maxPending", maxPending);
+        created.init();
+        return created;
+    }
+
+    private void advance(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            coalescer.advance();
+        }
+    }
+
+    private double cancelled(String eventType) {
+        return meterRegistry.counter("notification.coalesce.cancelled", "eventType", eventType).count();
+    }
+
+    @Test
+    void hold_ShouldReleaseEventOnceWindowHasPassed() {
+        // Arrange
+        UserEvent event = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(handlerRegistry.createMessage(event)).thenReturn(message);
+
+        // Act
+        boolean held = coalescer.hold(event);
+        advance(2);
+
+        // Assert
+        assertTrue(held);
+        verifyNoInteractions(emailService);
+        advance(1);
+        verify(emailService).sendEmailAsync(message, "USER_CREATED", OverflowPolicy.REJECT);
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    @Test
+    void hold_CreatedThenDeleted_ShouldCancelBothEmails() {
+        // Act
+        coalescer.hold(new UserEvent("USER_CREATED", "bot@example.com", "Bot"));
+        advance(1);
+        coalescer.hold(new UserEvent("USER_DELETED", "BOT@example.com", "Bot"));
+        advance(5);
+
+        // Assert
+        verifyNoInteractions(handlerRegistry, emailService);
+        assertEquals(1.0, cancelled("USER_CREATED"));
+        assertEquals(1.0, cancelled("USER_DELETED"));
+        assertEquals(2.0, meterRegistry.counter("notification.messages", "type", "USER_CREATED", "outcome", "skipped").count()
+                + meterRegistry.counter("notification.messages", "type", "USER_DELETED", "outcome", "skipped").count());
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    @Test
+    void hold_DeletedAfterOtherEvents_ShouldCancelThemButSendDeletion() {
+        // Arrange
+        UserEvent reset = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        UserEvent deleted = new UserEvent("USER_DELETED", "test@example.com", "Test User");
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(handlerRegistry.createMessage(deleted)).thenReturn(message);
+
+        // Act
+        coalescer.hold(reset);
+        coalescer.hold(deleted);
+        advance(3);
+
+        // Assert
+        verify(handlerRegistry, never()).createMessage(reset);
+        verify(emailService).sendEmailAsync(message, "USER_DELETED", OverflowPolicy.REJECT);
+        assertEquals(1.0, cancelled("PASSWORD_RESET"));
+        assertEquals(0.0, cancelled("USER_DELETED"));
+    }
+
+    @Test
+    void hold_SameTypeTwice_ShouldSendOnlyTheLatest() {
+        // Arrange
+        UserEvent first = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        UserEvent second = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        when(handlerRegistry.createMessage(second)).thenReturn(new SimpleMailMessage());
+
+        // Act
+        coalescer.hold(first);
+        advance(2);
+        coalescer.hold(second);
+        advance(1);
+
+        // Assert - the first event's slot has passed without releasing it
+        verify(handlerRegistry, never()).createMessage(any());
+        advance(2);
+        verify(handlerRegistry).createMessage(second);
+        verify(handlerRegistry, never()).createMessage(first);
+        assertEquals(1.0, cancelled("PASSWORD_RESET"));
+    }
+
+    @Test
+    void release_WhenDeliveryQueueIsFull_ShouldHoldEventForAnotherTick() {
+        // Arrange
+        UserEvent event = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(handlerRegistry.createMessage(event)).thenReturn(message);
+        DeliveryHandle rejected = failedHandle(new DeliveryQueueFullException("Delivery queue is full"));
+        when(emailService.sendEmailAsync(message, "USER_CREATED", OverflowPolicy.REJECT))
+                .thenReturn(rejected)
+                .thenReturn(new DeliveryHandle("test@example.com"));
+
+        // Act
+        coalescer.hold(event);
+        advance(3);
+
+        // Assert - never sent on the ticker thread; tried again on the next tick
+        assertEquals(1, coalescer.getPendingCount());
+        advance(1);
+        verify(emailService, times(2)).sendEmailAsync(message, "USER_CREATED", OverflowPolicy.REJECT);
+        assertEquals(0, coalescer.getPendingCount());
+        verifyNoInteractions(deduplicator);
+    }
+
+    @Test
+    void release_WhenSendFails_ShouldCountItAndForgetEvent() {
+        // Arrange
+        UserEvent event = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        when(handlerRegistry.createMessage(event)).thenReturn(new SimpleMailMessage());
+        DeliveryHandle failed = failedHandle(new IllegalStateException("Mail delivery queue is shut down"));
+        when(emailService.sendEmailAsync(any(), eq("PASSWORD_RESET"), any())).thenReturn(failed);
+
+        // Act
+        coalescer.hold(event);
+        advance(3);
+
+        // Assert
+        verify(deduplicator).forget(event);
+        assertEquals(1.0, meterRegistry.counter("notification.coalesce.release.failed",
+                "eventType", "PASSWORD_RESET").count());
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    @Test
+    void hold_WithOutboxEnabled_ShouldJournalEmailBeforeHoldingIt() {
+        // Arrange
+        UserEvent event = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(outbox.isEnabled()).thenReturn(true);
+        when(handlerRegistry.createMessage(event)).thenReturn(message);
+        when(outbox.append(message, "USER_CREATED")).thenReturn(7L);
+        when(emailService.sendJournaledAsync(message, "USER_CREATED", 7L, OverflowPolicy.REJECT))
+                .thenReturn(new DeliveryHandle("test@example.com"));
+
+        // Act
+        boolean held = coalescer.hold(event);
+
+        // Assert - durable before the listener returns and the offset is committed
+        assertTrue(held);
+        verify(outbox).append(message, "USER_CREATED");
+        verifyNoInteractions(emailService);
+        advance(3);
+        verify(emailService).sendJournaledAsync(message, "USER_CREATED", 7L, OverflowPolicy.REJECT);
+        verify(emailService, never()).sendEmailAsync(any(), any(), any());
+        verify(outbox, never()).acknowledge(anyLong());
+    }
+
+    @Test
+    void hold_WithOutboxEnabled_WhenSuperseded_ShouldAcknowledgeCancelledEntry() {
+        // Arrange
+        UserEvent first = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        UserEvent second = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        SimpleMailMessage firstMessage = new SimpleMailMessage();
+        firstMessage.setSubject("First reset");
+        SimpleMailMessage secondMessage = new SimpleMailMessage();
+        secondMessage.setSubject("Second reset");
+        when(outbox.isEnabled()).thenReturn(true);
+        when(handlerRegistry.createMessage(first)).thenReturn(firstMessage);
+        when(handlerRegistry.createMessage(second)).thenReturn(secondMessage);
+        when(outbox.append(any(), eq("PASSWORD_RESET"))).thenReturn(1L).thenReturn(2L);
+        when(emailService.sendJournaledAsync(secondMessage, "PASSWORD_RESET", 2L, OverflowPolicy.REJECT))
+                .thenReturn(new DeliveryHandle("test@example.com"));
+
+        // Act
+        coalescer.hold(first);
+        coalescer.hold(second);
+        advance(3);
+
+        // Assert
+        verify(outbox).acknowledge(1L);
+        verify(outbox, never()).acknowledge(2L);
+        verify(emailService).sendJournaledAsync(secondMessage, "PASSWORD_RESET", 2L, OverflowPolicy.REJECT);
+        verify(emailService, never()).sendJournaledAsync(eq(firstMessage), any(), anyLong(), any());
+    }
+
+    @Test
+    void hold_WhenBufferIsFull_ShouldLetEventThrough() {
+        // Arrange
+        coalescer = createCoalescer(true, 1);
+        coalescer.hold(new UserEvent("USER_CREATED", "first@example.com", "First"));
+
+        // Act
+        boolean held = coalescer.hold(new UserEvent("USER_CREATED", "second@example.com", "Second"));
+
+        // Assert
+        assertFalse(held);
+        assertEquals(1.0, meterRegistry.counter("notification.coalesce.overflow").count());
+    }
+
+    @Test
+    void hold_WhenDisabledOrUnknownType_ShouldNotHold() {
+        // Arrange
+        UserEventCoalescer disabled = createCoalescer(false, 10);
+
+        // Act & Assert
+        assertFalse(disabled.hold(new UserEvent("USER_CREATED", "test@example.com", "Test User")));
+        assertFalse(coalescer.hold(new UserEvent("PROFILE_VIEWED", "test@example.com", "Test User")));
+    }
+}
@@ -0,0 +1,37 @@
+package org.aston.learning.stage2.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.retry.backoff.BackOffContext;
+import org.springframework.retry.backoff.SleepingBackOffPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TieredBackOffPolicyTest {
+
+    @Test
+    void backOff_ShouldSleepForEachTierAndRepeatTheLastOne() {
+        // Arrange
+        List<Long> sleeps = new ArrayList<>();
+        SleepingBackOffPolicy<?> policy = new TieredBackOffPolicy(List.of(10_000L, 60_000L, 600_000L))
+                .withSleeper(sleeps::add);
+        BackOffContext context = policy.start(null);
+
+        // Act
+        for (int i = 0; i < 4; i++) {
+            policy.backOff(context);
+        }
+
+        // Assert
+        assertEquals(List.of(10_000L, 60_000L, 600_000L, 600_000L), sleeps);
+    }
+
+    @Test
+    void constructor_WithoutDelays_ShouldThrowException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> new TieredBackOffPolicy(List.of()));
+    }
+}
@@ -0,0 +1,147 @@
+package org.aston.learning.stage2.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.delivery.DeliveryLane;
+import org.aston.learning.stage2.delivery.MailDeliveryQueue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ListenerBackpressureTest {
+
+    @Mock
+    private MailDeliveryQueue deliveryQueue;
+
+    @Mock
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Mock
+    private MessageListenerContainer container;
+
+    @InjectMocks
+    private ListenerBackpressure backpressure;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(backpressure, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(backpressure, "enabled", true);
+        ReflectionTestUtils.setField(backpressure, "highWater", 100);
+        ReflectionTestUtils.setField(backpressure, "lowWater", 20);
+        ReflectionTestUtils.setField(backpressure, "inFlightHighWater", 8);
+        ReflectionTestUtils.setField(backpressure, "inFlightLowWater", 4);
+        backpressure.init();
+        lenient().when(listenerRegistry.getListenerContainers()).thenReturn(List.of(container));
+        lenient().when(container.isRunning()).thenReturn(true);
+    }
+
+    // Transactional load; the listeners only feed that lane
+    private void givenLoad(int queued, int deferred, int inFlight) {
+        when(deliveryQueue.getQueueDepth(DeliveryLane.TRANSACTIONAL)).thenReturn(queued);
+        when(deliveryQueue.getDeferredCount(DeliveryLane.TRANSACTIONAL)).thenReturn(deferred);
+        when(deliveryQueue.getInFlightCount()).thenReturn(inFlight);
+    }
+
+    @Test
+    void check_WhenQueueCrossesHighWater_ShouldPauseListeners() {
+        // Arrange - parked messages count towards the depth
+        givenLoad(60, 40, 0);
+
+        // Act
+        backpressure.check();
+
+        // Assert
+        verify(container).pause();
+        assertTrue(backpressure.isPaused());
+        assertEquals(1.0, meterRegistry.counter("notification.backpressure.pauses").count());
+        assertEquals(1.0, meterRegistry.get("notification.backpressure.active").gauge().value());
+    }
+
+    @Test
+    void check_WithOnlyBulkBacklog_ShouldKeepListenersRunning() {
+        // Arrange - custom and digest emails fill the bulk lane
+        lenient().when(deliveryQueue.getQueueDepth()).thenReturn(1000);
+        lenient().when(deliveryQueue.getDeferredCount()).thenReturn(500);
+        givenLoad(10, 5, 1);
+
+        // Act
+        backpressure.check();
+
+        // Assert
+        verify(container, never()).pause();
+        assertFalse(backpressure.isPaused());
+    }
+
+    @Test
+    void check_WhenInFlightCrossesHighWater_ShouldPauseListeners() {
+        // Arrange
+        givenLoad(0, 0, 8);
+
+        // Act
+        backpressure.check();
+
+        // Assert
+        verify(container).pause();
+    }
+
+    @Test
+    void check_BetweenWatermarks_ShouldStayPausedUntilLowWater() {
+        // Arrange
+        givenLoad(100, 0, 0);
+        backpressure.check();
+        when(container.isPauseRequested()).thenReturn(true);
+
+        // Act
+        givenLoad(50, 0, 0);
+        backpressure.check();
+
+        // Assert
+        assertTrue(backpressure.isPaused());
+        verify(container, never()).resume();
+
+        givenLoad(20, 0, 2);
+        backpressure.check();
+        verify(container).resume();
+        assertFalse(backpressure.isPaused());
+        assertEquals(1, meterRegistry.timer("notification.backpressure.paused").count());
+    }
+
+    @Test
+    void check_WhenContainerRestartedWhilePaused_ShouldPauseItAgain() {
+        // Arrange
+        givenLoad(100, 0, 0);
+        backpressure.check();
+
+        // Act - the restarted container has no pause request
+        givenLoad(50, 0, 0);
+        backpressure.check();
+
+        // Assert
+        verify(container, times(2)).pause();
+    }
+
+    @Test
+    void check_WhenDisabled_ShouldNeverPause() {
+        // Arrange
+        ReflectionTestUtils.setField(backpressure, "enabled", false);
+
+        // Act
+        backpressure.check();
+
+        // Assert
+        verifyNoInteractions(deliveryQueue, listenerRegistry);
+    }
+}
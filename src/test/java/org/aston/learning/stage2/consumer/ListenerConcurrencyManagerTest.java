@@ -0,0 +1,177 @@
+package org.aston.learning.stage2.consumer;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.DescribeTopicsOptions;
+import org.apache.kafka.clients.admin.DescribeTopicsResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ListenerConcurrencyManagerTest {
+
+    @Mock
+    private KafkaAdmin kafkaAdmin;
+
+    @Mock
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Mock
+    private Admin admin;
+
+    @Mock
+    private DescribeTopicsResult describeResult;
+
+    @Mock
+    private ConcurrentMessageListenerContainer<String, Object> container;
+
+    @InjectMocks
+    private ListenerConcurrencyManager concurrencyManager;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(concurrencyManager, "lookupTimeoutMs", 100);
+        concurrencyManager.adminFactory = config -> admin;
+        lenient().when(kafkaAdmin.getConfigurationProperties()).thenReturn(Map.of());
+        lenient().when(admin.describeTopics(eq(List.of("user-events")), any(DescribeTopicsOptions.class)))
+                .thenReturn(describeResult);
+    }
+
+    private void givenPartitions(int partitions) {
+        List<TopicPartitionInfo> infos = IntStream.range(0, partitions)
+                .mapToObj(i -> new TopicPartitionInfo(i, null, List.of(), List.of()))
+                .toList();
+        when(describeResult.allTopicNames()).thenReturn(KafkaFuture.completedFuture(
+                Map.of("user-events", new TopicDescription("user-events", false, infos))));
+    }
+
+    private void givenRunningListener(String id, int concurrency) {
+        when(listenerRegistry.getListenerContainers()).thenReturn(List.of(container));
+        when(container.getListenerId()).thenReturn(id);
+        when(container.isRunning()).thenReturn(true);
+        lenient().when(container.getConcurrency()).thenReturn(concurrency);
+        when(container.metrics()).thenReturn(Collections.emptyMap());
+    }
+
+    @Test
+    void resolveConcurrency_WithFixedConcurrency_ShouldNotQueryBroker() {
+        // Arrange
+        ReflectionTestUtils.setField(concurrencyManager, "configuredConcurrency", 5);
+
+        // Act & Assert
+        assertEquals(5, concurrencyManager.resolveConcurrency());
+        verifyNoInteractions(kafkaAdmin, admin);
+    }
+
+    @Test
+    void resolveConcurrency_ShouldBeBoundedByPartitionsAndCores() {
+        // Arrange
+        ReflectionTestUtils.setField(concurrencyManager, "maxConcurrency", 4);
+        givenPartitions(12);
+
+        // Act & Assert
+        assertEquals(4, concurrencyManager.resolveConcurrency());
+        assertEquals(2, concurrencyManager.concurrencyFor(2));
+    }
+
+    @Test
+    void resolveConcurrency_WhenTopicCannotBeDescribed_ShouldFallBackToSingleThread() {
+        // Arrange
+        when(describeResult.allTopicNames()).thenReturn(failedFuture(new KafkaException("Topic not found")));
+
+        // Act & Assert
+        assertEquals(1, concurrencyManager.resolveConcurrency());
+        verify(admin).close(Duration.ZERO);
+    }
+
+    @Test
+    void resolveConcurrency_WhenBrokerDoesNotAnswer_ShouldGiveUpAfterLookupTimeout() {
+        // Arrange
+        when(describeResult.allTopicNames()).thenReturn(new KafkaFutureImpl<>());
+
+        // Act
+        long start = System.nanoTime();
+        int concurrency = concurrencyManager.resolveConcurrency();
+
+        // Assert
+        assertEquals(1, concurrency);
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000);
+    }
+
+    private static <T> KafkaFuture<T> failedFuture(Throwable cause) {
+        KafkaFutureImpl<T> future = new KafkaFutureImpl<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    @Test
+    void adjustToPartitions_WhenPartitionsWereAdded_ShouldRestartContainerWithMoreThreads() {
+        // Arrange
+        ReflectionTestUtils.setField(concurrencyManager, "maxConcurrency", 8);
+        givenPartitions(6);
+        givenRunningListener("userEventListener", 3);
+
+        // Act
+        concurrencyManager.adjustToPartitions();
+
+        // Assert
+        var inOrder = inOrder(container);
+        inOrder.verify(container).stop();
+        inOrder.verify(container).setConcurrency(6);
+        inOrder.verify(container).start();
+    }
+
+    @Test
+    void adjustToPartitions_WhenConcurrencyAlreadyMatches_ShouldNotRestartContainer() {
+        // Arrange
+        ReflectionTestUtils.setField(concurrencyManager, "maxConcurrency", 8);
+        givenPartitions(3);
+        givenRunningListener("userEventBatchListener", 3);
+
+        // Act
+        concurrencyManager.adjustToPartitions();
+
+        // Assert
+        verify(container, never()).stop();
+        verify(container, never()).setConcurrency(anyInt());
+    }
+
+    @Test
+    void adjustToPartitions_ShouldLeaveRetryAndDeadLetterListenersAlone() {
+        // Arrange
+        ReflectionTestUtils.setField(concurrencyManager, "maxConcurrency", 8);
+        givenPartitions(6);
+        givenRunningListener("userEventListener-retry-10000", 3);
+
+        // Act
+        concurrencyManager.adjustToPartitions();
+
+        // Assert
+        verify(container, never()).stop();
+        verify(container, never()).setConcurrency(anyInt());
+    }
+}
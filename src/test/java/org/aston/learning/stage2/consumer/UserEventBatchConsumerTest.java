@@ -0,0 +1,152 @@
+package org.aston.learning.stage2.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.aston.learning.stage2.dedup.UserEventDeduplicator;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.service.EmailService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.mail.SimpleMailMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserEventBatchConsumerTest {
+
+    @Mock
+    private EmailService emailService;
+
+    @Mock
+    private NotificationHandlerRegistry handlerRegistry;
+
+    @Mock
+    private UserEventDeduplicator deduplicator;
+
+    @Mock
+    private NotificationMetrics metrics;
+
+    @InjectMocks
+    private UserEventBatchConsumer userEventBatchConsumer;
+
+    private UserEvent userCreatedEvent;
+    private UserEvent userDeletedEvent;
+    private UserEvent unknownEvent;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(deduplicator.markIfFirst(any(UserEvent.class))).thenReturn(true);
+
+        userCreatedEvent = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        userDeletedEvent = new UserEvent("USER_DELETED", "test@example.com", "Test User");
+        unknownEvent = new UserEvent("UNKNOWN_EVENT", "test@example.com", "Test User");
+    }
+
+    private List<ConsumerRecord<String, UserEvent>> records(UserEvent... events) {
+        List<ConsumerRecord<String, UserEvent>> records = new ArrayList<>();
+        for (int i = 0; i < events.length; i++) {
+            records.add(new ConsumerRecord<>("user-events", 0, i, null, events[i]));
+        }
+        return records;
+    }
+
+    @Test
+    void consumeUserEvents_WithKnownEvents_ShouldSendWholeBatchAtOnce() {
+        // Arrange
+        SimpleMailMessage createdMessage = new SimpleMailMessage();
+        SimpleMailMessage deletedMessage = new SimpleMailMessage();
+        when(handlerRegistry.createMessage(userCreatedEvent)).thenReturn(createdMessage);
+        when(handlerRegistry.createMessage(userDeletedEvent)).thenReturn(deletedMessage);
+        when(handlerRegistry.createMessage(unknownEvent)).thenReturn(null);
+        when(emailService.sendEmails(anyList())).thenReturn(Collections.emptyMap());
+
+        // Act
+        userEventBatchConsumer.consumeUserEvents(records(userCreatedEvent, unknownEvent, userDeletedEvent));
+
+        // Assert
+        verify(emailService, times(1)).sendEmails(List.of(createdMessage, deletedMessage));
+        verify(emailService, never()).sendEmail(any(), any());
+    }
+
+    @Test
+    void consumeUserEvents_WhenSomeEmailsFail_ShouldReportFirstFailedRecord() {
+        // Arrange
+        UserEvent resetEvent = new UserEvent("PASSWORD_RESET", "other@example.com", "Other User");
+        SimpleMailMessage createdMessage = new SimpleMailMessage();
+        SimpleMailMessage deletedMessage = new SimpleMailMessage();
+        deletedMessage.setTo("test@example.com");
+        SimpleMailMessage resetMessage = new SimpleMailMessage();
+        resetMessage.setTo("other@example.com");
+        when(handlerRegistry.createMessage(userCreatedEvent)).thenReturn(createdMessage);
+        when(handlerRegistry.createMessage(userDeletedEvent)).thenReturn(deletedMessage);
+        when(handlerRegistry.createMessage(resetEvent)).thenReturn(resetMessage);
+        when(emailService.sendEmails(anyList())).thenReturn(Map.of(
+                resetMessage, new RuntimeException("SMTP down"),
+                deletedMessage, new RuntimeException("SMTP down")));
+        List<ConsumerRecord<String, UserEvent>> records = records(userCreatedEvent, userDeletedEvent, resetEvent);
+
+        // Act
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> userEventBatchConsumer.consumeUserEvents(records));
+
+        // Assert - offsets up to the sent email are committed, the rest is redelivered
+        assertSame(records.get(1), exception.getRecord());
+        verify(deduplicator).forget(userDeletedEvent);
+        verify(deduplicator).forget(resetEvent);
+        verify(deduplicator, never()).forget(userCreatedEvent);
+    }
+
+    @Test
+    void consumeUserEvents_WhenOneOfTwoEqualEmailsFails_ShouldReportItsOwnRecord() {
+        // Arrange - two reset requests render the same email
+        UserEvent firstReset = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        UserEvent secondReset = new UserEvent("PASSWORD_RESET", "test@example.com", "Test User");
+        SimpleMailMessage firstMessage = new SimpleMailMessage();
+        firstMessage.setTo("test@example.com");
+        SimpleMailMessage secondMessage = new SimpleMailMessage(firstMessage);
+        when(handlerRegistry.createMessage(any(UserEvent.class))).thenReturn(firstMessage, secondMessage);
+        Map<SimpleMailMessage, Exception> failures = new IdentityHashMap<>();
+        failures.put(firstMessage, new RuntimeException("SMTP down"));
+        when(emailService.sendEmails(anyList())).thenReturn(failures);
+        List<ConsumerRecord<String, UserEvent>> records = records(firstReset, secondReset);
+
+        // Act
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> userEventBatchConsumer.consumeUserEvents(records));
+
+        // Assert
+        assertSame(records.get(0), exception.getRecord());
+    }
+
+    @Test
+    void consumeUserEvents_WithDuplicateEvent_ShouldLeaveItOutOfTheBatch() {
+        // Arrange
+        SimpleMailMessage deletedMessage = new SimpleMailMessage();
+        when(deduplicator.markIfFirst(userCreatedEvent)).thenReturn(false);
+        when(handlerRegistry.createMessage(userDeletedEvent)).thenReturn(deletedMessage);
+        when(emailService.sendEmails(anyList())).thenReturn(Collections.emptyMap());
+
+        // Act
+        userEventBatchConsumer.consumeUserEvents(records(userCreatedEvent, userDeletedEvent));
+
+        // Assert
+        verify(handlerRegistry, never()).createMessage(userCreatedEvent);
+        verify(emailService).sendEmails(List.of(deletedMessage));
+        verify(metrics).countSkipped(userCreatedEvent);
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mail.SimpleMailMessage;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
@@ -14,6 +15,7 @@ import org.testcontainers.containers.KafkaContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.utility.DockerImageName;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -22,7 +24,9 @@ import static org.mockito.Mockito.*;
 @TestPropertySource(properties = {
         "spring.cloud.config.enabled=false",
         "spring.config.import=optional:file:.env[.properties]",
-        "eureka.client.enabled=false"
+        "eureka.client.enabled=false",
+        // EmailService is mocked; the mail sender bean only has to exist
+        "spring.mail.host=localhost"
 })
 class UserEventConsumerIntegrationTest {
 
@@ -58,26 +62,28 @@ class UserEventConsumerIntegrationTest {
     void whenUserCreatedEventConsumed_thenEmailServiceShouldBeCalled() {
         // Arrange
         UserEvent userEvent = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(emailService.createUserCreatedEmail("test@example.com", "Test User")).thenReturn(message);
 
         // Act
-        userEventConsumer.consumeUserEvent(userEvent);
+        userEventConsumer.consumeUserEvent(userEvent, "user-events");
 
-        // Assert
-        verify(emailService, times(1))
-                .sendUserCreatedEmail("test@example.com", "Test User");
+        // Assert - the outbox is off in tests, so the handler registry sends synchronously
+        verify(emailService, times(1)).sendEmail(message, "USER_CREATED");
     }
 
     @Test
     void whenUserDeletedEventConsumed_thenEmailServiceShouldBeCalled() {
         // Arrange
         UserEvent userEvent = new UserEvent("USER_DELETED", "test@example.com", "Test User");
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(emailService.createUserDeletedEmail("test@example.com", "Test User")).thenReturn(message);
 
         // Act
-        userEventConsumer.consumeUserEvent(userEvent);
+        userEventConsumer.consumeUserEvent(userEvent, "user-events");
 
         // Assert
-        verify(emailService, times(1))
-                .sendUserDeletedEmail("test@example.com", "Test User");
+        verify(emailService, times(1)).sendEmail(message, "USER_DELETED");
     }
 
     @Test
@@ -86,12 +92,10 @@ class UserEventConsumerIntegrationTest {
         UserEvent userEvent = new UserEvent("UNKNOWN_EVENT", "test@example.com", "Test User");
 
         // Act
-        userEventConsumer.consumeUserEvent(userEvent);
+        userEventConsumer.consumeUserEvent(userEvent, "user-events");
 
         // Assert
-        verify(emailService, never())
-                .sendUserCreatedEmail(anyString(), anyString());
-        verify(emailService, never())
-                .sendUserDeletedEmail(anyString(), anyString());
+        verify(emailService, never()).sendEmail(any(), anyString());
+        verify(emailService, never()).sendEmailAsync(any(), anyString());
     }
 }
\ No newline at end of file
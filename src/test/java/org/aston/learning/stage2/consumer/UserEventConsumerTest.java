@@ -1,27 +1,48 @@
 package org.aston.learning.stage2.consumer;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.coalesce.UserEventCoalescer;
+import org.aston.learning.stage2.dedup.UserEventDeduplicator;
 import org.aston.learning.stage2.event.UserEvent;
-import org.aston.learning.stage2.service.EmailService;
+import org.aston.learning.stage2.handler.NotificationHandlerRegistry;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.slf4j.Logger;
 
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class UserEventConsumerTest {
 
     @Mock
-    private EmailService emailService;
+    private NotificationHandlerRegistry handlerRegistry;
 
     @Mock
     private Logger logger;
 
+    @Mock
+    private UserEventDeduplicator deduplicator;
+
+    @Mock
+    private NotificationMetrics metrics;
+
+    @Mock
+    private UserEventCoalescer coalescer;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private UserEventConsumer userEventConsumer;
 
@@ -31,6 +52,8 @@ class UserEventConsumerTest {
 
     @BeforeEach
     void setUp() {
+        lenient().when(deduplicator.markIfFirst(any(UserEvent.class))).thenReturn(true);
+
         userCreatedEvent = new UserEvent();
         userCreatedEvent.setEventType("USER_CREATED");
         userCreatedEvent.setEmail("test@example.com");
@@ -48,43 +71,103 @@ class UserEventConsumerTest {
     }
 
     @Test
-    void consumeUserEvent_WithUserCreated_ShouldCallHandleUserCreated() {
+    void consumeUserEvent_WithUserCreated_ShouldDispatchToHandlerRegistry() {
         // Act
-        userEventConsumer.consumeUserEvent(userCreatedEvent);
+        userEventConsumer.consumeUserEvent(userCreatedEvent, "user-events");
 
         // Assert
-        verify(emailService).sendUserCreatedEmail("test@example.com", "Test User");
+        verify(handlerRegistry).dispatch(userCreatedEvent);
     }
 
     @Test
-    void consumeUserEvent_WithUserDeleted_ShouldCallHandleUserDeleted() {
+    void consumeUserEvent_WithUserDeleted_ShouldDispatchToHandlerRegistry() {
         // Act
-        userEventConsumer.consumeUserEvent(userDeletedEvent);
+        userEventConsumer.consumeUserEvent(userDeletedEvent, "user-events");
 
         // Assert
-        verify(emailService).sendUserDeletedEmail("test@example.com", "Test User");
+        verify(handlerRegistry).dispatch(userDeletedEvent);
     }
 
     @Test
-    void consumeUserEvent_WithUnknownEvent_ShouldLogWarning() {
+    void consumeUserEvent_WithUnknownEvent_ShouldNotFail() {
+        // Arrange
+        when(handlerRegistry.dispatch(unknownEvent)).thenReturn(false);
+
         // Act
-        userEventConsumer.consumeUserEvent(unknownEvent);
+        userEventConsumer.consumeUserEvent(unknownEvent, "user-events");
 
         // Assert
-        verify(emailService, never()).sendUserCreatedEmail(anyString(), anyString());
-        verify(emailService, never()).sendUserDeletedEmail(anyString(), anyString());
+        verify(handlerRegistry).dispatch(unknownEvent);
+        verify(deduplicator, never()).forget(any());
     }
 
     @Test
-    void consumeUserEvent_WhenEmailServiceThrowsException_ShouldLogError() {
+    void consumeUserEvent_WhenEmailServiceThrowsException_ShouldPropagateForRetryTopics() {
         // Arrange
-        doThrow(new RuntimeException("Email service down"))
-                .when(emailService).sendUserCreatedEmail(anyString(), anyString());
+        when(handlerRegistry.dispatch(userCreatedEvent)).thenThrow(new RuntimeException("Email service down"));
+
+        // Act & Assert - Exception is logged and rethrown so the record moves to the next retry topic
+        assertThrows(RuntimeException.class,
+                () -> userEventConsumer.consumeUserEvent(userCreatedEvent, "user-events"));
+        verify(deduplicator).forget(userCreatedEvent);
+        assertEquals(0, meterRegistry.find("notification.retry.attempts").counters().size());
+    }
+
+    @Test
+    void consumeUserEvent_WithDuplicateEvent_ShouldNotSendEmailAgain() {
+        // Arrange
+        when(deduplicator.markIfFirst(userCreatedEvent)).thenReturn(false);
 
         // Act
-        userEventConsumer.consumeUserEvent(userCreatedEvent);
+        userEventConsumer.consumeUserEvent(userCreatedEvent, "user-events");
+
+        // Assert
+        verifyNoInteractions(handlerRegistry);
+        verify(metrics).countSkipped(userCreatedEvent);
+    }
+
+    @Test
+    void consumeUserEvent_WhenCoalescerHoldsEvent_ShouldNotDispatchYet() {
+        // Arrange
+        when(coalescer.hold(userCreatedEvent)).thenReturn(true);
 
-        // Assert - Exception should be caught and logged, not propagated
-        verify(emailService).sendUserCreatedEmail("test@example.com", "Test User");
+        // Act
+        userEventConsumer.consumeUserEvent(userCreatedEvent, "user-events");
+
+        // Assert
+        verifyNoInteractions(handlerRegistry);
+    }
+
+    @Test
+    void consumeUserEvent_WhenCoalescerFailsToHoldEvent_ShouldForgetItForRetry() {
+        // Arrange
+        when(coalescer.hold(userCreatedEvent)).thenThrow(new OutboxException("Outbox journal is closed"));
+
+        // Act & Assert
+        assertThrows(OutboxException.class,
+                () -> userEventConsumer.consumeUserEvent(userCreatedEvent, "user-events"));
+        verify(deduplicator).forget(userCreatedEvent);
+        verifyNoInteractions(handlerRegistry);
+    }
+
+    @Test
+    void consumeUserEvent_FromRetryTopic_ShouldCountRetryAttempt() {
+        // Act
+        userEventConsumer.consumeUserEvent(userCreatedEvent, "user-events-retry-10000");
+
+        // Assert
+        verify(handlerRegistry).dispatch(userCreatedEvent);
+        assertEquals(1.0, meterRegistry.counter("notification.retry.attempts",
+                "topic", "user-events-retry-10000").count());
+    }
+
+    @Test
+    void handleDeadLetter_ShouldCountDeadLetteredEvent() {
+        // Act
+        userEventConsumer.handleDeadLetter(userCreatedEvent, "Email service down");
+
+        // Assert
+        assertEquals(1.0, meterRegistry.counter("notification.dlt.records", "eventType", "USER_CREATED").count());
+        verifyNoInteractions(handlerRegistry);
     }
-}
\ No newline at end of file
+}
@@ -1,17 +1,32 @@
 package org.aston.learning.stage2.controller;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.aston.learning.stage2.dto.*;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.DeliveryQueueFullException;
+import org.aston.learning.stage2.delivery.NotificationStatusStore;
+import org.aston.learning.stage2.delivery.OverflowPolicy;
+import org.aston.learning.stage2.mail.SmtpHealthIndicator;
+import org.aston.learning.stage2.service.BulkEmailService;
 import org.aston.learning.stage2.service.EmailService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.mail.MailSendException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -19,6 +34,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import static org.hamcrest.Matchers.containsString;
 
 @WebMvcTest(NotificationController.class)
+@Import({BulkEmailService.class, NotificationStatusStore.class, NotificationLinks.class, SimpleMeterRegistry.class})
 @ActiveProfiles("test")
 @TestPropertySource(properties = {
         "spring.cloud.config.enabled=false",
@@ -36,6 +52,14 @@ class NotificationControllerIntegrationTest {
     @MockBean
     private EmailService emailService;
 
+    @MockBean
+    private SmtpHealthIndicator smtpHealth;
+
+    @BeforeEach
+    void setUp() {
+        when(smtpHealth.getStatus()).thenReturn(Status.UP);
+    }
+
     @Test
     void sendCustomEmail_ShouldReturnSuccess() throws Exception {
         // Arrange
@@ -101,6 +125,131 @@ class NotificationControllerIntegrationTest {
         mockMvc.perform(get("/api/notifications/health"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.service").value("OK"))
-                .andExpect(jsonPath("$.status").value("Notification Service is running"));
+                .andExpect(jsonPath("$.status").value("Notification Service is running"))
+                .andExpect(jsonPath("$.smtp").value("UP"));
+    }
+
+    @Test
+    void healthCheck_FromDifferentHosts_ShouldLinkToEachRequestHost() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/api/notifications/health"))
+                .andExpect(jsonPath("$._links.self.href").value("http://localhost/api/notifications/health"))
+                .andExpect(jsonPath("$._links.send-custom-email.href").value("http://localhost/api/notifications/email"));
+        mockMvc.perform(get("https://api.example.com:8443/api/notifications/health"))
+                .andExpect(jsonPath("$._links.self.href").value("https://api.example.com:8443/api/notifications/health"))
+                .andExpect(jsonPath("$._links.send-welcome-email.href").value("https://api.example.com:8443/api/notifications/welcome"));
+    }
+
+    @Test
+    void sendCustomEmails_WithNdjson_ShouldStreamOneResultPerItem() throws Exception {
+        // Arrange
+        DeliveryHandle handle = new DeliveryHandle("test@example.com");
+        handle.getCompletion().complete(null);
+        when(emailService.sendCustomEmailAsync(anyString(), anyString(), anyString())).thenReturn(handle);
+        String body = objectMapper.writeValueAsString(new EmailRequest("test@example.com", "Subject", "Message")) + "\n"
+                + objectMapper.writeValueAsString(new EmailRequest("invalid-email", "Subject", "Message")) + "\n";
+
+        // Act
+        MvcResult result = mockMvc.perform(post("/api/notifications/email/batch")
+                        .contentType("application/x-ndjson")
+                        .content(body))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Assert
+        String[] lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"success\":true") && lines[0].contains(handle.getId()));
+        assertTrue(lines[1].contains("\"success\":false") && lines[1].contains("invalid-email"));
+    }
+
+    @Test
+    void sendCustomEmail_WithAsync_ShouldReturnAcceptedWithStatusLink() throws Exception {
+        // Arrange
+        EmailRequest request = new EmailRequest("test@example.com", "Test Subject", "Test Message");
+        DeliveryHandle handle = new DeliveryHandle("test@example.com");
+        when(emailService.sendCustomEmailAsync("test@example.com", "Test Subject", "Test Message",
+                OverflowPolicy.REJECT)).thenReturn(handle);
+
+        // Act & Assert
+        mockMvc.perform(post("/api/notifications/email")
+                        .param("async", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", containsString("/api/notifications/" + handle.getId())))
+                .andExpect(jsonPath("$.id").value(handle.getId()))
+                .andExpect(jsonPath("$.status").value("QUEUED"))
+                .andExpect(jsonPath("$._links.status.href").value(containsString(handle.getId())));
+        verify(emailService, never()).sendCustomEmail(anyString(), anyString(), anyString());
+
+        mockMvc.perform(get("/api/notifications/" + handle.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("QUEUED"))
+                .andExpect(jsonPath("$.email").value("test@example.com"));
+    }
+
+    @Test
+    void sendWelcomeEmail_WithAsyncWhenQueueRefuses_ShouldReturnServiceUnavailable() throws Exception {
+        // Arrange
+        WelcomeEmailRequest request = new WelcomeEmailRequest("test@example.com", "Test User");
+        DeliveryHandle handle = new DeliveryHandle("test@example.com");
+        ReflectionTestUtils.invokeMethod(handle, "markRejected", new DeliveryQueueFullException("Delivery queue is full"));
+        when(emailService.sendUserCreatedEmailAsync("test@example.com", "Test User", OverflowPolicy.REJECT))
+                .thenReturn(handle);
+
+        // Act & Assert
+        mockMvc.perform(post("/api/notifications/welcome")
+                        .param("async", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.status").value("FAILED"));
+    }
+
+    @Test
+    void sendWelcomeEmail_WithAsyncWhenSendFailsRightAway_ShouldStillReturnAccepted() throws Exception {
+        // Arrange - a worker picked the message up and SMTP failed before the response was written
+        WelcomeEmailRequest request = new WelcomeEmailRequest("test@example.com", "Test User");
+        DeliveryHandle handle = new DeliveryHandle("test@example.com");
+        ReflectionTestUtils.invokeMethod(handle, "markFailed", new MailSendException("Connection refused"));
+        when(emailService.sendUserCreatedEmailAsync("test@example.com", "Test User", OverflowPolicy.REJECT))
+                .thenReturn(handle);
+
+        // Act & Assert
+        mockMvc.perform(post("/api/notifications/welcome")
+                        .param("async", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status").value("FAILED"));
+
+        mockMvc.perform(get("/api/notifications/" + handle.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("FAILED"));
+    }
+
+    @Test
+    void sendWelcomeEmail_WithAsyncAndInvalidEmail_ShouldReturnBadRequest() throws Exception {
+        // Arrange
+        WelcomeEmailRequest request = new WelcomeEmailRequest("invalid-email", "Test User");
+
+        // Act & Assert
+        mockMvc.perform(post("/api/notifications/welcome")
+                        .param("async", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.success").value(false));
+        verifyNoInteractions(emailService);
+    }
+
+    @Test
+    void getNotificationStatus_WithUnknownId_ShouldReturnNotFound() throws Exception {
+        mockMvc.perform(get("/api/notifications/unknown-id"))
+                .andExpect(status().isNotFound());
     }
-}
\ No newline at end of file
+}
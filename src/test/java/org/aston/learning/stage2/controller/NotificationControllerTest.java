@@ -1,13 +1,18 @@
 package org.aston.learning.stage2.controller;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import org.aston.learning.stage2.dto.*;
+import org.aston.learning.stage2.mail.SmtpHealthIndicator;
 import org.aston.learning.stage2.service.EmailService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
@@ -21,6 +26,12 @@ class NotificationControllerTest {
     @Mock
     private EmailService emailService;
 
+    @Mock
+    private SmtpHealthIndicator smtpHealth;
+
+    @Spy
+    private NotificationLinks links = new NotificationLinks();
+
     @InjectMocks
     private NotificationController notificationController;
 
@@ -125,6 +136,7 @@ class NotificationControllerTest {
     void healthCheck_ShouldReturnOkStatusWithCurrentTimestamp() {
         // Arrange
         long beforeTest = System.currentTimeMillis();
+        when(smtpHealth.getStatus()).thenReturn(Status.UP);
 
         // Act
         ResponseEntity<HealthResponse> response = notificationController.healthCheck();
@@ -135,6 +147,38 @@ class NotificationControllerTest {
         assertEquals("Notification Service is running", response.getBody().getStatus());
         assertEquals("OK", response.getBody().getService());
         assertTrue(response.getBody().getTimestamp() >= beforeTest);
+        assertEquals("UP", response.getBody().getSmtp());
+    }
+
+    @Test
+    void healthCheck_WhenSmtpProbeFailed_ShouldReturnServiceUnavailable() {
+        // Arrange
+        when(smtpHealth.getStatus()).thenReturn(Status.DOWN);
+
+        // Act
+        ResponseEntity<HealthResponse> response = notificationController.healthCheck();
+
+        // Assert
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("DOWN", response.getBody().getService());
+        assertEquals("DOWN", response.getBody().getSmtp());
+    }
+
+    @Test
+    void sendWelcomeEmail_WhenCircuitIsOpen_ShouldReturnServiceUnavailable() {
+        // Arrange
+        CircuitBreaker circuitBreaker = CircuitBreaker.ofDefaults("smtp");
+        circuitBreaker.transitionToOpenState();
+        doThrow(CallNotPermittedException.createCallNotPermittedException(circuitBreaker))
+                .when(emailService).sendUserCreatedEmail(anyString(), anyString());
+
+        // Act
+        ResponseEntity<EmailResponse> response = notificationController.sendWelcomeEmail(validWelcomeRequest);
+
+        // Assert
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertFalse(response.getBody().isSuccess());
+        assertEquals("test@example.com", response.getBody().getEmail());
     }
 
     @Test
@@ -0,0 +1,81 @@
+package org.aston.learning.stage2.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.hateoas.Link;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+
+class NotificationLinksTest {
+
+    private final NotificationLinks links = new NotificationLinks();
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private void bindRequest(String scheme, String host, int port, String contextPath) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", contextPath + "/api/notifications/health");
+        request.setScheme(scheme);
+        request.setServerName(host);
+        request.setServerPort(port);
+        request.setContextPath(contextPath);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    // Compares what HAL renders: href, rel and templating (linkTo also attaches affordances, which HAL ignores)
+    private void assertSameHal(Link expected, Link actual) {
+        assertEquals(expected.getHref(), actual.getHref());
+        assertEquals(expected.getRel(), actual.getRel());
+        assertEquals(expected.isTemplated(), actual.isTemplated());
+    }
+
+    private void assertSameLinksAsLinkTo() {
+        assertSameHal(linkTo(methodOn(NotificationController.class).healthCheck()).withRel("health-check"),
+                links.healthCheck("health-check"));
+        assertSameHal(linkTo(methodOn(NotificationController.class).sendCustomEmail(null)).withRel("send-custom-email"),
+                links.sendCustomEmail("send-custom-email"));
+        assertSameHal(linkTo(methodOn(NotificationController.class).sendWelcomeEmail(null)).withSelfRel(),
+                links.sendWelcomeEmail("self"));
+        String id = "3f2504e0-4f89-11d3-9a0c-0305e82c3301";
+        assertSameHal(linkTo(methodOn(NotificationController.class).getNotificationStatus(id)).withRel("status"),
+                links.notificationStatus(id, "status"));
+    }
+
+    @Test
+    void links_ShouldMatchLinkToForEachBaseUri() {
+        bindRequest("http", "localhost", 80, "");
+        assertSameLinksAsLinkTo();
+
+        bindRequest("https", "api.example.com", 8443, "/notifications");
+        assertSameLinksAsLinkTo();
+
+        // Served from the cache the second time round
+        bindRequest("http", "localhost", 80, "");
+        assertSameLinksAsLinkTo();
+        assertEquals(2, links.cachedBaseUris());
+    }
+
+    @Test
+    void links_WithoutRequest_ShouldMatchLinkTo() {
+        assertSameLinksAsLinkTo();
+    }
+
+    @Test
+    void links_WithManyHosts_ShouldStopCachingAtLimit() {
+        // Act
+        for (int i = 0; i < NotificationLinks.MAX_CACHED_BASE_URIS + 10; i++) {
+            bindRequest("http", "host" + i + ".example.com", 80, "");
+            Link link = links.healthCheck("health-check");
+            assertEquals("http://host" + i + ".example.com/api/notifications/health", link.getHref());
+        }
+
+        // Assert
+        assertEquals(NotificationLinks.MAX_CACHED_BASE_URIS, links.cachedBaseUris());
+    }
+}
@@ -0,0 +1,153 @@
+package org.aston.learning.stage2.dedup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.event.UserEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserEventDeduplicatorTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserEventDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        deduplicator = createDeduplicator(3_600_000L, 1000);
+    }
+
+    private UserEventDeduplicator createDeduplicator(long windowMs, int maxEntries) {
+        UserEventDeduplicator created = new UserEventDeduplicator();
+        ReflectionTestUtils.setField(created, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(created, "enabled", true);
+        ReflectionTestUtils.setField(created, "windowMs", windowMs);
+        ReflectionTestUtils.setField(created, "maxEntries", maxEntries);
+        created.start();
+        return created;
+    }
+
+    @Test
+    void markIfFirst_WithRedeliveredEvent_ShouldReportDuplicate() {
+        // Arrange
+        UserEvent event = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+
+        // Act & Assert
+        assertTrue(deduplicator.markIfFirst(event));
+        assertFalse(deduplicator.markIfFirst(event));
+        assertEquals(1.0, meterRegistry.counter("notification.dedup.hits").count());
+        assertEquals(1.0, meterRegistry.counter("notification.dedup.misses").count());
+    }
+
+    @Test
+    void markIfFirst_WithoutEventId_ShouldUseTypeEmailAndTimestamp() {
+        // Arrange
+        LocalDateTime timestamp = LocalDateTime.of(2024, 3, 1, 12, 0);
+        UserEvent first = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        first.setEventId(null);
+        first.setTimestamp(timestamp);
+        UserEvent redelivered = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        redelivered.setEventId(null);
+        redelivered.setTimestamp(timestamp);
+        UserEvent deleted = new UserEvent("USER_DELETED", "test@example.com", "Test User");
+        deleted.setEventId(null);
+        deleted.setTimestamp(timestamp);
+
+        // Act & Assert
+        assertTrue(deduplicator.markIfFirst(first));
+        assertFalse(deduplicator.markIfFirst(redelivered));
+        assertTrue(deduplicator.markIfFirst(deleted));
+    }
+
+    @Test
+    void markIfFirst_WithoutEventIdAndTimestamp_ShouldAlwaysProcess() {
+        // Arrange
+        UserEvent event = new UserEvent();
+        event.setEventType("USER_CREATED");
+        event.setEmail("test@example.com");
+
+        // Act & Assert
+        assertTrue(deduplicator.markIfFirst(event));
+        assertTrue(deduplicator.markIfFirst(event));
+        assertEquals(0, deduplicator.size());
+    }
+
+    @Test
+    void forget_AfterFailedDelivery_ShouldLetRedeliveryThrough() {
+        // Arrange
+        UserEvent event = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        deduplicator.markIfFirst(event);
+
+        // Act
+        deduplicator.forget(event);
+
+        // Assert
+        assertTrue(deduplicator.markIfFirst(event));
+    }
+
+    @Test
+    void markIfFirst_AfterWindowElapsed_ShouldProcessAgain() throws InterruptedException {
+        // Arrange
+        deduplicator = createDeduplicator(50, 1000);
+        UserEvent event = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        deduplicator.markIfFirst(event);
+
+        // Act
+        Thread.sleep(120);
+
+        // Assert
+        assertTrue(deduplicator.markIfFirst(event));
+    }
+
+    @Test
+    void markIfFirst_WhenCacheIsFull_ShouldStayBoundedAndCountEvictions() {
+        // Arrange
+        deduplicator = createDeduplicator(3_600_000L, 100);
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            UserEvent event = new UserEvent("USER_CREATED", "user" + i + "@example.com", "User " + i);
+            deduplicator.markIfFirst(event);
+        }
+
+        // Assert
+        assertTrue(deduplicator.size() <= 100);
+        assertTrue(meterRegistry.counter("notification.dedup.evictions").count() > 0);
+    }
+
+    @Test
+    void markIfFirst_FromConcurrentConsumers_ShouldLetExactlyOneThrough() throws InterruptedException {
+        // Arrange
+        UserEvent event = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+
+        // Act
+        for (int i = 0; i < threads; i++) {
+            executor.submit(() -> {
+                start.await();
+                if (deduplicator.markIfFirst(event)) {
+                    processed.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(1, processed.get());
+    }
+}
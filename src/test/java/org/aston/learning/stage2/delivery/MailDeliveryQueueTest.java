@@ -0,0 +1,364 @@
+package org.aston.learning.stage2.delivery;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.ratelimit.SendRateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailDeliveryQueueTest {
+
+    private MailDeliveryQueue deliveryQueue;
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private MailDeliveryQueue createQueue(int capacity, int workers, OverflowPolicy policy) {
+        return createQueue(capacity, workers, policy, createRateLimiter(false, 0));
+    }
+
+    private MailDeliveryQueue createQueue(int capacity, int workers, OverflowPolicy policy,
+                                          SendRateLimiter rateLimiter) {
+        MailDeliveryQueue queue = new MailDeliveryQueue();
+        ReflectionTestUtils.setField(queue, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(queue, "rateLimiter", rateLimiter);
+        ReflectionTestUtils.setField(queue, "capacity", capacity);
+        ReflectionTestUtils.setField(queue, "workers", workers);
+        ReflectionTestUtils.setField(queue, "overflowPolicy", policy);
+        ReflectionTestUtils.setField(queue, "transactionalWeight", 4);
+        ReflectionTestUtils.setField(queue, "bulkWeight", 1);
+        ReflectionTestUtils.setField(queue, "latencySlo", List.of(Duration.ofSeconds(1)));
+        ReflectionTestUtils.setField(queue, "blockTimeoutMs", 50L);
+        ReflectionTestUtils.setField(queue, "shutdownTimeoutMs", 1000L);
+        queue.start();
+        return queue;
+    }
+
+    private SendRateLimiter createRateLimiter(boolean enabled, double relayPerSecond) {
+        SendRateLimiter rateLimiter = new SendRateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(rateLimiter, "enabled", enabled);
+        ReflectionTestUtils.setField(rateLimiter, "relayPerSecond", relayPerSecond);
+        ReflectionTestUtils.setField(rateLimiter, "domainPerSecond", 0.0);
+        ReflectionTestUtils.setField(rateLimiter, "burst", 1);
+        ReflectionTestUtils.setField(rateLimiter, "stripes", 16);
+        ReflectionTestUtils.setField(rateLimiter, "domainRates", List.of());
+        ReflectionTestUtils.setField(rateLimiter, "relays", List.of());
+        rateLimiter.init();
+        return rateLimiter;
+    }
+
+    private SimpleMailMessage message(String to) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setTo(to);
+        return message;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (deliveryQueue != null) {
+            deliveryQueue.shutdown();
+        }
+    }
+
+    @Test
+    void submit_ShouldDeliverOnWorkerThreadAndCompleteHandle() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+        String callerThread = Thread.currentThread().getName();
+        String[] deliveryThread = new String[1];
+
+        // Act
+        DeliveryHandle handle = deliveryQueue.submit(message("test@example.com"),
+                m -> deliveryThread[0] = Thread.currentThread().getName());
+        handle.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(DeliveryStatus.SENT, handle.getStatus());
+        assertEquals("test@example.com", handle.getRecipient());
+        assertNotEquals(callerThread, deliveryThread[0]);
+    }
+
+    @Test
+    void submit_WhenDeliveryFails_ShouldCompleteHandleExceptionally() {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+
+        // Act
+        DeliveryHandle handle = deliveryQueue.submit(message("test@example.com"), m -> {
+            throw new RuntimeException("SMTP down");
+        });
+
+        // Assert
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> handle.getCompletion().get(5, TimeUnit.SECONDS));
+        assertEquals("SMTP down", exception.getCause().getMessage());
+        assertEquals(DeliveryStatus.FAILED, handle.getStatus());
+    }
+
+    @Test
+    void submit_WhenQueueIsFullAndPolicyIsReject_ShouldFailImmediately() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(1, 1, OverflowPolicy.REJECT);
+        CountDownLatch release = new CountDownLatch(1);
+        Consumer<SimpleMailMessage> blocking = m -> awaitQuietly(release);
+        deliveryQueue.submit(message("first@example.com"), blocking);
+        awaitInFlight(1);
+        deliveryQueue.submit(message("second@example.com"), blocking);
+
+        // Act
+        DeliveryHandle rejected = deliveryQueue.submit(message("third@example.com"), blocking);
+
+        // Assert
+        assertEquals(1, deliveryQueue.getQueueDepth());
+        assertEquals(DeliveryStatus.FAILED, rejected.getStatus());
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> rejected.getCompletion().get());
+        assertInstanceOf(DeliveryQueueFullException.class, exception.getCause());
+        release.countDown();
+    }
+
+    @Test
+    void submit_WhenQueueIsFullAndPolicyIsCallerRuns_ShouldDeliverOnCallerThread() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(1, 1, OverflowPolicy.CALLER_RUNS);
+        CountDownLatch release = new CountDownLatch(1);
+        Consumer<SimpleMailMessage> blocking = m -> awaitQuietly(release);
+        deliveryQueue.submit(message("first@example.com"), blocking);
+        awaitInFlight(1);
+        deliveryQueue.submit(message("second@example.com"), blocking);
+        String[] deliveryThread = new String[1];
+
+        // Act
+        DeliveryHandle handle = deliveryQueue.submit(message("third@example.com"),
+                m -> deliveryThread[0] = Thread.currentThread().getName());
+
+        // Assert
+        assertEquals(DeliveryStatus.SENT, handle.getStatus());
+        assertEquals(Thread.currentThread().getName(), deliveryThread[0]);
+        release.countDown();
+    }
+
+    @Test
+    void shutdown_ShouldDrainQueuedMessagesBeforeStopping() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+        DeliveryHandle first = deliveryQueue.submit(message("first@example.com"), m -> sleepQuietly(50));
+        DeliveryHandle second = deliveryQueue.submit(message("second@example.com"), m -> { });
+
+        // Act
+        deliveryQueue.shutdown();
+        DeliveryHandle afterShutdown = deliveryQueue.submit(message("third@example.com"), m -> { });
+        deliveryQueue = null;
+
+        // Assert
+        assertEquals(DeliveryStatus.SENT, first.getStatus());
+        assertEquals(DeliveryStatus.SENT, second.getStatus());
+        assertEquals(DeliveryStatus.FAILED, afterShutdown.getStatus());
+    }
+
+    @Test
+    void shutdown_WhenWorkerIsStuckPastTimeout_ShouldInterruptItAndFailTheRest() throws Exception {
+        // Arrange - the relay never answers the first send
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        DeliveryHandle stuck = deliveryQueue.submit(message("stuck@example.com"), m -> {
+            worker.set(Thread.currentThread());
+            awaitQuietly(new CountDownLatch(1));
+            throw new IllegalStateException("SMTP send interrupted");
+        });
+        awaitInFlight(1);
+        DeliveryHandle waiting = deliveryQueue.submit(message("waiting@example.com"), m -> { });
+
+        // Act
+        deliveryQueue.shutdown();
+        deliveryQueue = null;
+
+        // Assert
+        assertEquals(DeliveryStatus.FAILED, waiting.getStatus());
+        worker.get().join(5000);
+        assertFalse(worker.get().isAlive());
+        assertEquals(DeliveryStatus.FAILED, stuck.getStatus());
+    }
+
+    @Test
+    void submit_WhenRateLimited_ShouldDeferMessagesWithoutBlockingWorkers() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT, createRateLimiter(true, 20));
+        List<Long> sentAt = new CopyOnWriteArrayList<>();
+        Consumer<SimpleMailMessage> recording = m -> sentAt.add(System.nanoTime());
+
+        // Act
+        List<DeliveryHandle> handles = List.of(
+                deliveryQueue.submit(message("first@example.com"), recording),
+                deliveryQueue.submit(message("second@example.com"), recording),
+                deliveryQueue.submit(message("third@example.com"), recording));
+        for (DeliveryHandle handle : handles) {
+            handle.getCompletion().get(5, TimeUnit.SECONDS);
+        }
+
+        // Assert
+        assertEquals(3, sentAt.size());
+        assertTrue(sentAt.get(2) - sentAt.get(0) >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertEquals(0, deliveryQueue.getDeferredCount());
+        assertEquals(2, meterRegistry.timer("notification.ratelimit.wait").count());
+    }
+
+    @Test
+    void submit_WithBothLanesBacklogged_ShouldServeTransactionalByWeight() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+        CountDownLatch release = new CountDownLatch(1);
+        deliveryQueue.submit(message("blocker@example.com"), DeliveryLane.BULK, m -> awaitQuietly(release));
+        awaitInFlight(1);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        List<DeliveryHandle> handles = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            handles.add(deliveryQueue.submit(message("bulk" + i + "@example.com"), DeliveryLane.BULK,
+                    m -> order.add("B")));
+        }
+        for (int i = 0; i < 5; i++) {
+            handles.add(deliveryQueue.submit(message("account" + i + "@example.com"), DeliveryLane.TRANSACTIONAL,
+                    m -> order.add("T")));
+        }
+        assertEquals(5, deliveryQueue.getQueueDepth(DeliveryLane.TRANSACTIONAL));
+
+        // Act
+        release.countDown();
+        for (DeliveryHandle handle : handles) {
+            handle.getCompletion().get(5, TimeUnit.SECONDS);
+        }
+
+        // Assert - bulk arrived first, yet four of the first five sends are transactional
+        assertEquals(4, order.subList(0, 5).stream().filter("T"::equals).count());
+        assertEquals(10, order.size());
+        assertEquals(5, meterRegistry.timer("notification.delivery.latency", "lane", "TRANSACTIONAL").count());
+        assertEquals(6, meterRegistry.timer("notification.delivery.latency", "lane", "BULK").count());
+    }
+
+    @Test
+    void submit_WhenBulkLaneIsFull_ShouldStillAcceptTransactional() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(1, 1, OverflowPolicy.REJECT);
+        CountDownLatch release = new CountDownLatch(1);
+        Consumer<SimpleMailMessage> blocking = m -> awaitQuietly(release);
+        deliveryQueue.submit(message("first@example.com"), DeliveryLane.BULK, blocking);
+        awaitInFlight(1);
+        deliveryQueue.submit(message("second@example.com"), DeliveryLane.BULK, blocking);
+
+        // Act
+        DeliveryHandle rejected = deliveryQueue.submit(message("third@example.com"), DeliveryLane.BULK, blocking);
+        DeliveryHandle accepted = deliveryQueue.submit(message("account@example.com"), DeliveryLane.TRANSACTIONAL, m -> { });
+
+        // Assert
+        assertEquals(DeliveryStatus.FAILED, rejected.getStatus());
+        assertNotEquals(DeliveryStatus.FAILED, accepted.getStatus());
+        assertEquals(1.0, meterRegistry.counter("notification.queue.rejected", "lane", "BULK").count());
+        release.countDown();
+        accepted.getCompletion().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void submit_WhenDeliveryIsDeferred_ShouldParkAndRetryLater() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+        List<Long> attempts = new CopyOnWriteArrayList<>();
+
+        // Act
+        DeliveryHandle handle = deliveryQueue.submit(message("user@example.com"), DeliveryLane.TRANSACTIONAL, m -> {
+            attempts.add(System.nanoTime());
+            if (attempts.size() == 1) {
+                throw new DeliveryDeferredException("Relay unavailable", 100, TimeUnit.MILLISECONDS);
+            }
+        });
+        handle.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Assert - the parked attempt is neither a failure nor a latency sample
+        assertEquals(DeliveryStatus.SENT, handle.getStatus());
+        assertEquals(2, attempts.size());
+        assertTrue(attempts.get(1) - attempts.get(0) >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, meterRegistry.timer("notification.delivery.latency", "lane", "TRANSACTIONAL").count());
+    }
+
+    @Test
+    void cancel_WhenMessageIsStillQueued_ShouldNeverDeliverIt() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+        CountDownLatch release = new CountDownLatch(1);
+        DeliveryHandle blocker = deliveryQueue.submit(message("blocker@example.com"), m -> awaitQuietly(release));
+        awaitInFlight(1);
+        AtomicInteger delivered = new AtomicInteger();
+        DeliveryHandle queued = deliveryQueue.submit(message("user@example.com"), m -> delivered.incrementAndGet());
+
+        // Act
+        boolean cancelled = queued.cancel();
+        release.countDown();
+        blocker.getCompletion().get(5, TimeUnit.SECONDS);
+        DeliveryHandle next = deliveryQueue.submit(message("next@example.com"), m -> { });
+        next.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertTrue(cancelled);
+        assertEquals(0, delivered.get());
+        assertEquals(DeliveryStatus.FAILED, queued.getStatus());
+        assertFalse(blocker.cancel());
+    }
+
+    @Test
+    void getDeferredCount_ShouldCountParkedMessagesPerLane() throws Exception {
+        // Arrange
+        deliveryQueue = createQueue(10, 1, OverflowPolicy.REJECT);
+        Consumer<SimpleMailMessage> parking = m -> {
+            throw new DeliveryDeferredException("Relay unavailable", 2, TimeUnit.SECONDS);
+        };
+
+        // Act
+        deliveryQueue.submit(message("account@example.com"), DeliveryLane.TRANSACTIONAL, parking);
+        deliveryQueue.submit(message("bulk1@example.com"), DeliveryLane.BULK, parking);
+        deliveryQueue.submit(message("bulk2@example.com"), DeliveryLane.BULK, parking);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (deliveryQueue.getDeferredCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        // Assert
+        assertEquals(3, deliveryQueue.getDeferredCount());
+        assertEquals(1, deliveryQueue.getDeferredCount(DeliveryLane.TRANSACTIONAL));
+        assertEquals(2, deliveryQueue.getDeferredCount(DeliveryLane.BULK));
+    }
+
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (deliveryQueue.getInFlightCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.aston.learning.stage2.delivery;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.ratelimit.SendRateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailDigestBufferTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<SimpleMailMessage> delivered = new CopyOnWriteArrayList<>();
+    private final List<List<SimpleMailMessage>> composed = new CopyOnWriteArrayList<>();
+    private MailDeliveryQueue deliveryQueue;
+    private MailDigestBuffer digestBuffer;
+
+    @BeforeEach
+    void setUp() {
+        SendRateLimiter rateLimiter = new SendRateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(rateLimiter, "enabled", false);
+        ReflectionTestUtils.setField(rateLimiter, "relayPerSecond", 0.0);
+        ReflectionTestUtils.setField(rateLimiter, "domainPerSecond", 0.0);
+        ReflectionTestUtils.setField(rateLimiter, "burst", 1);
+        ReflectionTestUtils.setField(rateLimiter, "stripes", 16);
+        ReflectionTestUtils.setField(rateLimiter, "domainRates", List.of());
+        ReflectionTestUtils.setField(rateLimiter, "relays", List.of());
+        rateLimiter.init();
+
+        deliveryQueue = new MailDeliveryQueue();
+        ReflectionTestUtils.setField(deliveryQueue, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(deliveryQueue, "rateLimiter", rateLimiter);
+        ReflectionTestUtils.setField(deliveryQueue, "capacity", 10);
+        ReflectionTestUtils.setField(deliveryQueue, "workers", 1);
+        ReflectionTestUtils.setField(deliveryQueue, "overflowPolicy", OverflowPolicy.REJECT);
+        ReflectionTestUtils.setField(deliveryQueue, "transactionalWeight", 4);
+        ReflectionTestUtils.setField(deliveryQueue, "bulkWeight", 1);
+        ReflectionTestUtils.setField(deliveryQueue, "latencySlo", List.of(Duration.ofSeconds(1)));
+        ReflectionTestUtils.setField(deliveryQueue, "shutdownTimeoutMs", 1000L);
+        deliveryQueue.start();
+
+        digestBuffer = createBuffer(List.of("CUSTOM"), 3, 10);
+    }
+
+    // A one hour window keeps the flusher thread idle; tests close windows with flushDue
+    private MailDigestBuffer createBuffer(List<String> types, int maxMessages, int maxRecipients) {
+        MailDigestBuffer buffer = new MailDigestBuffer();
+        ReflectionTestUtils.setField(buffer, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(buffer, "deliveryQueue", deliveryQueue);
+        ReflectionTestUtils.setField(buffer, "types", types);
+        ReflectionTestUtils.setField(buffer, "windowMs", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(buffer, "maxMessages", maxMessages);
+        ReflectionTestUtils.setField(buffer, "maxRecipients", maxRecipients);
+        buffer.start();
+        buffer.register(messages -> {
+            composed.add(messages);
+            return message(messages.get(0).getTo()[0], "Digest of " + messages.size());
+        }, delivered::add);
+        return buffer;
+    }
+
+    @AfterEach
+    void tearDown() {
+        digestBuffer.shutdown();
+        deliveryQueue.shutdown();
+    }
+
+    private SimpleMailMessage message(String to, String subject) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setTo(to);
+        message.setSubject(subject);
+        return message;
+    }
+
+    private long afterWindow() {
+        return System.nanoTime() + TimeUnit.HOURS.toNanos(2);
+    }
+
+    @Test
+    void add_ShouldMergeMessagesForSameRecipientIntoOneEmail() throws Exception {
+        // Arrange
+        AtomicInteger completed = new AtomicInteger();
+
+        // Act
+        DeliveryHandle first = digestBuffer.add(message("user@example.com", "One"), DeliveryLane.BULK,
+                completed::incrementAndGet);
+        DeliveryHandle second = digestBuffer.add(message("USER@example.com", "Two"), DeliveryLane.BULK,
+                completed::incrementAndGet);
+        digestBuffer.flushDue(System.nanoTime());
+        assertTrue(delivered.isEmpty());
+        digestBuffer.flushDue(afterWindow());
+        second.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(1, delivered.size());
+        assertEquals("Digest of 2", delivered.get(0).getSubject());
+        assertEquals(List.of("One", "Two"), composed.get(0).stream().map(SimpleMailMessage::getSubject).toList());
+        assertEquals(DeliveryStatus.SENT, first.getStatus());
+        assertEquals(DeliveryStatus.SENT, second.getStatus());
+        assertNotEquals(first.getId(), second.getId());
+        assertEquals(2, completed.get());
+        assertEquals(2.0, meterRegistry.counter("notification.digest.merged").count());
+        assertEquals(0, digestBuffer.getOpenCount());
+    }
+
+    @Test
+    void add_WithTransactionalMessageInDigest_ShouldSendDigestInTransactionalLane() throws Exception {
+        // Act
+        digestBuffer.add(message("user@example.com", "One"), DeliveryLane.BULK, () -> { });
+        DeliveryHandle second = digestBuffer.add(message("user@example.com", "Two"), DeliveryLane.TRANSACTIONAL,
+                () -> { });
+        digestBuffer.flushDue(afterWindow());
+        second.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(1, meterRegistry.timer("notification.delivery.latency", "lane", "TRANSACTIONAL").count());
+        assertEquals(0, meterRegistry.timer("notification.delivery.latency", "lane", "BULK").count());
+    }
+
+    @Test
+    void add_WhenMaxMessagesReached_ShouldSendWithoutWaitingForWindow() throws Exception {
+        // Act
+        digestBuffer.add(message("user@example.com", "One"), DeliveryLane.BULK, () -> { });
+        digestBuffer.add(message("user@example.com", "Two"), DeliveryLane.BULK, () -> { });
+        DeliveryHandle last = digestBuffer.add(message("user@example.com", "Three"), DeliveryLane.BULK, () -> { });
+        last.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(1, delivered.size());
+        assertEquals("Digest of 3", delivered.get(0).getSubject());
+        assertEquals(0, digestBuffer.getOpenCount());
+    }
+
+    @Test
+    void add_WithSingleMessageInWindow_ShouldSendItUnchanged() throws Exception {
+        // Arrange
+        SimpleMailMessage only = message("user@example.com", "Only");
+
+        // Act
+        DeliveryHandle handle = digestBuffer.add(only, DeliveryLane.BULK, () -> { });
+        digestBuffer.flushDue(afterWindow());
+        handle.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertSame(only, delivered.get(0));
+        assertTrue(composed.isEmpty());
+    }
+
+    @Test
+    void add_WhenDeliveryFails_ShouldFailEveryContributingHandle() {
+        // Arrange
+        digestBuffer.register(messages -> message("user@example.com", "Digest"), message -> {
+            throw new IllegalStateException("SMTP down");
+        });
+
+        // Act
+        DeliveryHandle first = digestBuffer.add(message("user@example.com", "One"), DeliveryLane.BULK, () -> { });
+        DeliveryHandle second = digestBuffer.add(message("user@example.com", "Two"), DeliveryLane.BULK, () -> { });
+        digestBuffer.flushDue(afterWindow());
+
+        // Assert
+        assertThrows(Exception.class, () -> second.getCompletion().get(5, TimeUnit.SECONDS));
+        assertEquals(DeliveryStatus.FAILED, first.getStatus());
+        assertEquals("SMTP down", first.getFailureReason());
+    }
+
+    @Test
+    void add_WhenDigestIsParked_ShouldNotCompleteEntriesUntilItIsSent() throws Exception {
+        // Arrange - the relay's circuit stays open for the first attempts
+        AtomicInteger attempts = new AtomicInteger();
+        digestBuffer.register(messages -> message("user@example.com", "Digest"), message -> {
+            if (attempts.incrementAndGet() <= 2) {
+                throw new DeliveryDeferredException("SMTP circuit breaker is open", 200, TimeUnit.MILLISECONDS);
+            }
+            delivered.add(message);
+        });
+        AtomicInteger completed = new AtomicInteger();
+
+        // Act
+        DeliveryHandle first = digestBuffer.add(message("user@example.com", "One"), DeliveryLane.BULK,
+                completed::incrementAndGet);
+        DeliveryHandle second = digestBuffer.add(message("user@example.com", "Two"), DeliveryLane.BULK,
+                completed::incrementAndGet);
+        digestBuffer.flushDue(afterWindow());
+        while (attempts.get() < 1) {
+            Thread.sleep(5);
+        }
+
+        // Assert - parked, so the journal entries stay pending
+        assertEquals(0, completed.get());
+        assertNotEquals(DeliveryStatus.FAILED, first.getStatus());
+        second.getCompletion().get(5, TimeUnit.SECONDS);
+        assertEquals(3, attempts.get());
+        assertEquals(2, completed.get());
+        assertEquals(DeliveryStatus.SENT, first.getStatus());
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    void flushDue_WhenLaneIsFull_ShouldParkDigestForNextFlushInsteadOfSendingItHere() throws Exception {
+        // Arrange - the only worker is busy and the bulk lane is full behind it
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        deliveryQueue.submit(message("blocker@example.com", "Blocker"), DeliveryLane.BULK, message -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            deliveryQueue.submit(message("filler@example.com", "Filler"), DeliveryLane.BULK, message -> { });
+        }
+        AtomicInteger completed = new AtomicInteger();
+        DeliveryHandle first = digestBuffer.add(message("user@example.com", "One"), DeliveryLane.BULK,
+                completed::incrementAndGet);
+        DeliveryHandle second = digestBuffer.add(message("user@example.com", "Two"), DeliveryLane.BULK,
+                completed::incrementAndGet);
+
+        // Act
+        digestBuffer.flushDue(afterWindow());
+
+        // Assert - not sent on this thread, not failed, and its journal entries stay pending
+        assertTrue(delivered.isEmpty());
+        assertEquals(0, completed.get());
+        assertEquals(DeliveryStatus.QUEUED, first.getStatus());
+        assertEquals(1, digestBuffer.getOpenCount());
+
+        release.countDown();
+        while (deliveryQueue.getQueueDepth() > 0 || deliveryQueue.getInFlightCount() > 0) {
+            Thread.sleep(5);
+        }
+        digestBuffer.flushDue(afterWindow());
+        second.getCompletion().get(5, TimeUnit.SECONDS);
+        assertEquals(1, delivered.size());
+        assertEquals(List.of("One", "Two"), composed.get(composed.size() - 1).stream()
+                .map(SimpleMailMessage::getSubject).toList());
+        assertEquals(2, completed.get());
+        assertEquals(DeliveryStatus.SENT, first.getStatus());
+    }
+
+    @Test
+    void add_WhenBufferIsFull_ShouldReturnNull() {
+        // Arrange
+        digestBuffer.shutdown();
+        digestBuffer = createBuffer(List.of("CUSTOM"), 3, 1);
+        digestBuffer.add(message("first@example.com", "One"), DeliveryLane.BULK, () -> { });
+
+        // Act
+        DeliveryHandle handle = digestBuffer.add(message("second@example.com", "Two"), DeliveryLane.BULK, () -> { });
+
+        // Assert
+        assertNull(handle);
+        assertEquals(1.0, meterRegistry.counter("notification.digest.bypassed").count());
+    }
+
+    @Test
+    void isDigested_ShouldOnlyMatchConfiguredTypes() {
+        // Arrange
+        MailDigestBuffer disabled = createBuffer(List.of(), 3, 10);
+
+        // Act & Assert
+        assertTrue(digestBuffer.isDigested("CUSTOM"));
+        assertFalse(digestBuffer.isDigested("USER_CREATED"));
+        assertFalse(disabled.isDigested("CUSTOM"));
+    }
+}
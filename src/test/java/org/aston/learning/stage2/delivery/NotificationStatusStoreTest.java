@@ -0,0 +1,63 @@
+package org.aston.learning.stage2.delivery;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationStatusStoreTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private NotificationStatusStore statusStore;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        statusStore = new NotificationStatusStore();
+        ReflectionTestUtils.setField(statusStore, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(statusStore, "maxEntries", 2);
+        statusStore.init();
+    }
+
+    @Test
+    void find_ShouldReturnRegisteredHandleWithLiveStatus() {
+        // Arrange
+        DeliveryHandle handle = new DeliveryHandle("test@example.com");
+        statusStore.register(handle);
+
+        // Act
+        handle.markFailed(new RuntimeException("SMTP down"));
+        DeliveryHandle found = statusStore.find(handle.getId());
+
+        // Assert
+        assertSame(handle, found);
+        assertEquals(DeliveryStatus.FAILED, found.getStatus());
+        assertEquals("SMTP down", found.getFailureReason());
+    }
+
+    @Test
+    void register_WhenFull_ShouldEvictOldestEntry() {
+        // Arrange
+        DeliveryHandle first = new DeliveryHandle("first@example.com");
+        DeliveryHandle second = new DeliveryHandle("second@example.com");
+        DeliveryHandle third = new DeliveryHandle("third@example.com");
+
+        // Act
+        statusStore.register(first);
+        statusStore.register(second);
+        statusStore.register(third);
+
+        // Assert
+        assertNull(statusStore.find(first.getId()));
+        assertSame(second, statusStore.find(second.getId()));
+        assertSame(third, statusStore.find(third.getId()));
+        assertEquals(2, meterRegistry.get("notification.status.entries").gauge().value());
+    }
+
+    @Test
+    void find_WithUnknownId_ShouldReturnNull() {
+        assertNull(statusStore.find("missing"));
+    }
+}
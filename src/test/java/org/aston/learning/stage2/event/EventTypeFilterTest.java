@@ -0,0 +1,75 @@
+package org.aston.learning.stage2.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventTypeFilterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private EventTypeFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new EventTypeFilter(List.of("USER_CREATED", "USER_DELETED"), "eventType", meterRegistry);
+    }
+
+    private boolean accepts(String json) {
+        return filter.accepts(new RecordHeaders(), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void accepts_WithHandledTypeInPayload_ShouldLetRecordThrough() {
+        // Act & Assert
+        assertTrue(accepts("{\"email\":\"test@example.com\",\"eventType\":\"USER_CREATED\"}"));
+        assertTrue(accepts("{ \"eventType\" : \"USER_DELETED\" }"));
+    }
+
+    @Test
+    void accepts_WithUnhandledTypeInPayload_ShouldDropRecordAndCountIt() {
+        // Act & Assert
+        assertFalse(accepts("{\"eventType\":\"PROFILE_VIEWED\",\"email\":\"test@example.com\"}"));
+        assertFalse(accepts("{\"eventType\":\"USER_CREATED_V2\"}"));
+        assertEquals(2.0, meterRegistry.counter("notification.events.filtered", "source", "payload").count());
+    }
+
+    @Test
+    void accepts_ShouldOnlyLookAtTopLevelEventTypeKey() {
+        // Act & Assert
+        assertTrue(accepts("{\"meta\":{\"eventType\":\"PROFILE_VIEWED\"},\"eventType\":\"USER_CREATED\"}"));
+        assertTrue(accepts("{\"userName\":\"eventType\",\"note\":\"\\\"eventType\\\":\\\"X\\\"\","
+                + "\"eventType\":\"USER_CREATED\"}"));
+    }
+
+    @Test
+    void accepts_WhenTypeCannotBeDetermined_ShouldLeaveDecisionToDeserializer() {
+        // Act & Assert
+        assertTrue(accepts("{\"email\":\"test@example.com\"}"));
+        assertTrue(accepts("{\"eventType\":null}"));
+        assertTrue(accepts("{\"eventType\":\"USER\\u005fCREATED\"}"));
+        assertTrue(accepts("not json"));
+        assertTrue(filter.accepts(new RecordHeaders(), null));
+    }
+
+    @Test
+    void accepts_WithTypeHeader_ShouldTrustHeaderOverPayload() {
+        // Arrange
+        RecordHeaders profileViewed = new RecordHeaders();
+        profileViewed.add("eventType", "PROFILE_VIEWED".getBytes(StandardCharsets.UTF_8));
+        RecordHeaders userCreated = new RecordHeaders();
+        userCreated.add("eventType", "USER_CREATED".getBytes(StandardCharsets.UTF_8));
+        byte[] payload = "{\"eventType\":\"USER_CREATED\"}".getBytes(StandardCharsets.UTF_8);
+
+        // Act & Assert
+        assertFalse(filter.accepts(profileViewed, payload));
+        assertTrue(filter.accepts(userCreated, payload));
+        assertEquals(1.0, meterRegistry.counter("notification.events.filtered", "source", "header").count());
+    }
+}
@@ -0,0 +1,138 @@
+package org.aston.learning.stage2.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserEventDeserializerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserEventDeserializer deserializer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        deserializer = new UserEventDeserializer(meterRegistry);
+    }
+
+    private UserEvent deserialize(String json) {
+        return deserializer.deserialize("user-events", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void deserialize_WithPayloadFromJsonSerializer_ShouldRestoreAllFields() {
+        // Arrange
+        UserEvent original = new UserEvent("USER_CREATED", "test@example.com", "Test User");
+        byte[] payload;
+        try (JsonSerializer<UserEvent> serializer = new JsonSerializer<>()) {
+            payload = serializer.serialize("user-events", new RecordHeaders(), original);
+        }
+
+        // Act
+        UserEvent event = deserializer.deserialize("user-events", payload);
+
+        // Assert
+        assertEquals(original.getEventId(), event.getEventId());
+        assertEquals("USER_CREATED", event.getEventType());
+        assertEquals("test@example.com", event.getEmail());
+        assertEquals("Test User", event.getUserName());
+        assertEquals(original.getTimestamp(), event.getTimestamp());
+    }
+
+    @Test
+    void deserialize_WithIsoTimestamp_ShouldParseIt() throws Exception {
+        // Arrange
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        UserEvent original = new UserEvent("USER_DELETED", "test@example.com", "Test User");
+        original.setTimestamp(LocalDateTime.of(2024, 3, 1, 12, 30, 15, 120_000_000));
+
+        // Act
+        UserEvent event = deserializer.deserialize("user-events", mapper.writeValueAsBytes(original));
+
+        // Assert
+        assertEquals(original.getTimestamp(), event.getTimestamp());
+    }
+
+    @Test
+    void parseIsoTimestamp_ShouldMatchJavaTime() {
+        for (String text : new String[]{"2024-03-01T12:30", "2024-03-01T12:30:15", "2024-03-01T12:30:15.5",
+                "2024-03-01T12:30:15.123456789", "+12024-03-01T12:30:15"}) {
+            assertEquals(LocalDateTime.parse(text), UserEventDeserializer.parseIsoTimestamp(text), text);
+        }
+    }
+
+    @Test
+    void parseIsoTimestamp_WithZoneOffset_ShouldConvertToUtc() {
+        // Act & Assert
+        assertEquals(LocalDateTime.of(2024, 3, 1, 12, 30, 15),
+                UserEventDeserializer.parseIsoTimestamp("2024-03-01T12:30:15Z"));
+        assertEquals(LocalDateTime.of(2024, 3, 1, 9, 30, 15, 500_000_000),
+                UserEventDeserializer.parseIsoTimestamp("2024-03-01T12:30:15.5+03:00"));
+    }
+
+    @Test
+    void deserialize_WithUtcTimestamp_ShouldParseIt() {
+        // Act
+        UserEvent event = deserialize("{\"eventType\":\"USER_CREATED\",\"email\":\"test@example.com\","
+                + "\"timestamp\":\"2024-03-01T12:30:15.120Z\"}");
+
+        // Assert
+        assertEquals(LocalDateTime.of(2024, 3, 1, 12, 30, 15, 120_000_000), event.getTimestamp());
+    }
+
+    @Test
+    void deserialize_WithUnknownFields_ShouldIgnoreThem() {
+        // Act
+        UserEvent event = deserialize("{\"source\":{\"service\":\"user-service\",\"tags\":[1,2]},"
+                + "\"eventType\":\"USER_CREATED\",\"email\":\"test@example.com\",\"userName\":null}");
+
+        // Assert
+        assertEquals("USER_CREATED", event.getEventType());
+        assertEquals("test@example.com", event.getEmail());
+        assertNull(event.getUserName());
+        assertNull(event.getTimestamp());
+    }
+
+    @Test
+    void deserialize_WithMalformedPayload_ShouldReturnNullAndCountIt() {
+        // Act & Assert
+        assertNull(deserialize("{\"eventType\":\"USER_CREATED\",\"email\":"));
+        assertNull(deserialize("[1,2,3]"));
+        assertNull(deserialize("{\"eventType\":\"USER_CREATED\",\"timestamp\":\"yesterday\"}"));
+        assertNull(deserialize("{\"eventType\":{\"nested\":true}}"));
+        assertEquals(4.0, meterRegistry.counter("notification.events.malformed").count());
+    }
+
+    @Test
+    void deserialize_WithTombstone_ShouldReturnNull() {
+        // Act & Assert
+        assertNull(deserializer.deserialize("user-events", null));
+        assertEquals(0.0, meterRegistry.counter("notification.events.malformed").count());
+    }
+
+    @Test
+    void deserialize_WithFilteredEventType_ShouldSkipParsing() {
+        // Arrange
+        UserEventDeserializer filtering = new UserEventDeserializer(meterRegistry,
+                new EventTypeFilter(List.of("USER_CREATED"), "eventType", meterRegistry));
+        byte[] filtered = "{\"eventType\":\"PROFILE_VIEWED\",\"email\":".getBytes(StandardCharsets.UTF_8);
+        byte[] accepted = "{\"eventType\":\"USER_CREATED\"}".getBytes(StandardCharsets.UTF_8);
+
+        // Act & Assert - the truncated payload is never parsed, so it is not reported as malformed
+        assertNull(filtering.deserialize("user-events", new RecordHeaders(), filtered));
+        assertEquals("USER_CREATED", filtering.deserialize("user-events", new RecordHeaders(), accepted).getEventType());
+        assertEquals(0.0, meterRegistry.counter("notification.events.malformed").count());
+    }
+}
@@ -0,0 +1,179 @@
+package org.aston.learning.stage2.handler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.DeliveryStatus;
+import org.aston.learning.stage2.event.UserEvent;
+import org.aston.learning.stage2.event.UserEventType;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxJournal;
+import org.aston.learning.stage2.service.EmailService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationHandlerRegistryTest {
+
+    @Mock
+    private EmailService emailService;
+
+    @Mock
+    private OutboxJournal outbox;
+
+    private SimpleMeterRegistry meterRegistry;
+    private NotificationMetrics metrics;
+    private NotificationHandlerRegistry handlerRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new NotificationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", meterRegistry);
+        handlerRegistry = createRegistry(List.of(new UserCreatedHandler(), new UserDeletedHandler(),
+                new PasswordResetHandler(), new EmailChangedHandler()));
+    }
+
+    private NotificationHandlerRegistry createRegistry(List<NotificationHandler> handlers) {
+        handlers.forEach(handler -> ReflectionTestUtils.setField(handler, "emailService", emailService));
+
+        NotificationHandlerRegistry registry = new NotificationHandlerRegistry();
+        ReflectionTestUtils.setField(registry, "handlers", handlers);
+        ReflectionTestUtils.setField(registry, "emailService", emailService);
+        ReflectionTestUtils.setField(registry, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(registry, "metrics", metrics);
+        ReflectionTestUtils.setField(registry, "outbox", outbox);
+        registry.init();
+        return registry;
+    }
+
+    @Test
+    void dispatch_ShouldBuildEmailWithMatchingHandlerAndSendIt() {
+        // Arrange
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(emailService.createUserCreatedEmail("test@example.com", "Test User")).thenReturn(message);
+
+        // Act
+        boolean handled = handlerRegistry.dispatch(new UserEvent("USER_CREATED", "test@example.com", "Test User"));
+
+        // Assert
+        assertTrue(handled);
+        verify(emailService).sendEmail(message, "USER_CREATED");
+        assertEquals(1, meterRegistry.timer("notification.handler.duration", "eventType", "USER_CREATED").count());
+    }
+
+    @Test
+    void dispatch_WithNewEventTypes_ShouldUseTheirTemplates() {
+        // Arrange
+        when(emailService.createPasswordResetEmail(any(), any())).thenReturn(new SimpleMailMessage());
+        when(emailService.createEmailChangedEmail(any(), any())).thenReturn(new SimpleMailMessage());
+
+        // Act
+        handlerRegistry.dispatch(new UserEvent("PASSWORD_RESET", "test@example.com", "Test User"));
+        handlerRegistry.dispatch(new UserEvent("EMAIL_CHANGED", "new@example.com", "Test User"));
+
+        // Assert
+        verify(emailService).createPasswordResetEmail("test@example.com", "Test User");
+        verify(emailService).createEmailChangedEmail("new@example.com", "Test User");
+        verify(emailService, times(2)).sendEmail(any(), any());
+    }
+
+    @Test
+    void dispatch_WithUnknownEventType_ShouldSkipAndCountIt() {
+        // Act
+        boolean handled = handlerRegistry.dispatch(new UserEvent("PROFILE_VIEWED", "test@example.com", "Test User"));
+
+        // Assert
+        assertFalse(handled);
+        verifyNoInteractions(emailService);
+        assertEquals(1.0, meterRegistry.counter("notification.events.unknown").count());
+        assertEquals(1.0, meterRegistry.counter("notification.messages", "type", "UNKNOWN", "outcome", "skipped").count());
+    }
+
+    @Test
+    void dispatch_WhenSendingFails_ShouldCountErrorAndRethrow() {
+        // Arrange
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(emailService.createUserDeletedEmail(any(), any())).thenReturn(message);
+        doThrow(new RuntimeException("Email service down")).when(emailService).sendEmail(message, "USER_DELETED");
+
+        // Act & Assert
+        assertThrows(RuntimeException.class,
+                () -> handlerRegistry.dispatch(new UserEvent("USER_DELETED", "test@example.com", "Test User")));
+        assertEquals(1.0, meterRegistry.counter("notification.handler.errors", "eventType", "USER_DELETED").count());
+    }
+
+    @Test
+    void dispatch_WhenOutboxEnabled_ShouldQueueEmailInsteadOfSendingIt() {
+        // Arrange
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(outbox.isEnabled()).thenReturn(true);
+        when(emailService.createUserCreatedEmail("test@example.com", "Test User")).thenReturn(message);
+        when(emailService.sendEmailAsync(message, "USER_CREATED")).thenReturn(new DeliveryHandle("test@example.com"));
+
+        // Act
+        boolean handled = handlerRegistry.dispatch(new UserEvent("USER_CREATED", "test@example.com", "Test User"));
+
+        // Assert
+        assertTrue(handled);
+        verify(emailService).sendEmailAsync(message, "USER_CREATED");
+        verify(emailService, never()).sendEmail(any(), any());
+    }
+
+    @Test
+    void dispatch_WhenOutboxEnabledAndQueueRejects_ShouldRethrowForRetry() {
+        // Arrange
+        DeliveryHandle rejected = mock(DeliveryHandle.class);
+        when(rejected.getStatus()).thenReturn(DeliveryStatus.FAILED);
+        when(rejected.getFailureReason()).thenReturn("Delivery queue is full");
+        when(outbox.isEnabled()).thenReturn(true);
+        when(emailService.createUserDeletedEmail(any(), any())).thenReturn(new SimpleMailMessage());
+        when(emailService.sendEmailAsync(any(), eq("USER_DELETED"))).thenReturn(rejected);
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class,
+                () -> handlerRegistry.dispatch(new UserEvent("USER_DELETED", "test@example.com", "Test User")));
+        assertEquals(1.0, meterRegistry.counter("notification.handler.errors", "eventType", "USER_DELETED").count());
+    }
+
+    @Test
+    void createMessage_ShouldNotSendEmail() {
+        // Arrange
+        SimpleMailMessage message = new SimpleMailMessage();
+        when(emailService.createUserCreatedEmail("test@example.com", "Test User")).thenReturn(message);
+
+        // Act
+        SimpleMailMessage result =
+                handlerRegistry.createMessage(new UserEvent("USER_CREATED", "test@example.com", "Test User"));
+
+        // Assert
+        assertSame(message, result);
+        verify(emailService, never()).sendEmail(any(), any());
+    }
+
+    @Test
+    void init_WithTwoHandlersForSameType_ShouldFail() {
+        // Act & Assert
+        assertThrows(IllegalStateException.class,
+                () -> createRegistry(List.of(new UserCreatedHandler(), new UserCreatedHandler())));
+    }
+
+    @Test
+    void fromValue_WithUnknownType_ShouldReturnNull() {
+        // Act & Assert
+        assertEquals(UserEventType.EMAIL_CHANGED, UserEventType.fromValue("EMAIL_CHANGED"));
+        assertNull(UserEventType.fromValue("PROFILE_VIEWED"));
+        assertNull(UserEventType.fromValue(null));
+    }
+}
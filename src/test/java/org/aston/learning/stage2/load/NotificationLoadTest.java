@@ -0,0 +1,319 @@
+package org.aston.learning.stage2.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.icegreen.greenmail.user.MessageDeliveryHandler;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.aston.learning.stage2.dto.EmailRequest;
+import org.aston.learning.stage2.event.UserEvent;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// End-to-end load harness: mvn -Pload-test verify [-Dload.rates=100,200,400 -Dload.step-seconds=10 ...]
+// Events go through embedded Kafka and REST requests through the real controller; both are timed until
+// the message reaches the GreenMail SMTP sink.
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EmbeddedKafka(partitions = 3, topics = "user-events")
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+        "spring.cloud.config.enabled=false",
+        "spring.config.import=optional:file:.env[.properties]",
+        "eureka.client.enabled=false",
+        "app.email.rate-limit.enabled=false",
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}"
+})
+class NotificationLoadTest {
+
+    private static final String TOPIC = "user-events";
+
+    private static final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+    private static final Map<String, Long> deliveredAt = new ConcurrentHashMap<>();
+
+    static {
+        greenMail.start();
+        MessageDeliveryHandler defaultHandler = greenMail.getUserManager().getMessageDeliveryHandler();
+        greenMail.getUserManager().setMessageDeliveryHandler((message, address) -> {
+            deliveredAt.putIfAbsent(address.getEmail(), System.nanoTime());
+            return defaultHandler.handle(message, address);
+        });
+    }
+
+    @DynamicPropertySource
+    static void mailProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.mail.host", () -> "localhost");
+        registry.add("spring.mail.port", () -> greenMail.getSmtp().getPort());
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${spring.embedded.kafka.brokers}")
+    private String brokers;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final int[] rates = Arrays.stream(System.getProperty("load.rates", "50,100,200,400").split(","))
+            .mapToInt(rate -> Integer.parseInt(rate.trim())).toArray();
+    private final int stepSeconds = Integer.getInteger("load.step-seconds", 10);
+    private final int httpConcurrency = Integer.getInteger("load.http-concurrency", 16);
+    private final long drainTimeoutMs = Long.getLong("load.drain-timeout-ms", 30000);
+    private final long p99SloMs = Long.getLong("load.p99-slo-ms", 1000);
+    private final Path reportFile = Path.of(System.getProperty("load.report", "target/load-test-report.json"));
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @AfterAll
+    static void stopMailServer() {
+        greenMail.stop();
+    }
+
+    @Test
+    void measureThroughputAndLatency() throws Exception {
+        KafkaTemplate<String, UserEvent> kafkaTemplate = createKafkaTemplate();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(httpConcurrency))
+                .build();
+        ExecutorService httpSenders = Executors.newFixedThreadPool(httpConcurrency);
+
+        try {
+            warmUp(kafkaTemplate, httpClient);
+
+            List<Map<String, Object>> steps = new ArrayList<>();
+            Integer saturationRate = null;
+            for (int rate : rates) {
+                StepResult kafka = new StepResult("kafka", rate);
+                StepResult http = new StepResult("http", rate);
+                runStep(rate, kafkaTemplate, httpClient, httpSenders, kafka, http);
+
+                steps.add(kafka.toReport());
+                steps.add(http.toReport());
+                System.out.println(kafka);
+                System.out.println(http);
+
+                if (saturationRate == null && (kafka.isSaturated(p99SloMs) || http.isSaturated(p99SloMs))) {
+                    saturationRate = rate;
+                }
+                greenMail.purgeEmailFromAllMailboxes();
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("stepSeconds", stepSeconds);
+            report.put("httpConcurrency", httpConcurrency);
+            report.put("p99SloMs", p99SloMs);
+            report.put("saturationRate", saturationRate);
+            report.put("steps", steps);
+            writeReport(report);
+            System.out.println("Saturation point (events/s per source): "
+                    + (saturationRate != null ? saturationRate : "not reached up to " + rates[rates.length - 1]));
+
+            assertTrue(steps.stream().anyMatch(step -> ((Number) step.get("delivered")).longValue() > 0),
+                    "No message reached the SMTP sink");
+        } finally {
+            httpSenders.shutdownNow();
+            kafkaTemplate.destroy();
+        }
+    }
+
+    private void warmUp(KafkaTemplate<String, UserEvent> kafkaTemplate, HttpClient httpClient) throws Exception {
+        String kafkaRecipient = "warmup-kafka@example.com";
+        String httpRecipient = "warmup-http@example.com";
+        kafkaTemplate.send(TOPIC, new UserEvent("USER_CREATED", kafkaRecipient, "Warm Up"));
+        httpClient.send(emailRequest(httpRecipient), HttpResponse.BodyHandlers.discarding());
+
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!(deliveredAt.containsKey(kafkaRecipient) && deliveredAt.containsKey(httpRecipient))) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Pipeline did not deliver warm-up messages within 60 s");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private void runStep(int rate, KafkaTemplate<String, UserEvent> kafkaTemplate, HttpClient httpClient,
+                         ExecutorService httpSenders, StepResult kafka, StepResult http) throws Exception {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        int total = rate * stepSeconds;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < total; i++) {
+            long scheduled = start + i * intervalNanos;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            String kafkaRecipient = "kafka-" + sequence.incrementAndGet() + "@example.com";
+            kafka.sent(kafkaRecipient, System.nanoTime());
+            kafkaTemplate.send(TOPIC, kafkaRecipient, new UserEvent("USER_CREATED", kafkaRecipient, "Load Test"));
+
+            String httpRecipient = "http-" + sequence.incrementAndGet() + "@example.com";
+            http.sent(httpRecipient, System.nanoTime());
+            httpSenders.execute(() -> {
+                try {
+                    HttpResponse<Void> response = httpClient.send(emailRequest(httpRecipient),
+                            HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() >= 300) {
+                        http.failed();
+                    }
+                } catch (IOException e) {
+                    http.failed();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        kafkaTemplate.flush();
+
+        long offeredEnd = System.nanoTime();
+        long deadline = System.currentTimeMillis() + drainTimeoutMs;
+        while ((!kafka.isDrained() || !http.isDrained()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        kafka.finish(start, offeredEnd);
+        http.finish(start, offeredEnd);
+    }
+
+    private HttpRequest emailRequest(String recipient) throws IOException {
+        EmailRequest body = new EmailRequest(recipient, "Load test", "Load test message for " + recipient);
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/notifications/email"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .build();
+    }
+
+    private KafkaTemplate<String, UserEvent> createKafkaTemplate() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 1);
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(props));
+    }
+
+    private void writeReport(Map<String, Object> report) throws IOException {
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+        System.out.println("Load test report written to " + reportFile.toAbsolutePath());
+    }
+
+    private static class StepResult {
+        private final String source;
+        private final int offeredRate;
+        private final Map<String, Long> sentAt = new ConcurrentHashMap<>();
+        private final AtomicLong failures = new AtomicLong();
+        private long[] latencies = new long[0];
+        private double throughput;
+
+        StepResult(String source, int offeredRate) {
+            this.source = source;
+            this.offeredRate = offeredRate;
+        }
+
+        void sent(String recipient, long nanos) {
+            sentAt.put(recipient, nanos);
+        }
+
+        void failed() {
+            failures.incrementAndGet();
+        }
+
+        boolean isDrained() {
+            long delivered = sentAt.keySet().stream().filter(deliveredAt::containsKey).count();
+            return delivered + failures.get() >= sentAt.size();
+        }
+
+        void finish(long start, long offeredEnd) {
+            List<Long> values = new ArrayList<>(sentAt.size());
+            long lastDelivery = offeredEnd;
+            for (Map.Entry<String, Long> entry : sentAt.entrySet()) {
+                Long delivered = deliveredAt.get(entry.getKey());
+                if (delivered != null) {
+                    values.add(delivered - entry.getValue());
+                    lastDelivery = Math.max(lastDelivery, delivered);
+                }
+            }
+            latencies = values.stream().mapToLong(Long::longValue).sorted().toArray();
+            throughput = latencies.length / ((lastDelivery - start) / 1e9);
+        }
+
+        boolean isSaturated(long p99SloMs) {
+            return latencies.length < sentAt.size() * 0.99
+                    || throughput < offeredRate * 0.95
+                    || percentileMs(0.99) > p99SloMs;
+        }
+
+        double percentileMs(double percentile) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        Map<String, Object> toReport() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("source", source);
+            report.put("offeredRate", offeredRate);
+            report.put("sent", sentAt.size());
+            report.put("delivered", latencies.length);
+            report.put("failed", failures.get());
+            report.put("throughput", round(throughput));
+            report.put("p50Ms", round(percentileMs(0.50)));
+            report.put("p99Ms", round(percentileMs(0.99)));
+            report.put("p999Ms", round(percentileMs(0.999)));
+            return report;
+        }
+
+        private static double round(double value) {
+            return Double.isNaN(value) ? -1 : Math.round(value * 100) / 100.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%-5s offered=%4d/s sent=%6d delivered=%6d failed=%4d throughput=%8.1f/s p50=%8.2f ms p99=%8.2f ms p999=%8.2f ms",
+                    source, offeredRate, sentAt.size(), latencies.length, failures.get(), throughput,
+                    percentileMs(0.50), percentileMs(0.99), percentileMs(0.999));
+        }
+    }
+}
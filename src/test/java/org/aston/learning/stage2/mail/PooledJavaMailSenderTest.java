@@ -0,0 +1,207 @@
+package org.aston.learning.stage2.mail;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PooledJavaMailSenderTest {
+
+    private GreenMail greenMail;
+    private PooledJavaMailSender mailSender;
+
+    @BeforeEach
+    void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (mailSender != null) {
+            mailSender.destroy();
+        }
+        greenMail.stop();
+    }
+
+    private PooledJavaMailSender createSender(int maxMessagesPerConnection, long maxIdleMs) {
+        PooledJavaMailSender sender = new PooledJavaMailSender(2, maxMessagesPerConnection, maxIdleMs, 1000, true);
+        sender.setHost("localhost");
+        sender.setPort(greenMail.getSmtp().getPort());
+        return sender;
+    }
+
+    private SimpleMailMessage message(int index) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom("noreply@test.com");
+        message.setTo("user" + index + "@example.com");
+        message.setSubject("Subject " + index);
+        message.setText("Body " + index);
+        return message;
+    }
+
+    @Test
+    void send_MultipleMessages_ShouldReuseSingleConnection() {
+        // Arrange
+        mailSender = createSender(100, 60000);
+
+        // Act
+        for (int i = 0; i < 10; i++) {
+            mailSender.send(message(i));
+        }
+
+        // Assert
+        assertEquals(10, greenMail.getReceivedMessages().length);
+        assertEquals(1, mailSender.getPool().getCreatedCount());
+        assertEquals(10, mailSender.getPool().getBorrowedCount());
+        assertEquals(1, mailSender.getPool().getIdleCount());
+        assertEquals(0, mailSender.getPool().getActiveCount());
+    }
+
+    @Test
+    void send_ShouldOpenFewerConnectionsThanDefaultSender() {
+        // Arrange
+        mailSender = createSender(100, 60000);
+        JavaMailSenderImpl defaultSender = new JavaMailSenderImpl();
+        defaultSender.setHost("localhost");
+        defaultSender.setPort(greenMail.getSmtp().getPort());
+        int messages = 50;
+
+        // Act
+        for (int i = 0; i < messages; i++) {
+            defaultSender.send(message(i));
+        }
+        for (int i = 0; i < messages; i++) {
+            mailSender.send(message(i));
+        }
+
+        // Assert - the default sender connects once per message, the pooled one reuses a single connection
+        assertEquals(2 * messages, greenMail.getReceivedMessages().length);
+        assertEquals(1, mailSender.getPool().getCreatedCount());
+    }
+
+    @Test
+    void send_WhenConnectionReachesMessageLimit_ShouldRecycleIt() {
+        // Arrange
+        mailSender = createSender(3, 60000);
+
+        // Act
+        for (int i = 0; i < 7; i++) {
+            mailSender.send(message(i));
+        }
+
+        // Assert
+        assertEquals(7, greenMail.getReceivedMessages().length);
+        assertEquals(3, mailSender.getPool().getCreatedCount());
+        assertEquals(2, mailSender.getPool().getDestroyedCount());
+    }
+
+    @Test
+    void send_WhenConnectionWasIdleTooLong_ShouldOpenNewOne() throws Exception {
+        // Arrange
+        mailSender = createSender(100, 100);
+        mailSender.send(message(1));
+
+        // Act
+        Thread.sleep(200);
+        mailSender.send(message(2));
+
+        // Assert
+        assertEquals(2, greenMail.getReceivedMessages().length);
+        assertEquals(2, mailSender.getPool().getCreatedCount());
+    }
+
+    @Test
+    void send_WhenServerDroppedPooledConnection_ShouldValidateAndReconnect() {
+        // Arrange
+        mailSender = createSender(100, 60000);
+        mailSender.send(message(1));
+        int port = greenMail.getSmtp().getPort();
+        greenMail.stop();
+        greenMail = new GreenMail(new ServerSetup(port, null, ServerSetup.PROTOCOL_SMTP));
+        greenMail.start();
+
+        // Act
+        mailSender.send(message(2));
+
+        // Assert
+        assertEquals(1, greenMail.getReceivedMessages().length);
+        assertEquals(1, mailSender.getPool().getValidationFailureCount());
+        assertEquals(2, mailSender.getPool().getCreatedCount());
+    }
+
+    @Test
+    void send_BatchOfMessages_ShouldUseOneBorrow() {
+        // Arrange
+        mailSender = createSender(100, 60000);
+
+        // Act
+        mailSender.send(message(1), message(2), message(3));
+
+        // Assert
+        assertEquals(3, greenMail.getReceivedMessages().length);
+        assertEquals(1, mailSender.getPool().getBorrowedCount());
+    }
+
+    @Test
+    void probe_WhenEveryConnectionIsBusy_ShouldCheckRelayWithoutWaitingForOne() throws Exception {
+        // Arrange
+        mailSender = createSender(100, 60000);
+        SmtpConnectionPool pool = mailSender.getPool();
+        PooledTransport first = pool.borrow();
+        PooledTransport second = pool.borrow();
+
+        // Act
+        long start = System.nanoTime();
+        pool.probe();
+        long probeMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Assert - max-wait is 1000 ms
+        assertTrue(probeMs < 1000, "probe took " + probeMs + " ms");
+        assertEquals(2, pool.getActiveCount());
+        pool.release(first, false);
+        pool.release(second, false);
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    void probe_WhenEveryConnectionIsBusyAndRelayIsDown_ShouldFail() throws Exception {
+        // Arrange
+        mailSender = createSender(100, 60000);
+        SmtpConnectionPool pool = mailSender.getPool();
+        PooledTransport first = pool.borrow();
+        PooledTransport second = pool.borrow();
+        greenMail.stop();
+
+        // Act & Assert
+        assertThrows(jakarta.mail.MessagingException.class, pool::probe);
+        pool.release(first, true);
+        pool.release(second, true);
+    }
+
+    @Test
+    void send_WithBoundRegistry_ShouldTimeConnectAndDataStages() {
+        // Arrange
+        mailSender = createSender(100, 60000);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        mailSender.getPool().bindTo(meterRegistry, "localhost");
+
+        // Act
+        for (int i = 0; i < 3; i++) {
+            mailSender.send(message(i));
+        }
+
+        // Assert
+        assertEquals(1, meterRegistry.timer("smtp.connect", "relay", "localhost", "outcome", "success").count());
+        assertEquals(3, meterRegistry.timer("smtp.send", "relay", "localhost", "outcome", "success").count());
+        assertEquals(1, meterRegistry.get("smtp.pool.connections.created").functionCounter().count());
+        assertEquals(3, meterRegistry.get("smtp.pool.borrows").functionCounter().count());
+    }
+}
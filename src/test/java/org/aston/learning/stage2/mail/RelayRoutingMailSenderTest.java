@@ -0,0 +1,293 @@
+package org.aston.learning.stage2.mail;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.internet.MimeMessage;
+import org.aston.learning.stage2.ratelimit.TokenBucket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelayRoutingMailSenderTest {
+
+    private final List<GreenMail> servers = new ArrayList<>();
+    private RelayRoutingMailSender mailSender;
+
+    @AfterEach
+    void tearDown() {
+        if (mailSender != null) {
+            mailSender.destroy();
+        }
+        servers.forEach(GreenMail::stop);
+    }
+
+    private GreenMail startServer() {
+        GreenMail server = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    private RelayRoutingMailSender.Relay relay(int port) {
+        PooledJavaMailSender sender = new PooledJavaMailSender(2, 100, 60000, 1000, false);
+        sender.setHost("localhost");
+        sender.setPort(port);
+        return new RelayRoutingMailSender.Relay("localhost:" + port, sender);
+    }
+
+    private RelayRoutingMailSender.Relay relay(GreenMail server) {
+        return relay(server.getSmtp().getPort());
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private SimpleMailMessage message(String to) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom("noreply@test.com");
+        message.setTo(to);
+        message.setSubject("Subject");
+        message.setText("Body");
+        return message;
+    }
+
+    @Test
+    void send_ShouldSpreadTrafficAcrossRelays() {
+        // Arrange
+        GreenMail first = startServer();
+        GreenMail second = startServer();
+        mailSender = new RelayRoutingMailSender(List.of(relay(first), relay(second)), 3, 30000, false);
+
+        // Act
+        for (int i = 0; i < 60; i++) {
+            mailSender.send(message("user" + i + "@example.com"));
+        }
+
+        // Assert
+        int firstCount = first.getReceivedMessages().length;
+        int secondCount = second.getReceivedMessages().length;
+        assertEquals(60, firstCount + secondCount);
+        assertTrue(firstCount > 0 && secondCount > 0, firstCount + " / " + secondCount);
+    }
+
+    @Test
+    void send_ShouldPreferTheFasterRelay() {
+        // Arrange
+        GreenMail fast = startServer();
+        GreenMail slow = startServer();
+        PooledJavaMailSender slowSender = new PooledJavaMailSender(2, 100, 60000, 1000, false) {
+            @Override
+            protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.doSend(mimeMessages, originalMessages);
+            }
+        };
+        slowSender.setHost("localhost");
+        slowSender.setPort(slow.getSmtp().getPort());
+        mailSender = new RelayRoutingMailSender(
+                List.of(relay(fast), new RelayRoutingMailSender.Relay("slow", slowSender)), 3, 30000, false);
+
+        // Act
+        for (int i = 0; i < 100; i++) {
+            mailSender.send(message("user" + i + "@example.com"));
+        }
+
+        // Assert
+        int slowCount = slow.getReceivedMessages().length;
+        assertEquals(100, fast.getReceivedMessages().length + slowCount);
+        assertTrue(slowCount < 40, "slow relay got " + slowCount + " of 100");
+        assertTrue(mailSender.getRelays().get(1).getLatencyMs() > mailSender.getRelays().get(0).getLatencyMs());
+    }
+
+    @Test
+    void send_WhenRelayIsDown_ShouldEjectItAndUseTheOthers() throws Exception {
+        // Arrange
+        GreenMail healthy = startServer();
+        RelayRoutingMailSender.Relay dead = relay(freePort());
+        mailSender = new RelayRoutingMailSender(List.of(relay(healthy), dead), 2, 30000, false);
+        int failures = 0;
+
+        // Act
+        for (int i = 0; i < 40; i++) {
+            try {
+                mailSender.send(message("user" + i + "@example.com"));
+            } catch (MailSendException e) {
+                failures++;
+            }
+        }
+
+        // Assert - at most two failed sends before the dead relay was ejected
+        assertTrue(failures <= 2, "failures: " + failures);
+        assertEquals(40 - failures, healthy.getReceivedMessages().length);
+        assertTrue(dead.isEjected(System.nanoTime()));
+    }
+
+    @Test
+    void route_AfterEjectionHasPassed_ShouldReinstateRelay() throws Exception {
+        // Arrange
+        GreenMail healthy = startServer();
+        RelayRoutingMailSender.Relay dead = relay(freePort());
+        mailSender = new RelayRoutingMailSender(List.of(relay(healthy), dead), 1, 100, false);
+        mailSender.probe();
+        assertTrue(dead.isEjected(System.nanoTime()));
+
+        // Act
+        Thread.sleep(150);
+
+        // Assert
+        assertFalse(dead.isEjected(System.nanoTime()));
+        assertEquals(1.0, dead.getSuccessRate());
+    }
+
+    @Test
+    void probe_WhenEjectedRelayAnswersAgain_ShouldReinstateItEarly() throws Exception {
+        // Arrange
+        GreenMail healthy = startServer();
+        int port = freePort();
+        RelayRoutingMailSender.Relay recovering = relay(port);
+        mailSender = new RelayRoutingMailSender(List.of(relay(healthy), recovering), 1, 60000, false);
+        mailSender.probe();
+        assertTrue(recovering.isEjected(System.nanoTime()));
+
+        // Act
+        GreenMail restarted = new GreenMail(new ServerSetup(port, "localhost", ServerSetup.PROTOCOL_SMTP));
+        restarted.start();
+        servers.add(restarted);
+        mailSender.probe();
+
+        // Assert
+        assertFalse(recovering.isEjected(System.nanoTime()));
+    }
+
+    @Test
+    void probe_WhenNoRelayAnswers_ShouldFail() throws Exception {
+        // Arrange
+        mailSender = new RelayRoutingMailSender(List.of(relay(freePort()), relay(freePort())), 3, 30000, false);
+
+        // Act & Assert
+        assertThrows(Exception.class, mailSender::probe);
+    }
+
+    @Test
+    void send_WithStickyDomains_ShouldKeepEachDomainOnOneRelay() {
+        // Arrange
+        List<GreenMail> relays = List.of(startServer(), startServer(), startServer());
+        mailSender = new RelayRoutingMailSender(relays.stream().map(this::relay).toList(), 3, 30000, true);
+
+        // Act
+        for (int i = 0; i < 10; i++) {
+            mailSender.send(message("user" + i + "@Example.com"), message("user" + i + "@other.org"));
+        }
+
+        // Assert
+        for (String domain : List.of("example.com", "other.org")) {
+            long relaysUsed = relays.stream()
+                    .filter(server -> java.util.Arrays.stream(server.getReceivedMessages())
+                            .anyMatch(received -> recipient(received).endsWith("@" + domain)))
+                    .count();
+            assertEquals(1, relaysUsed, domain);
+        }
+        assertEquals(20, relays.stream().mapToInt(server -> server.getReceivedMessages().length).sum());
+    }
+
+    @Test
+    void route_WhenRelayQuotaIsUsedUp_ShouldSendToTheOtherRelays() throws Exception {
+        // Arrange
+        PooledJavaMailSender limitedSender = new PooledJavaMailSender(2, 100, 60000, 1000, false);
+        RelayRoutingMailSender.Relay limited =
+                new RelayRoutingMailSender.Relay("limited", limitedSender, new TokenBucket(0.1, 2));
+        RelayRoutingMailSender.Relay unlimited = relay(freePort());
+        mailSender = new RelayRoutingMailSender(List.of(limited, unlimited), 3, 30000, false);
+
+        // Act
+        int routedToLimited = 0;
+        for (int i = 0; i < 50; i++) {
+            if (mailSender.route("user" + i + "@example.com") == limited) {
+                routedToLimited++;
+            }
+        }
+
+        // Assert
+        assertTrue(routedToLimited <= 2, "limited relay got " + routedToLimited + " of 50");
+    }
+
+    @Test
+    void probe_WhenRelayPoolIsSaturated_ShouldNotEjectIt() throws Exception {
+        // Arrange
+        GreenMail server = startServer();
+        RelayRoutingMailSender.Relay busy = relay(server);
+        mailSender = new RelayRoutingMailSender(List.of(busy, relay(startServer())), 1, 30000, false);
+        SmtpConnectionPool pool = ((PooledJavaMailSender) busy.getSender()).getPool();
+        PooledTransport first = pool.borrow();
+        PooledTransport second = pool.borrow();
+
+        // Act
+        mailSender.probe();
+
+        // Assert
+        assertFalse(busy.isEjected(System.nanoTime()));
+        pool.release(first, false);
+        pool.release(second, false);
+    }
+
+    @Test
+    void send_WithBatchLargerThanRelayBurst_ShouldMeterEveryMessage() {
+        // Arrange
+        GreenMail limitedServer = startServer();
+        GreenMail otherServer = startServer();
+        PooledJavaMailSender limitedSender = new PooledJavaMailSender(2, 100, 60000, 1000, false);
+        limitedSender.setHost("localhost");
+        limitedSender.setPort(limitedServer.getSmtp().getPort());
+        RelayRoutingMailSender.Relay limited =
+                new RelayRoutingMailSender.Relay("limited", limitedSender, new TokenBucket(0.1, 3));
+        mailSender = new RelayRoutingMailSender(List.of(limited, relay(otherServer)), 3, 30000, false);
+        SimpleMailMessage[] batch = new SimpleMailMessage[20];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = message("user" + i + "@example.com");
+        }
+
+        // Act
+        mailSender.send(batch);
+
+        // Assert - the limited relay takes at most its burst, the rest goes to the other relay
+        int limitedCount = limitedServer.getReceivedMessages().length;
+        assertEquals(20, limitedCount + otherServer.getReceivedMessages().length);
+        assertTrue(limitedCount <= 3, "limited relay got " + limitedCount + " of 20");
+    }
+
+    @Test
+    void send_WithSingleRelay_ShouldBehaveLikeThePlainSender() throws Exception {
+        // Arrange
+        RelayRoutingMailSender.Relay only = relay(freePort());
+        mailSender = new RelayRoutingMailSender(List.of(only), 1, 30000, false);
+
+        // Act & Assert - the sender's own exception comes through, and the only relay is still tried when ejected
+        MailSendException first = assertThrows(MailSendException.class, () -> mailSender.send(message("a@example.com")));
+        assertTrue(first.getMessage().startsWith("Mail server connection failed"));
+        assertTrue(only.isEjected(System.nanoTime()));
+        assertThrows(MailSendException.class, () -> mailSender.send(message("b@example.com")));
+    }
+
+    private static String recipient(MimeMessage message) {
+        try {
+            return message.getAllRecipients()[0].toString().toLowerCase();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.aston.learning.stage2.mail;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmtpHealthIndicatorTest {
+
+    private GreenMail greenMail;
+    private PooledJavaMailSender mailSender;
+    private SmtpHealthIndicator healthIndicator;
+
+    @BeforeEach
+    void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+
+        mailSender = new PooledJavaMailSender(2, 100, 60000, 1000, true);
+        mailSender.setHost("localhost");
+        mailSender.setPort(greenMail.getSmtp().getPort());
+
+        healthIndicator = new SmtpHealthIndicator();
+        ReflectionTestUtils.setField(healthIndicator, "mailSender", mailSender);
+        ReflectionTestUtils.setField(healthIndicator, "ttlMs", 60000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mailSender.destroy();
+        greenMail.stop();
+    }
+
+    @Test
+    void health_BeforeFirstProbe_ShouldBeUnknown() {
+        assertEquals(Status.UNKNOWN, healthIndicator.health().getStatus());
+    }
+
+    @Test
+    void probe_WhenRelayAnswers_ShouldReportUpAndKeepConnectionPooled() {
+        // Act
+        healthIndicator.probe();
+        Health health = healthIndicator.health();
+
+        // Assert
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals("localhost:" + greenMail.getSmtp().getPort(), health.getDetails().get("relay"));
+        assertEquals(1, mailSender.getPool().getIdleCount());
+    }
+
+    @Test
+    void probe_WhenRelayIsGone_ShouldReportDown() {
+        // Arrange
+        healthIndicator.probe();
+        greenMail.stop();
+
+        // Act
+        healthIndicator.probe();
+        Health health = healthIndicator.health();
+
+        // Assert
+        assertEquals(Status.DOWN, health.getStatus());
+        assertNotNull(health.getDetails().get("error"));
+    }
+
+    @Test
+    void health_WhenLastProbeIsOlderThanTtl_ShouldReportDown() {
+        // Arrange
+        healthIndicator.probe();
+        ReflectionTestUtils.setField(healthIndicator, "ttlMs", -1L);
+
+        // Act
+        Health health = healthIndicator.health();
+
+        // Assert
+        assertEquals(Status.DOWN, health.getStatus());
+        assertTrue(health.getDetails().get("reason").toString().startsWith("Last SMTP probe finished"));
+    }
+}
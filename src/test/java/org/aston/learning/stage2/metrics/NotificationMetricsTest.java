@@ -0,0 +1,59 @@
+package org.aston.learning.stage2.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.event.UserEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class NotificationMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private NotificationMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new NotificationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void recordDelivery_ShouldTimeAndCountByOutcome() {
+        // Act
+        metrics.recordDelivery("USER_CREATED", true, 2_000_000, 1);
+        metrics.recordDelivery("USER_CREATED", true, 4_000_000, 1);
+        metrics.recordDelivery("USER_CREATED", false, 1_000_000, 1);
+
+        // Assert
+        assertEquals(2, meterRegistry.timer("notification.delivery", "type", "USER_CREATED", "outcome", "sent").count());
+        assertEquals(1, meterRegistry.timer("notification.delivery", "type", "USER_CREATED", "outcome", "failed").count());
+        assertEquals(2, meterRegistry.counter("notification.messages", "type", "USER_CREATED", "outcome", "sent").count());
+        assertEquals(1, meterRegistry.counter("notification.messages", "type", "USER_CREATED", "outcome", "failed").count());
+    }
+
+    @Test
+    void recordDelivery_WithNoMessages_ShouldOnlyRecordTimer() {
+        // Act
+        metrics.recordDelivery("BATCH", false, 1_000_000, 0);
+
+        // Assert
+        assertEquals(1, meterRegistry.timer("notification.delivery", "type", "BATCH", "outcome", "failed").count());
+        assertNull(meterRegistry.find("notification.messages").counter());
+    }
+
+    @Test
+    void countSkipped_WithUnknownEventType_ShouldFoldIntoUnknown() {
+        // Act
+        metrics.countSkipped(new UserEvent("USER_CREATED", "first@example.com", "First"));
+        metrics.countSkipped(new UserEvent("SOMETHING_ELSE", "second@example.com", "Second"));
+        metrics.countSkipped(new UserEvent("ANOTHER_ONE", "third@example.com", "Third"));
+
+        // Assert
+        assertEquals(1, meterRegistry.counter("notification.messages", "type", "USER_CREATED", "outcome", "skipped").count());
+        assertEquals(2, meterRegistry.counter("notification.messages", "type", "UNKNOWN", "outcome", "skipped").count());
+    }
+}
@@ -0,0 +1,216 @@
+package org.aston.learning.stage2.outbox;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<OutboxJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(OutboxJournal::close);
+    }
+
+    private OutboxJournal createJournal(boolean enabled, int segmentBytes) throws Exception {
+        OutboxJournal journal = new OutboxJournal();
+        ReflectionTestUtils.setField(journal, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(journal, "enabled", enabled);
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "segmentBytes", segmentBytes);
+        ReflectionTestUtils.setField(journal, "commitTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(journal, "ackFlushIntervalMs", 50L);
+        journal.start();
+        opened.add(journal);
+        return journal;
+    }
+
+    private SimpleMailMessage message(String to, String subject) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom("noreply@test.com");
+        message.setTo(to);
+        message.setSubject(subject);
+        message.setText("Привет, " + to);
+        return message;
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void append_ShouldAssignIncreasingIdsAndTrackPendingEntries() throws Exception {
+        // Arrange
+        OutboxJournal journal = createJournal(true, 1 << 16);
+
+        // Act
+        long first = journal.append(message("a@example.com", "One"), "CUSTOM");
+        long second = journal.append(message("b@example.com", "Two"), "CUSTOM");
+
+        // Assert
+        assertTrue(first > 0);
+        assertEquals(first + 1, second);
+        assertEquals(2, journal.getPendingCount());
+    }
+
+    @Test
+    void start_AfterRestart_ShouldRecoverOnlyUnacknowledgedEntries() throws Exception {
+        // Arrange
+        OutboxJournal journal = createJournal(true, 1 << 16);
+        long sent = journal.append(message("a@example.com", "One"), "CUSTOM");
+        long unsent = journal.append(message("b@example.com", "Two"), "USER_CREATED");
+        journal.acknowledge(sent);
+        journal.close();
+
+        // Act
+        OutboxJournal reopened = createJournal(true, 1 << 16);
+        List<OutboxEntry> recovered = reopened.takeRecovered();
+
+        // Assert
+        assertEquals(1, recovered.size());
+        OutboxEntry entry = recovered.get(0);
+        assertEquals(unsent, entry.id());
+        assertEquals("USER_CREATED", entry.type());
+        assertArrayEquals(new String[]{"b@example.com"}, entry.message().getTo());
+        assertEquals("noreply@test.com", entry.message().getFrom());
+        assertEquals("Two", entry.message().getSubject());
+        assertEquals("Привет, b@example.com", entry.message().getText());
+        assertTrue(reopened.takeRecovered().isEmpty());
+
+        // New entries continue after the recovered ids
+        assertTrue(reopened.append(message("c@example.com", "Three"), "CUSTOM") > unsent);
+    }
+
+    @Test
+    void start_WithTornLastRecord_ShouldKeepRecordsBeforeIt() throws Exception {
+        // Arrange
+        OutboxJournal journal = createJournal(true, 1 << 16);
+        journal.append(message("a@example.com", "One"), "CUSTOM");
+        journal.append(message("b@example.com", "Two"), "CUSTOM");
+        journal.close();
+
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        int firstRecordLength;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            firstRecordLength = file.readInt();
+            // Corrupt the payload of the second record as if the crash hit in the middle of writing it
+            file.seek(OutboxSegment.HEADER_BYTES + firstRecordLength + OutboxSegment.RECORD_OVERHEAD + 2);
+            file.writeByte(0x7f);
+        }
+
+        // Act
+        OutboxJournal reopened = createJournal(true, 1 << 16);
+        List<OutboxEntry> recovered = reopened.takeRecovered();
+
+        // Assert
+        assertEquals(1, recovered.size());
+        assertEquals("One", recovered.get(0).message().getSubject());
+        assertEquals(1, reopened.getPendingCount());
+    }
+
+    @Test
+    void acknowledge_WhenOldSegmentsAreFullyAcknowledged_ShouldDeleteThem() throws Exception {
+        // Arrange
+        OutboxJournal journal = createJournal(true, 512);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(journal.append(message("user" + i + "@example.com", "Subject " + i), "CUSTOM"));
+        }
+        int segmentsBefore = journal.getSegmentCount();
+
+        // Act
+        ids.forEach(journal::acknowledge);
+
+        // Assert
+        assertTrue(segmentsBefore > 1);
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(1, segmentFiles());
+        assertEquals(0, journal.getPendingCount());
+    }
+
+    @Test
+    void acknowledge_WhenOldestEntryIsStillPending_ShouldKeepItsSegment() throws Exception {
+        // Arrange
+        OutboxJournal journal = createJournal(true, 512);
+        long oldest = journal.append(message("first@example.com", "First"), "CUSTOM");
+        List<Long> later = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            later.add(journal.append(message("user" + i + "@example.com", "Subject " + i), "CUSTOM"));
+        }
+
+        // Act
+        later.forEach(journal::acknowledge);
+        journal.close();
+        OutboxJournal reopened = createJournal(true, 512);
+
+        // Assert
+        List<OutboxEntry> recovered = reopened.takeRecovered();
+        assertEquals(1, recovered.size());
+        assertEquals(oldest, recovered.get(0).id());
+    }
+
+    @Test
+    void append_FromManyThreads_ShouldMakeEveryEntryDurable() throws Exception {
+        // Arrange
+        OutboxJournal journal = createJournal(true, 1 << 20);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < 400; i++) {
+            String to = "user" + i + "@example.com";
+            futures.add(executor.submit(() -> ids.add(journal.append(message(to, "Subject"), "CUSTOM"))));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        journal.close();
+
+        // Assert
+        assertEquals(400, ids.size());
+        assertEquals(400, createJournal(true, 1 << 20).takeRecovered().size());
+    }
+
+    @Test
+    void append_WhenDisabled_ShouldNotTouchTheDisk() throws Exception {
+        // Arrange
+        OutboxJournal journal = createJournal(false, 1 << 16);
+
+        // Act
+        long id = journal.append(message("a@example.com", "One"), "CUSTOM");
+        journal.acknowledge(id);
+
+        // Assert
+        assertEquals(0, id);
+        assertEquals(0, segmentFiles());
+        assertTrue(journal.takeRecovered().isEmpty());
+    }
+}
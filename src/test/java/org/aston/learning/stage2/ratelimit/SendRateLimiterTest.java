@@ -0,0 +1,128 @@
+package org.aston.learning.stage2.ratelimit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SendRateLimiterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SendRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new SendRateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(rateLimiter, "enabled", true);
+        ReflectionTestUtils.setField(rateLimiter, "relayPerSecond", 100.0);
+        ReflectionTestUtils.setField(rateLimiter, "domainPerSecond", 10.0);
+        ReflectionTestUtils.setField(rateLimiter, "burst", 2);
+        ReflectionTestUtils.setField(rateLimiter, "stripes", 64);
+        ReflectionTestUtils.setField(rateLimiter, "domainRates", List.of("big.example=50"));
+        ReflectionTestUtils.setField(rateLimiter, "relays", List.of());
+    }
+
+    @Test
+    void tryAcquire_WhenDomainQuotaIsUsedUp_ShouldThrottleOnlyThatDomain() {
+        // Arrange
+        ReflectionTestUtils.setField(rateLimiter, "relayPerSecond", 0.0);
+        rateLimiter.init();
+        long now = System.nanoTime();
+        rateLimiter.tryAcquire("a@mail.example", now);
+        rateLimiter.tryAcquire("b@mail.example", now);
+
+        // Act
+        long throttled = rateLimiter.tryAcquire("c@MAIL.example", now);
+        long otherDomain = rateLimiter.tryAcquire("d@big.example", now);
+
+        // Assert
+        assertTrue(throttled > 0);
+        assertEquals(0, otherDomain);
+        assertEquals(1, meterRegistry.counter("notification.ratelimit.throttled", "limit", "domain").count());
+    }
+
+    @Test
+    void tryAcquire_WhenRelayQuotaIsUsedUp_ShouldNotSpendDomainPermit() {
+        // Arrange
+        ReflectionTestUtils.setField(rateLimiter, "relayPerSecond", 1.0);
+        ReflectionTestUtils.setField(rateLimiter, "burst", 1);
+        rateLimiter.init();
+        long now = System.nanoTime();
+        rateLimiter.tryAcquire("first@one.example", now);
+
+        // Act
+        long relayWait = rateLimiter.tryAcquire("second@two.example", now);
+        long afterRelayRefill = rateLimiter.tryAcquire("third@two.example", now + relayWait);
+
+        // Assert
+        assertTrue(relayWait > 0);
+        assertEquals(0, afterRelayRefill);
+        assertEquals(1, meterRegistry.counter("notification.ratelimit.throttled", "limit", "relay").count());
+    }
+
+    @Test
+    void tryAcquire_WithSeveralRelays_ShouldAdmitTheQuotaOfAllOfThem() {
+        // Arrange
+        ReflectionTestUtils.setField(rateLimiter, "relayPerSecond", 1.0);
+        ReflectionTestUtils.setField(rateLimiter, "domainPerSecond", 0.0);
+        ReflectionTestUtils.setField(rateLimiter, "burst", 1);
+        ReflectionTestUtils.setField(rateLimiter, "relays", List.of("smtp1:25", "smtp2:25", "smtp3:25"));
+        rateLimiter.init();
+        long now = System.nanoTime();
+
+        // Act
+        int admitted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (rateLimiter.tryAcquire("user" + i + "@mail.example", now) == 0) {
+                admitted++;
+            }
+        }
+
+        // Assert
+        assertEquals(3, admitted);
+    }
+
+    @Test
+    void tryAcquire_WhenDisabled_ShouldAlwaysAllow() {
+        // Arrange
+        ReflectionTestUtils.setField(rateLimiter, "enabled", false);
+        rateLimiter.init();
+        long now = System.nanoTime();
+
+        // Act & Assert
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, rateLimiter.tryAcquire("user@mail.example", now));
+        }
+    }
+
+    @Test
+    void acquire_WhenThrottled_ShouldWaitAndRecordWaitTime() {
+        // Arrange
+        ReflectionTestUtils.setField(rateLimiter, "domainPerSecond", 20.0);
+        ReflectionTestUtils.setField(rateLimiter, "burst", 1);
+        rateLimiter.init();
+        rateLimiter.acquire("first@mail.example");
+
+        // Act
+        long start = System.nanoTime();
+        rateLimiter.acquire("second@mail.example");
+        long waited = System.nanoTime() - start;
+
+        // Assert
+        assertTrue(waited >= 40_000_000L, "waited " + waited + "ns");
+        assertEquals(1, meterRegistry.timer("notification.ratelimit.wait").count());
+    }
+
+    @Test
+    void domainOf_ShouldLowerCaseDomainAfterLastAt() {
+        assertEquals("mail.example", SendRateLimiter.domainOf("User@Mail.Example"));
+        assertEquals("", SendRateLimiter.domainOf("no-domain"));
+        assertEquals("", SendRateLimiter.domainOf(null));
+    }
+}
@@ -0,0 +1,94 @@
+package org.aston.learning.stage2.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void tryAcquire_ShouldAllowBurstThenAskToWaitOneInterval() {
+        // Arrange
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+
+        // Act & Assert
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(0, bucket.tryAcquire(now));
+        long wait = bucket.tryAcquire(now);
+        assertEquals(SECOND / 10, wait);
+        assertEquals(0, bucket.tryAcquire(now + wait));
+    }
+
+    @Test
+    void tryAcquire_WhenRefused_ShouldNotConsumePermit() {
+        // Arrange
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+        bucket.tryAcquire(now);
+
+        // Act
+        long first = bucket.tryAcquire(now);
+        long second = bucket.tryAcquire(now);
+
+        // Assert
+        assertEquals(first, second);
+    }
+
+    @Test
+    void release_ShouldReturnPermitToBucket() {
+        // Arrange
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+        bucket.tryAcquire(now);
+
+        // Act
+        bucket.release();
+
+        // Assert
+        assertEquals(0, bucket.tryAcquire(now));
+    }
+
+    @Test
+    void tryAcquire_FromManyThreads_ShouldNeverExceedBurst() throws Exception {
+        // Arrange
+        TokenBucket bucket = new TokenBucket(1, 100);
+        long now = System.nanoTime();
+        AtomicInteger granted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // Act
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 1000; j++) {
+                    if (bucket.tryAcquire(now) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(100, granted.get());
+    }
+
+    @Test
+    void constructor_WithNonPositiveRate_ShouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+    }
+}
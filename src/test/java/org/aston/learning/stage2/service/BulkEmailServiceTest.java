@@ -0,0 +1,181 @@
+package org.aston.learning.stage2.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Validation;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BulkEmailServiceTest {
+
+    @Mock
+    private EmailService emailService;
+
+    @InjectMocks
+    private BulkEmailService bulkEmailService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(bulkEmailService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(bulkEmailService, "validator",
+                Validation.buildDefaultValidatorFactory().getValidator());
+    }
+
+    private DeliveryHandle sentHandle(String recipient) {
+        DeliveryHandle handle = new DeliveryHandle(recipient);
+        handle.getCompletion().complete(null);
+        return handle;
+    }
+
+    private List<JsonNode> process(String body) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bulkEmailService.process(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), output);
+
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            lines.add(objectMapper.readTree(line));
+        }
+        return lines;
+    }
+
+    @Test
+    void process_WithNdjson_ShouldEnqueueEachItemAndReportResults() throws Exception {
+        // Arrange
+        when(emailService.sendCustomEmailAsync(eq("first@example.com"), anyString(), anyString()))
+                .thenReturn(sentHandle("first@example.com"));
+        when(emailService.sendCustomEmailAsync(eq("second@example.com"), anyString(), anyString()))
+                .thenReturn(sentHandle("second@example.com"));
+        String body = """
+                {"toEmail":"first@example.com","subject":"Hi","message":"One"}
+                {"toEmail":"second@example.com","subject":"Hi","message":"Two"}
+                """;
+
+        // Act
+        List<JsonNode> results = process(body);
+
+        // Assert
+        assertEquals(2, results.size());
+        assertEquals(0, results.get(0).get("index").asLong());
+        assertTrue(results.get(0).get("success").asBoolean());
+        assertEquals("second@example.com", results.get(1).get("email").asText());
+        assertFalse(results.get(1).get("deliveryId").asText().isEmpty());
+    }
+
+    @Test
+    void process_WithJsonArray_ShouldReportInvalidItemsWithoutSendingThem() throws Exception {
+        // Arrange
+        when(emailService.sendCustomEmailAsync(eq("valid@example.com"), anyString(), anyString()))
+                .thenReturn(sentHandle("valid@example.com"));
+        String body = """
+                [{"toEmail":"not-an-email","subject":"Hi","message":"One"},
+                 {"toEmail":"valid@example.com","subject":"Hi","message":"Two"}]
+                """;
+
+        // Act
+        List<JsonNode> results = process(body);
+
+        // Assert
+        assertEquals(2, results.size());
+        assertEquals(0, results.get(0).get("index").asLong());
+        assertFalse(results.get(0).get("success").asBoolean());
+        assertTrue(results.get(0).get("message").asText().startsWith("toEmail: "));
+        assertEquals(1, results.get(1).get("index").asLong());
+        assertTrue(results.get(1).get("success").asBoolean());
+        verify(emailService, never()).sendCustomEmailAsync(eq("not-an-email"), anyString(), anyString());
+    }
+
+    @Test
+    void process_ShouldWriteResultsInCompletionOrder() throws Exception {
+        // Arrange
+        DeliveryHandle slow = new DeliveryHandle("slow@example.com");
+        when(emailService.sendCustomEmailAsync(eq("slow@example.com"), anyString(), anyString())).thenReturn(slow);
+        when(emailService.sendCustomEmailAsync(eq("fast@example.com"), anyString(), anyString()))
+                .thenReturn(sentHandle("fast@example.com"));
+        CompletableFuture.runAsync(() -> slow.getCompletion().completeExceptionally(new RuntimeException("SMTP down")),
+                CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+        String body = """
+                {"toEmail":"slow@example.com","subject":"Hi","message":"One"}
+                {"toEmail":"fast@example.com","subject":"Hi","message":"Two"}
+                """;
+
+        // Act
+        List<JsonNode> results = process(body);
+
+        // Assert
+        assertEquals(2, results.size());
+        assertEquals("fast@example.com", results.get(0).get("email").asText());
+        assertEquals("slow@example.com", results.get(1).get("email").asText());
+        assertFalse(results.get(1).get("success").asBoolean());
+        assertEquals("Failed to send email: SMTP down", results.get(1).get("message").asText());
+    }
+
+    @Test
+    void process_WithItemOfWrongShape_ShouldReportItAndKeepReading() throws Exception {
+        // Arrange
+        when(emailService.sendCustomEmailAsync(eq("first@example.com"), anyString(), anyString()))
+                .thenReturn(sentHandle("first@example.com"));
+        when(emailService.sendCustomEmailAsync(eq("third@example.com"), anyString(), anyString()))
+                .thenReturn(sentHandle("third@example.com"));
+        String body = """
+                {"toEmail":"first@example.com","subject":"Hi","message":"One"}
+                {"toEmail":{"address":"second@example.com"},"subject":["Hi"],"message":"Two"}
+                {"toEmail":"third@example.com","subject":"Hi","message":"Three"}
+                """;
+
+        // Act
+        List<JsonNode> results = process(body);
+
+        // Assert
+        assertEquals(3, results.size());
+        JsonNode invalid = results.stream().filter(result -> result.get("index").asLong() == 1).findFirst().orElseThrow();
+        assertFalse(invalid.get("success").asBoolean());
+        assertTrue(invalid.get("message").asText().startsWith("Invalid request item"));
+        assertTrue(results.stream().filter(result -> result.get("index").asLong() == 2).findFirst().orElseThrow()
+                .get("success").asBoolean());
+        verify(emailService, times(2)).sendCustomEmailAsync(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void process_WithMalformedLine_ShouldReportItAndStopReading() throws Exception {
+        // Arrange
+        when(emailService.sendCustomEmailAsync(eq("first@example.com"), anyString(), anyString()))
+                .thenReturn(sentHandle("first@example.com"));
+        String body = """
+                {"toEmail":"first@example.com","subject":"Hi","message":"One"}
+                {"toEmail":"second@example.com",,"subject":"Hi"}
+                {"toEmail":"third@example.com","subject":"Hi","message":"Three"}
+                """;
+
+        // Act
+        List<JsonNode> results = process(body);
+
+        // Assert
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).get("success").asBoolean());
+        assertEquals(1, results.get(1).get("index").asLong());
+        assertTrue(results.get(1).get("message").asText().startsWith("Malformed JSON"));
+        verify(emailService, times(1)).sendCustomEmailAsync(anyString(), anyString(), anyString());
+    }
+}
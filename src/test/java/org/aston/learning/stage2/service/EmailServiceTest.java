@@ -1,5 +1,23 @@
 package org.aston.learning.stage2.service;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aston.learning.stage2.delivery.DeliveryDeferredException;
+import org.aston.learning.stage2.delivery.DeliveryHandle;
+import org.aston.learning.stage2.delivery.DeliveryLane;
+import org.aston.learning.stage2.delivery.DeliveryQueueFullException;
+import org.aston.learning.stage2.delivery.DeliveryStatus;
+import org.aston.learning.stage2.delivery.MailDeliveryQueue;
+import org.aston.learning.stage2.delivery.MailDigestBuffer;
+import org.aston.learning.stage2.delivery.OverflowPolicy;
+import org.aston.learning.stage2.mail.SmtpHealthIndicator;
+import org.aston.learning.stage2.metrics.NotificationMetrics;
+import org.aston.learning.stage2.outbox.OutboxEntry;
+import org.aston.learning.stage2.outbox.OutboxJournal;
+import org.aston.learning.stage2.ratelimit.SendRateLimiter;
+import org.aston.learning.stage2.template.NotificationTemplateEngine;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,14 +29,24 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.mail.MailAuthenticationException;
 import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -27,6 +55,21 @@ class EmailServiceTest {
     @Mock
     private JavaMailSender mailSender;
 
+    @Mock
+    private MailDeliveryQueue deliveryQueue;
+
+    @Mock
+    private SendRateLimiter rateLimiter;
+
+    @Mock
+    private SmtpHealthIndicator smtpHealth;
+
+    @Mock
+    private OutboxJournal outbox;
+
+    @Mock
+    private MailDigestBuffer digestBuffer;
+
     @InjectMocks
     private EmailService emailService;
 
@@ -35,14 +78,53 @@ class EmailServiceTest {
 
     private final String testEmail = "test@example.com";
     private final String testUserName = "Test User";
+    private SimpleMeterRegistry meterRegistry;
+    private CircuitBreaker smtpCircuitBreaker;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws Exception {
+        NotificationTemplateEngine templateEngine = new NotificationTemplateEngine();
+        templateEngine.loadTemplates();
+
         setField(emailService, "fromEmail", "noreply@test.com");
         setField(emailService, "siteUrl", "https://test.com");
+        setField(emailService, "templateEngine", templateEngine);
+
+        meterRegistry = new SimpleMeterRegistry();
+        NotificationMetrics metrics = new NotificationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", meterRegistry);
+        setField(emailService, "metrics", metrics);
+
+        // Opens after two failed calls out of the last two
+        smtpCircuitBreaker = CircuitBreaker.of("smtp", CircuitBreakerConfig.custom()
+                .slidingWindowSize(2)
+                .minimumNumberOfCalls(2)
+                .recordExceptions(org.springframework.mail.MailException.class)
+                .build());
+        setField(emailService, "smtpCircuitBreaker", smtpCircuitBreaker);
+        setField(emailService, "parkMs", 1000L);
+        setField(emailService, "sendTimeoutMs", 5000L);
+
+        // Synchronous sends go through the delivery queue too; run them on the test thread
+        lenient().when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any()))
+                .thenAnswer(this::deliverInline);
+    }
+
+    private DeliveryHandle deliverInline(InvocationOnMock invocation) {
+        java.util.function.Consumer<SimpleMailMessage> delivery = invocation.getArgument(2);
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        try {
+            delivery.accept(invocation.getArgument(0));
+            completion.complete(null);
+        } catch (RuntimeException e) {
+            completion.completeExceptionally(e);
+        }
+        DeliveryHandle handle = mock(DeliveryHandle.class);
+        lenient().when(handle.getCompletion()).thenReturn(completion);
+        return handle;
     }
 
-    private void setField(EmailService service, String fieldName, String value) {
+    private void setField(EmailService service, String fieldName, Object value) {
         try {
             var field = EmailService.class.getDeclaredField(fieldName);
             field.setAccessible(true);
@@ -180,8 +262,29 @@ class EmailServiceTest {
         assertTrue(exception.getMessage().contains("Could not send mail"));
     }
 
+    @Test
+    void sendEmail_ShouldRecordDeliveryByTypeAndOutcome() {
+        // Arrange
+        SimpleMailMessage failing = emailService.createUserDeletedEmail("failing@example.com", "Failing");
+        doNothing().doThrow(new MailSendException("Could not send mail"))
+                .when(mailSender).send(any(SimpleMailMessage.class));
+
+        // Act
+        emailService.sendUserCreatedEmail(testEmail, testUserName);
+        assertThrows(RuntimeException.class, () -> emailService.sendEmail(failing, "USER_DELETED"));
+
+        // Assert
+        assertEquals(1, meterRegistry.counter("notification.messages", "type", "USER_CREATED", "outcome", "sent").count());
+        assertEquals(1, meterRegistry.counter("notification.messages", "type", "USER_DELETED", "outcome", "failed").count());
+        assertEquals(1, meterRegistry.timer("notification.delivery", "type", "USER_DELETED", "outcome", "failed").count());
+        assertEquals(1, meterRegistry.timer("notification.render", "type", "USER_CREATED").count());
+    }
+
     @Test
     void testEmailConnection_WhenConfigurationIsValid_ShouldReturnTrue() {
+        // Arrange
+        when(smtpHealth.getStatus()).thenReturn(Status.UP);
+
         // Act
         boolean result = emailService.testEmailConnection();
 
@@ -190,4 +293,457 @@ class EmailServiceTest {
         // Check, if there was no send (just check config)
         verify(mailSender, never()).send(any(SimpleMailMessage.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testEmailConnection_WhenLastProbeFailed_ShouldReturnFalse() {
+        // Arrange
+        when(smtpHealth.getStatus()).thenReturn(Status.DOWN);
+
+        // Act
+        boolean result = emailService.testEmailConnection();
+
+        // Assert
+        assertFalse(result);
+        verifyNoInteractions(mailSender);
+    }
+
+    @Test
+    void sendEmails_ShouldSendAllMessagesInSingleCall() {
+        // Arrange
+        SimpleMailMessage first = emailService.createUserCreatedEmail("first@example.com", "First");
+        SimpleMailMessage second = emailService.createUserDeletedEmail("second@example.com", "Second");
+
+        // Act
+        Map<SimpleMailMessage, Exception> failures = emailService.sendEmails(List.of(first, second));
+
+        // Assert
+        assertTrue(failures.isEmpty());
+        verify(mailSender, times(1)).send(first, second);
+    }
+
+    @Test
+    void sendEmails_WhenSomeMessagesFail_ShouldReturnOnlyFailedMessages() {
+        // Arrange
+        SimpleMailMessage first = emailService.createUserCreatedEmail("first@example.com", "First");
+        SimpleMailMessage second = emailService.createUserDeletedEmail("second@example.com", "Second");
+        Exception cause = new RuntimeException("Mailbox unavailable");
+        doThrow(new MailSendException(Map.of(second, cause)))
+                .when(mailSender).send(first, second);
+
+        // Act
+        Map<SimpleMailMessage, Exception> failures = emailService.sendEmails(List.of(first, second));
+
+        // Assert
+        assertEquals(1, failures.size());
+        assertSame(cause, failures.get(second));
+    }
+
+    @Test
+    void sendEmails_WithEqualMessagesInBatch_ShouldReportEachOfThem() {
+        // Arrange
+        SimpleMailMessage first = emailService.createCustomEmail("a@example.com", "Subject", "Same");
+        SimpleMailMessage second = emailService.createCustomEmail("a@example.com", "Subject", "Same");
+        doThrow(new MailAuthenticationException("Authentication failed"))
+                .when(mailSender).send(first, second);
+
+        // Act
+        Map<SimpleMailMessage, Exception> failures = emailService.sendEmails(List.of(first, second));
+
+        // Assert
+        assertEquals(2, failures.size());
+        assertEquals(2.0, meterRegistry.counter("notification.messages", "type", "BATCH", "outcome", "failed").count());
+    }
+
+    @Test
+    void sendEmails_WhenAuthenticationFails_ShouldReportWholeBatchAsFailed() {
+        // Arrange
+        SimpleMailMessage first = emailService.createUserCreatedEmail("first@example.com", "First");
+        SimpleMailMessage second = emailService.createUserDeletedEmail("second@example.com", "Second");
+        doThrow(new MailAuthenticationException("Authentication failed"))
+                .when(mailSender).send(first, second);
+
+        // Act
+        Map<SimpleMailMessage, Exception> failures = emailService.sendEmails(List.of(first, second));
+
+        // Assert
+        assertEquals(2, failures.size());
+        verify(mailSender, never()).send(any(SimpleMailMessage.class));
+    }
+
+    @Test
+    void createCustomEmail_WithNullMessage_ShouldRenderEmptyBody() {
+        // Act
+        SimpleMailMessage message = emailService.createCustomEmail(testEmail, "Subject", null);
+
+        // Assert
+        assertEquals(testEmail, message.getTo()[0]);
+        assertEquals("Subject", message.getSubject());
+        assertNotNull(message.getText());
+    }
+
+    @Test
+    void sendCustomEmailAsync_ShouldEnqueueMessageInsteadOfSendingOnCallerThread() {
+        // Arrange
+        DeliveryHandle handle = new DeliveryHandle(testEmail);
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenReturn(handle);
+
+        // Act
+        DeliveryHandle result = emailService.sendCustomEmailAsync(testEmail, "Subject", "Message");
+
+        // Assert
+        assertSame(handle, result);
+        verify(deliveryQueue).submit(messageCaptor.capture(), eq(DeliveryLane.BULK), any());
+        assertEquals(testEmail, messageCaptor.getValue().getTo()[0]);
+        assertEquals("Subject", messageCaptor.getValue().getSubject());
+        verify(mailSender, never()).send(any(SimpleMailMessage.class));
+    }
+
+    @Test
+    void sendUserCreatedEmailAsync_ShouldDeliverThroughMailSenderWhenQueueRunsTask() {
+        // Arrange
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenAnswer(invocation -> {
+            SimpleMailMessage message = invocation.getArgument(0);
+            java.util.function.Consumer<SimpleMailMessage> delivery = invocation.getArgument(2);
+            delivery.accept(message);
+            return new DeliveryHandle(testEmail);
+        });
+
+        // Act
+        emailService.sendUserCreatedEmailAsync(testEmail, testUserName);
+
+        // Assert
+        verify(mailSender).send(messageCaptor.capture());
+        assertEquals("Добро пожаловать на наш сайт!", messageCaptor.getValue().getSubject());
+        verify(deliveryQueue).submit(eq(messageCaptor.getValue()), eq(DeliveryLane.TRANSACTIONAL), any());
+        // The queue rate limits the async path itself
+        verify(rateLimiter, never()).acquire(any());
+    }
+
+    @Test
+    void sendCustomEmailAsync_ShouldJournalBeforeQueueingAndAcknowledgeAfterDelivery() {
+        // Arrange
+        when(outbox.append(any(SimpleMailMessage.class), eq(EmailService.TYPE_CUSTOM))).thenReturn(42L);
+        java.util.concurrent.atomic.AtomicReference<java.util.function.Consumer<SimpleMailMessage>> delivery =
+                new java.util.concurrent.atomic.AtomicReference<>();
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenAnswer(invocation -> {
+            delivery.set(invocation.getArgument(2));
+            return new DeliveryHandle(testEmail);
+        });
+
+        // Act
+        SimpleMailMessage queued = emailService.createCustomEmail(testEmail, "Subject", "Message");
+        emailService.sendCustomEmailAsync(testEmail, "Subject", "Message");
+
+        // Assert
+        var inOrder = inOrder(outbox, deliveryQueue);
+        inOrder.verify(outbox).append(any(SimpleMailMessage.class), eq(EmailService.TYPE_CUSTOM));
+        inOrder.verify(deliveryQueue).submit(any(SimpleMailMessage.class), eq(DeliveryLane.BULK), any());
+        verify(outbox, never()).acknowledge(anyLong());
+
+        delivery.get().accept(queued);
+        verify(mailSender).send(queued);
+        verify(outbox).acknowledge(42L);
+    }
+
+    @Test
+    void sendCustomEmailAsync_WhenDeliveryFails_ShouldStillAcknowledgeJournalEntry() {
+        // Arrange
+        when(outbox.append(any(SimpleMailMessage.class), any())).thenReturn(7L);
+        doThrow(new MailSendException("SMTP rejected")).when(mailSender).send(any(SimpleMailMessage.class));
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenAnswer(invocation -> {
+            java.util.function.Consumer<SimpleMailMessage> delivery = invocation.getArgument(2);
+            assertThrows(RuntimeException.class, () -> delivery.accept(invocation.getArgument(0)));
+            return new DeliveryHandle(testEmail);
+        });
+
+        // Act
+        emailService.sendCustomEmailAsync(testEmail, "Subject", "Message");
+
+        // Assert
+        verify(outbox).acknowledge(7L);
+    }
+
+    @Test
+    void redeliver_ShouldQueueJournaledMessageWithoutAppendingItAgain() {
+        // Arrange
+        SimpleMailMessage message = emailService.createCustomEmail(testEmail, "Subject", "Message");
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenAnswer(invocation -> {
+            java.util.function.Consumer<SimpleMailMessage> delivery = invocation.getArgument(2);
+            delivery.accept(invocation.getArgument(0));
+            return new DeliveryHandle(testEmail);
+        });
+
+        // Act
+        emailService.redeliver(new OutboxEntry(3L, EmailService.TYPE_CUSTOM, message));
+
+        // Assert
+        verify(outbox, never()).append(any(), any());
+        verify(mailSender).send(message);
+        verify(outbox).acknowledge(3L);
+    }
+
+    @Test
+    void sendJournaledAsync_WhenQueueRejectsIt_ShouldKeepJournalEntry() {
+        // Arrange
+        SimpleMailMessage message = emailService.createUserCreatedEmail(testEmail, testUserName);
+        DeliveryHandle rejected = mock(DeliveryHandle.class);
+        when(rejected.getStatus()).thenReturn(DeliveryStatus.FAILED);
+        when(rejected.isRejected()).thenReturn(true);
+        when(deliveryQueue.submit(eq(message), eq(DeliveryLane.TRANSACTIONAL), any(), eq(OverflowPolicy.REJECT)))
+                .thenReturn(rejected);
+
+        // Act
+        DeliveryHandle result = emailService.sendJournaledAsync(message, "USER_CREATED", 9L, OverflowPolicy.REJECT);
+
+        // Assert - the caller submits it again later, or the replay does after a restart
+        assertSame(rejected, result);
+        verify(outbox, never()).append(any(), any());
+        verify(outbox, never()).acknowledge(anyLong());
+    }
+
+    @Test
+    void sendCustomEmailAsync_WhenTypeIsDigested_ShouldAddToDigestInsteadOfQueue() {
+        // Arrange
+        DeliveryHandle handle = new DeliveryHandle(testEmail);
+        when(outbox.append(any(SimpleMailMessage.class), any())).thenReturn(5L);
+        when(digestBuffer.isDigested(EmailService.TYPE_CUSTOM)).thenReturn(true);
+        when(digestBuffer.add(any(SimpleMailMessage.class), any(), any())).thenReturn(handle);
+
+        // Act
+        DeliveryHandle result = emailService.sendCustomEmailAsync(testEmail, "Subject", "Message");
+
+        // Assert
+        assertSame(handle, result);
+        verifyNoInteractions(deliveryQueue);
+        ArgumentCaptor<Runnable> onCompleted = ArgumentCaptor.forClass(Runnable.class);
+        verify(digestBuffer).add(any(SimpleMailMessage.class), eq(DeliveryLane.BULK), onCompleted.capture());
+        onCompleted.getValue().run();
+        verify(outbox).acknowledge(5L);
+    }
+
+    @Test
+    void sendCustomEmailAsync_WhenDigestBufferIsFull_ShouldQueueMessageOnItsOwn() {
+        // Arrange
+        when(digestBuffer.isDigested(EmailService.TYPE_CUSTOM)).thenReturn(true);
+        when(digestBuffer.add(any(SimpleMailMessage.class), any(), any())).thenReturn(null);
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenReturn(new DeliveryHandle(testEmail));
+
+        // Act
+        emailService.sendCustomEmailAsync(testEmail, "Subject", "Message");
+
+        // Assert
+        verify(deliveryQueue).submit(any(SimpleMailMessage.class), eq(DeliveryLane.BULK), any());
+    }
+
+    @Test
+    void createDigestEmail_ShouldListEveryMessageInOneEmail() {
+        // Arrange
+        SimpleMailMessage first = emailService.createCustomEmail(testEmail, "Invoice", "Your invoice is ready");
+        SimpleMailMessage second = emailService.createCustomEmail(testEmail, "Reminder", "Meeting at 10");
+
+        // Act
+        SimpleMailMessage digest = emailService.createDigestEmail(List.of(first, second));
+
+        // Assert
+        assertEquals(testEmail, digest.getTo()[0]);
+        assertEquals("noreply@test.com", digest.getFrom());
+        assertEquals("Новые уведомления: 2", digest.getSubject());
+        assertTrue(digest.getText().indexOf("Invoice") < digest.getText().indexOf("Reminder"));
+        assertTrue(digest.getText().contains("Your invoice is ready"));
+        assertTrue(digest.getText().contains("Meeting at 10"));
+        assertEquals(1, meterRegistry.timer("notification.render", "type", "DIGEST").count());
+    }
+
+    @Test
+    void sendUserCreatedEmail_ShouldWaitInTransactionalLane() {
+        // Act
+        emailService.sendUserCreatedEmail(testEmail, testUserName);
+
+        // Assert - the queue takes the rate limit permit for synchronous sends as well
+        verify(deliveryQueue).submit(any(SimpleMailMessage.class), eq(DeliveryLane.TRANSACTIONAL), any());
+        verify(mailSender).send(any(SimpleMailMessage.class));
+        verify(rateLimiter, never()).acquire(any());
+    }
+
+    @Test
+    void sendCustomEmail_ShouldWaitInBulkLane() {
+        // Act
+        emailService.sendCustomEmail(testEmail, "Subject", "Message");
+
+        // Assert
+        verify(deliveryQueue).submit(any(SimpleMailMessage.class), eq(DeliveryLane.BULK), any());
+    }
+
+    @Test
+    void sendEmail_WhenQueueRejects_ShouldThrowQueueFailure() {
+        // Arrange
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any()))
+                .thenAnswer(invocation -> {
+                    DeliveryHandle handle = mock(DeliveryHandle.class);
+                    when(handle.getCompletion()).thenReturn(
+                            CompletableFuture.failedFuture(new DeliveryQueueFullException("Delivery queue is full")));
+                    return handle;
+                });
+
+        // Act & Assert
+        assertThrows(DeliveryQueueFullException.class,
+                () -> emailService.sendUserDeletedEmail(testEmail, testUserName));
+        verifyNoInteractions(mailSender);
+    }
+
+    @Test
+    void sendEmail_WhenNotSentWithinTimeout_ShouldWithdrawItFromQueue() {
+        // Arrange - no worker takes the message
+        setField(emailService, "sendTimeoutMs", 50L);
+        DeliveryHandle handle = new DeliveryHandle(testEmail);
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenReturn(handle);
+
+        // Act & Assert - the caller may retry, as the queued message will not go out any more
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> emailService.sendUserDeletedEmail(testEmail, testUserName));
+        assertInstanceOf(TimeoutException.class, exception.getCause());
+        assertEquals(DeliveryStatus.FAILED, handle.getStatus());
+        assertFalse(handle.cancel());
+    }
+
+    @Test
+    void sendEmail_WhenStillBeingSentAfterTimeout_ShouldNotFailTheCaller() {
+        // Arrange - a worker is handing the message to SMTP
+        setField(emailService, "sendTimeoutMs", 50L);
+        DeliveryHandle handle = mock(DeliveryHandle.class);
+        when(handle.getCompletion()).thenReturn(new CompletableFuture<>());
+        when(handle.cancel()).thenReturn(false);
+        when(handle.getStatus()).thenReturn(DeliveryStatus.SENDING);
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenReturn(handle);
+
+        // Act & Assert - failing here would have the listener send it a second time
+        assertDoesNotThrow(() -> emailService.sendUserDeletedEmail(testEmail, testUserName));
+    }
+
+    @Test
+    void sendEmail_WhenSmtpKeepsFailing_ShouldOpenCircuitAndStopCallingRelay() {
+        // Arrange
+        doThrow(new MailSendException("Connection timed out")).when(mailSender).send(any(SimpleMailMessage.class));
+        assertThrows(RuntimeException.class, () -> emailService.sendCustomEmail(testEmail, "Subject", "Message"));
+        assertThrows(RuntimeException.class, () -> emailService.sendCustomEmail(testEmail, "Subject", "Message"));
+
+        // Act & Assert
+        assertEquals(CircuitBreaker.State.OPEN, smtpCircuitBreaker.getState());
+        assertThrows(CallNotPermittedException.class,
+                () -> emailService.sendUserCreatedEmail(testEmail, testUserName));
+        verify(mailSender, times(2)).send(any(SimpleMailMessage.class));
+        verify(deliveryQueue, times(2)).submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any());
+    }
+
+    @Test
+    void sendCustomEmailAsync_WhenCircuitIsOpen_ShouldParkMessageAndKeepJournalEntry() {
+        // Arrange
+        smtpCircuitBreaker.transitionToOpenState();
+        when(outbox.append(any(SimpleMailMessage.class), any())).thenReturn(7L);
+        when(deliveryQueue.submit(any(SimpleMailMessage.class), any(DeliveryLane.class), any())).thenAnswer(invocation -> {
+            java.util.function.Consumer<SimpleMailMessage> delivery = invocation.getArgument(2);
+            DeliveryDeferredException parked = assertThrows(DeliveryDeferredException.class,
+                    () -> delivery.accept(invocation.getArgument(0)));
+            assertEquals(1_000_000_000L, parked.getDelayNanos());
+            return new DeliveryHandle(testEmail);
+        });
+
+        // Act
+        emailService.sendCustomEmailAsync(testEmail, "Subject", "Message");
+
+        // Assert
+        verifyNoInteractions(mailSender);
+        verify(outbox, never()).acknowledge(anyLong());
+    }
+
+    @Test
+    void registerDigest_WhenCircuitIsOpen_ShouldParkDigestInsteadOfFailingIt() {
+        // Arrange
+        ArgumentCaptor<java.util.function.Consumer<SimpleMailMessage>> delivery =
+                ArgumentCaptor.forClass(java.util.function.Consumer.class);
+        emailService.registerDigest();
+        verify(digestBuffer).register(any(), delivery.capture());
+        SimpleMailMessage digest = emailService.createDigestEmail(List.of(
+                emailService.createCustomEmail(testEmail, "One", "First"),
+                emailService.createCustomEmail(testEmail, "Two", "Second")));
+
+        // Act
+        smtpCircuitBreaker.transitionToOpenState();
+
+        // Assert
+        assertThrows(DeliveryDeferredException.class, () -> delivery.getValue().accept(digest));
+        verifyNoInteractions(mailSender);
+    }
+
+    @Test
+    void sendEmails_WhenCircuitIsOpen_ShouldReportEveryMessageAsFailed() {
+        // Arrange
+        smtpCircuitBreaker.transitionToOpenState();
+        SimpleMailMessage first = emailService.createCustomEmail("a@example.com", "Subject", "One");
+        SimpleMailMessage second = emailService.createCustomEmail("b@example.com", "Subject", "Two");
+
+        // Act
+        Map<SimpleMailMessage, Exception> failures = emailService.sendEmails(List.of(first, second));
+
+        // Assert
+        assertEquals(2, failures.size());
+        assertInstanceOf(CallNotPermittedException.class, failures.get(first));
+        verifyNoInteractions(mailSender);
+    }
+
+    @Test
+    void sendUserCreatedEmail_ShouldProduceSameBodyAsFormerStringFormat() {
+        // Arrange
+        String expected = String.format(
+                "Здравствуйте, %s!%n%n" +
+                        "Ваш аккаунт на сайте %s был успешно создан.%n%n" +
+                        "Мы рады приветствовать вас в нашем сообществе!%n%n" +
+                        "С уважением,%nКоманда %s",
+                testUserName, "https://test.com", "https://test.com"
+        );
+
+        // Act
+        emailService.sendUserCreatedEmail(testEmail, testUserName);
+
+        // Assert
+        verify(mailSender).send(messageCaptor.capture());
+        assertEquals(expected, messageCaptor.getValue().getText());
+    }
+
+    @Test
+    void sendUserDeletedEmail_WithEnglishLocale_ShouldUseEnglishTemplate() {
+        // Arrange
+        setField(emailService, "locale", Locale.ENGLISH);
+
+        // Act
+        emailService.sendUserDeletedEmail(testEmail, testUserName);
+
+        // Assert
+        verify(mailSender).send(messageCaptor.capture());
+        SimpleMailMessage sentMessage = messageCaptor.getValue();
+        assertEquals("Your account has been deleted", sentMessage.getSubject());
+        assertTrue(sentMessage.getText().contains("Hello, Test User!"));
+    }
+
+    @Test
+    void createPasswordResetEmail_ShouldRenderPasswordResetTemplate() {
+        // Act
+        SimpleMailMessage message = emailService.createPasswordResetEmail(testEmail, testUserName);
+
+        // Assert
+        assertEquals("Пароль от вашего аккаунта был сброшен", message.getSubject());
+        assertTrue(message.getText().contains("Здравствуйте, Test User!"));
+        assertArrayEquals(new String[]{testEmail}, message.getTo());
+    }
+
+    @Test
+    void createEmailChangedEmail_ShouldMentionNewAddress() {
+        // Act
+        SimpleMailMessage message = emailService.createEmailChangedEmail("new@example.com", testUserName);
+
+        // Assert
+        assertEquals("Адрес электронной почты был изменён", message.getSubject());
+        assertTrue(message.getText().contains("new@example.com"));
+        assertArrayEquals(new String[]{"new@example.com"}, message.getTo());
+    }
+}
@@ -0,0 +1,104 @@
+package org.aston.learning.stage2.template;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationTemplateEngineTest {
+
+    private NotificationTemplateEngine templateEngine;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        templateEngine = new NotificationTemplateEngine();
+        templateEngine.loadTemplates();
+    }
+
+    @Test
+    void loadTemplates_ShouldLoadBundledTemplates() {
+        // Assert
+        assertAll(
+                () -> assertTrue(templateEngine.hasTemplate("welcome")),
+                () -> assertTrue(templateEngine.hasTemplate("deletion")),
+                () -> assertTrue(templateEngine.hasTemplate("custom")),
+                () -> assertTrue(templateEngine.hasTemplate("password-reset")),
+                () -> assertTrue(templateEngine.hasTemplate("email-changed")),
+                () -> assertTrue(templateEngine.hasTemplate("welcome_en"))
+        );
+    }
+
+    @Test
+    void render_ShouldSubstituteVariablesInSubjectAndBody() {
+        // Arrange
+        templateEngine.register("greeting", "Subject: Hi {{name}}\n\nHello, {{name}} from {{site}}!\n");
+
+        // Act
+        RenderedNotification rendered = templateEngine.render("greeting", null,
+                Map.of("name", "Alice", "site", "example.com"));
+
+        // Assert
+        assertEquals("Hi Alice", rendered.getSubject());
+        assertEquals("Hello, Alice from example.com!", rendered.getBody());
+    }
+
+    @Test
+    void render_ShouldPreferMostSpecificLocaleAndFallBackToDefault() {
+        // Arrange
+        templateEngine.register("note", "Subject: default\n\nbody");
+        templateEngine.register("note_en", "Subject: english\n\nbody");
+        templateEngine.register("note_en_GB", "Subject: british\n\nbody");
+
+        // Act & Assert
+        assertEquals("british", templateEngine.render("note", Locale.UK, Map.of()).getSubject());
+        assertEquals("english", templateEngine.render("note", Locale.US, Map.of()).getSubject());
+        assertEquals("default", templateEngine.render("note", Locale.GERMAN, Map.of()).getSubject());
+        assertEquals("default", templateEngine.render("note", null, Map.of()).getSubject());
+    }
+
+    @Test
+    void render_ShouldUsePlatformLineSeparators() {
+        // Arrange
+        templateEngine.register("lines", "Subject: s\n\nfirst\nsecond");
+
+        // Act
+        RenderedNotification rendered = templateEngine.render("lines", null, Map.of());
+
+        // Assert
+        assertEquals("first" + System.lineSeparator() + "second", rendered.getBody());
+    }
+
+    @Test
+    void render_WithMissingVariable_ShouldThrowException() {
+        // Arrange
+        templateEngine.register("partial", "Subject: s\n\nHello, {{name}}!");
+
+        // Act & Assert
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> templateEngine.render("partial", null, Map.of()));
+        assertTrue(exception.getMessage().contains("name"));
+    }
+
+    @Test
+    void render_WithUnknownTemplate_ShouldThrowException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> templateEngine.render("missing", Locale.ENGLISH, Map.of()));
+    }
+
+    @Test
+    void register_WithoutSubjectHeader_ShouldThrowException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> templateEngine.register("broken", "Hello"));
+    }
+
+    @Test
+    void compile_WithUnclosedPlaceholder_ShouldThrowException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> NotificationTemplate.compile("broken", "Hello, {{name"));
+    }
+}